@@ -2,11 +2,26 @@ package com.mrkelpy.aosplayermanager;
 
 import com.mrkelpy.aosplayermanager.configuration.AOSPlayerManagerConfig;
 import com.mrkelpy.aosplayermanager.configuration.LevelSetConfiguration;
+import com.mrkelpy.aosplayermanager.configuration.WorldPolicy;
 import com.mrkelpy.aosplayermanager.events.AOSPlayerManagerCommands;
 import com.mrkelpy.aosplayermanager.events.GlobalPeriodicDataSavingEvent;
+import com.mrkelpy.aosplayermanager.events.ManagedWorldEvents;
+import com.mrkelpy.aosplayermanager.events.PlayerDataPrefetchEvents;
 import com.mrkelpy.aosplayermanager.events.PlayerDataSavingEvents;
 import com.mrkelpy.aosplayermanager.events.onWorldChangedEvents;
+import com.mrkelpy.aosplayermanager.util.BackupDeltas;
+import com.mrkelpy.aosplayermanager.util.BackupPolicy;
+import com.mrkelpy.aosplayermanager.util.BackupRetention;
+import com.mrkelpy.aosplayermanager.util.BackupSegments;
 import com.mrkelpy.aosplayermanager.util.FileUtils;
+import com.mrkelpy.aosplayermanager.util.ItemBlobStore;
+import com.mrkelpy.aosplayermanager.util.ManagedWorldRegistry;
+import com.mrkelpy.aosplayermanager.util.PlayerdataCache;
+import com.mrkelpy.aosplayermanager.util.PlayerdataDirtyTracker;
+import com.mrkelpy.aosplayermanager.util.PlayerdataPreloader;
+import com.mrkelpy.aosplayermanager.util.PlayerdataRecords;
+import com.mrkelpy.aosplayermanager.util.PlayerdataSaveCoalescer;
+import com.mrkelpy.aosplayermanager.util.PlayerdataWriteQueue;
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.java.JavaPlugin;
 
@@ -44,6 +59,7 @@ public class AOSPlayerManager extends JavaPlugin {
 
         LevelSetConfiguration.setup();
         AOSPlayerManagerConfig.setup();
+        WorldPolicy.reload();
     }
 
     @Override
@@ -51,6 +67,21 @@ public class AOSPlayerManager extends JavaPlugin {
         LOGGER.info("AOSPlayerManager has been enabled!");
         this.getServer().getPluginManager().registerEvents(new onWorldChangedEvents(), this);
         this.getServer().getPluginManager().registerEvents(new PlayerDataSavingEvents(), this);
+        this.getServer().getPluginManager().registerEvents(new PlayerDataPrefetchEvents(), this);
+        this.getServer().getPluginManager().registerEvents(new ManagedWorldEvents(), this);
+        PlayerdataWriteQueue.INSTANCE.configure();
+        BackupPolicy.INSTANCE.configure();
+        BackupRetention.INSTANCE.configure();
+        PlayerdataCache.INSTANCE.configure();
+        BackupSegments.configure();
+        BackupDeltas.configure();
+        ItemBlobStore.INSTANCE.configure();
+        PlayerdataRecords.configure();
+        PlayerdataDirtyTracker.INSTANCE.configure();
+        PlayerdataPreloader.INSTANCE.configure();
+
+        if (AOSPlayerManagerConfig.getConfig().getBoolean("storage.item-blob-gc-on-startup"))
+            ItemBlobStore.INSTANCE.collectGarbageAsync();
 
         if (AOSPlayerManagerConfig.getConfig().getBoolean("general.global-save"))
             new GlobalPeriodicDataSavingEvent().runTaskTimer(this);
@@ -58,8 +89,18 @@ public class AOSPlayerManager extends JavaPlugin {
         this.registerCommands();
     }
 
+    /**
+     * On plugin disabling, stops the background retention, blob collection and preloads, saves any coalesced saves still waiting for their window
+     * and then waits for every pending playerdata write to reach the disk.
+     */
     @Override
     public void onDisable() {
+        BackupRetention.INSTANCE.shutdown(30000);
+        ItemBlobStore.INSTANCE.shutdown(30000);
+        PlayerdataPreloader.INSTANCE.shutdown(5000);
+        PlayerdataSaveCoalescer.INSTANCE.flushAll();
+        PlayerdataWriteQueue.INSTANCE.shutdown(30000);
+        ManagedWorldRegistry.INSTANCE.shutdown();
         LOGGER.info("AOSPlayerManager has been disabled!");
     }
 
@@ -1,6 +1,7 @@
 package com.mrkelpy.aosplayermanager.common;
 
 import java.util.Date;
+import java.util.function.Supplier;
 
 /**
  * This class is used to store and handle a backup for the playerdata of a player.
@@ -8,7 +9,8 @@ import java.util.Date;
  */
 public class BackupHolder {
 
-    private final PlayerDataHolder playerdata;
+    private PlayerDataHolder playerdata;
+    private Supplier<PlayerDataHolder> playerdataLoader;
     private final Date saveDate;
 
     /**
@@ -22,10 +24,27 @@ public class BackupHolder {
     }
 
     /**
-     * Gets the playerdata stored in this BackupHolder.
+     * Constructor for a BackupHolder whose playerdata is only loaded the first time it's needed, so that
+     * listing backups doesn't require reading them.
+     * @param saveDate When playerdata was saved.
+     * @param playerdataLoader Loads the playerdata to be stored.
+     */
+    public BackupHolder(Date saveDate, Supplier<PlayerDataHolder> playerdataLoader) {
+        this.saveDate = saveDate;
+        this.playerdataLoader = playerdataLoader;
+    }
+
+    /**
+     * Gets the playerdata stored in this BackupHolder, loading it if it wasn't yet.
      * @return The playerdata.
      */
-    public PlayerDataHolder getPlayerdata() {
+    public synchronized PlayerDataHolder getPlayerdata() {
+
+        if (this.playerdataLoader != null) {
+            this.playerdata = this.playerdataLoader.get();
+            this.playerdataLoader = null;
+        }
+
         return playerdata;
     }
 
@@ -1,9 +1,13 @@
 package com.mrkelpy.aosplayermanager.common;
 
 import com.google.gson.*;
-import com.mrkelpy.aosplayermanager.configuration.AOSPlayerManagerConfig;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.mrkelpy.aosplayermanager.configuration.WorldPolicy;
 import com.mrkelpy.aosplayermanager.util.FileUtils;
+import com.mrkelpy.aosplayermanager.util.PlayerdataMetrics;
 import com.mrkelpy.aosplayermanager.util.SerializationUtils;
+import net.minecraft.server.v1_7_R4.NBTTagCompound;
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.entity.Player;
@@ -18,12 +22,23 @@ import java.util.stream.Collectors;
 /**
  * This class implements a way to store, serialize, and de-serialize selective sections of a player's
  * data, in order to load it into a player when needed.
+ * <br>
+ * When captured from a live player, the items are only copied into NBT compounds, which is all the main thread has
+ * to do; encoding them into bytes is left for whoever writes the holder. The ItemStacks are built from the compounds
+ * the first time they're asked for.
+ * <br>
+ * When read from storage, the items are kept in their encoded form and only decoded the first time they're asked for,
+ * since decoding them is by far the most expensive part of a read, and many readers only need the coordinates or stats.
  */
 @SuppressWarnings({"unused", "unchecked"})
 public class PlayerDataHolder implements Serializable {
 
     private ItemStack[] playerInventory;
     private ItemStack[] playerArmour;
+    private transient NBTTagCompound[] capturedInventory;
+    private transient NBTTagCompound[] capturedArmour;
+    private transient LazyItems encodedInventory;
+    private transient LazyItems encodedArmour;
     private ArrayList<SimplePotionEffect> playerPotionEffects;
     private PartialLocation playerCoordinates;
     private int playerExperienceLevels;
@@ -38,8 +53,8 @@ public class PlayerDataHolder implements Serializable {
      * This constructor can be used for precise control over the data that is saved.
      */
     public PlayerDataHolder(Player player, Queue<Object> data) {
-        this.playerInventory = (ItemStack[]) data.remove();
-        this.playerArmour = (ItemStack[]) data.remove();
+        this.capturedInventory = SerializationUtils.itemStackArrayToNBT((ItemStack[]) data.remove());
+        this.capturedArmour = SerializationUtils.itemStackArrayToNBT((ItemStack[]) data.remove());
 
         Collection<PotionEffect> potionEffects = (Collection<PotionEffect>) data.remove();
         this.playerPotionEffects = potionEffects.stream().map(SimplePotionEffect::new).collect(Collectors.toCollection(ArrayList::new));
@@ -55,16 +70,15 @@ public class PlayerDataHolder implements Serializable {
      * Constructs the PlayerDataHolder instance from a given player, extracting
      * the needed data from the object.
      * <br>
-     * At construction time, the data will be saved,so that a perfect replica of the saved state can be
-     * created.
+     * The constructor only takes a snapshot: the items are copied into NBT compounds, which are encoded later on,
+     * so that the holder can be serialized off the main thread.
      * @param player The player to get the data from
      * @param location The player location.
      *(This is here because the player's location can vary even for two worlds in a Set.)
      */
     public PlayerDataHolder(Player player, PartialLocation location) {
-        player.saveData();
-        this.playerInventory = player.getInventory().getContents();
-        this.playerArmour = player.getInventory().getArmorContents();
+        this.capturedInventory = SerializationUtils.itemStackArrayToNBT(player.getInventory().getContents());
+        this.capturedArmour = SerializationUtils.itemStackArrayToNBT(player.getInventory().getArmorContents());
         this.playerPotionEffects = player.getActivePotionEffects().stream().map(SimplePotionEffect::new).collect(Collectors.toCollection(ArrayList::new));
         this.playerCoordinates = location;
         this.playerExperienceLevels = player.getLevel();
@@ -83,6 +97,48 @@ public class PlayerDataHolder implements Serializable {
         this(player, new PartialLocation(location));
     }
 
+    /**
+     * Creates a copy of another PlayerDataHolder, with its own item arrays, so that changes made to
+     * the copy don't leak back into the original.
+     * @param other The PlayerDataHolder to copy
+     */
+    public PlayerDataHolder(PlayerDataHolder other) {
+
+        // The captured compounds are never changed, so they can be shared, unlike the ItemStack arrays. The encoded
+        // items are shared too, so that they're only decoded once, no matter which copy asks for them first.
+        synchronized (other) {
+            this.playerInventory = other.playerInventory != null ? other.playerInventory.clone() : null;
+            this.playerArmour = other.playerArmour != null ? other.playerArmour.clone() : null;
+            this.capturedInventory = other.capturedInventory;
+            this.capturedArmour = other.capturedArmour;
+            this.encodedInventory = other.encodedInventory;
+            this.encodedArmour = other.encodedArmour;
+        }
+
+        this.playerPotionEffects = other.playerPotionEffects != null ? new ArrayList<>(other.playerPotionEffects) : null;
+        this.playerCoordinates = other.playerCoordinates;
+        this.playerExperienceLevels = other.playerExperienceLevels;
+        this.playerExperiencePoints = other.playerExperiencePoints;
+        this.playerHealth = other.playerHealth;
+        this.playerHunger = other.playerHunger;
+    }
+
+    /**
+     * Constructs the PlayerDataHolder from every one of its values, for when they are decoded from a storage format
+     * other than JSON. The items are only decoded the first time they're asked for.
+     */
+    public PlayerDataHolder(EncodedItems inventory, EncodedItems armour, ArrayList<SimplePotionEffect> potionEffects,
+                            PartialLocation coordinates, int experienceLevels, float experiencePoints, double health, int hunger) {
+        this.encodedInventory = inventory != null ? new LazyItems(inventory) : null;
+        this.encodedArmour = armour != null ? new LazyItems(armour) : null;
+        this.playerPotionEffects = potionEffects;
+        this.playerCoordinates = coordinates;
+        this.playerExperienceLevels = experienceLevels;
+        this.playerExperiencePoints = experiencePoints;
+        this.playerHealth = health;
+        this.playerHunger = hunger;
+    }
+
     /**
      * Takes in a serialized PlayerDataHolder and de-serializes it, so that the PlayerDataHolder
      * can be used as normal.
@@ -91,6 +147,22 @@ public class PlayerDataHolder implements Serializable {
         this.deserialize(FileUtils.GSON.toJsonTree(serializedPlayerData).getAsJsonObject());
     }
 
+    /**
+     * Alternative for {@link #PlayerDataHolder(HashMap)} that takes in the serialized PlayerDataHolder
+     * as a JsonObject.
+     */
+    public PlayerDataHolder(JsonObject serializedPlayerData) {
+        this.deserialize(serializedPlayerData);
+    }
+
+    /**
+     * Alternative for {@link #PlayerDataHolder(JsonObject)} that reads the serialized PlayerDataHolder straight
+     * from a JSON stream, in a single pass.
+     */
+    public PlayerDataHolder(JsonReader jsonReader) throws IOException {
+        this.deserialize(jsonReader);
+    }
+
     /**
      * Serializes the PlayerDataHolder into a JSON-like object, so that the player state can be stored
      * in the correct file.
@@ -98,13 +170,25 @@ public class PlayerDataHolder implements Serializable {
      */
     public HashMap<String, Object> serialize() {
 
-        HashMap<String, Object> serializedPlayerdata = new HashMap<>();
+        HashMap<String, Object> serializedPlayerdata = this.serializeStats();
 
         serializedPlayerdata.put("inventory",
-                SerializationUtils.itemStackArrayToBase64(this.playerInventory));
+                SerializationUtils.nbtArrayToBase64(this.getPlayerInventoryNBT()));
 
         serializedPlayerdata.put("armour",
-                SerializationUtils.itemStackArrayToBase64(this.playerArmour));
+                SerializationUtils.nbtArrayToBase64(this.getPlayerArmourNBT()));
+
+        return serializedPlayerdata;
+    }
+
+    /**
+     * Serializes everything in the PlayerDataHolder except for the inventory and the armour, for when the items
+     * are handled separately.
+     * @return A JSON-like object representing the PlayerDataHolder, without the items
+     */
+    public HashMap<String, Object> serializeStats() {
+
+        HashMap<String, Object> serializedPlayerdata = new HashMap<>();
 
         serializedPlayerdata.put("potionEffects", this.playerPotionEffects.size() > 0
                 ? this.playerPotionEffects.stream().map(SimplePotionEffect::serialize).collect(Collectors.toList()) : null);
@@ -118,6 +202,42 @@ public class PlayerDataHolder implements Serializable {
         return serializedPlayerdata;
     }
 
+    /**
+     * Computes a 64-bit fingerprint of everything in the PlayerDataHolder: the items, the potion effects,
+     * the coordinates and the stats. Holders with the same data always have the same fingerprint, so this
+     * can be used to tell whether the data changed since it was last stored, without serializing it.
+     * @return The fingerprint of the PlayerDataHolder
+     */
+    public long fingerprint() {
+
+        long fingerprint = 0xCBF29CE484222325L;
+        fingerprint = PlayerDataHolder.mixItems(fingerprint, this.getPlayerInventoryNBT());
+        fingerprint = PlayerDataHolder.mixItems(fingerprint, this.getPlayerArmourNBT());
+
+        if (this.playerPotionEffects != null) {
+            for (SimplePotionEffect potionEffect : this.playerPotionEffects) {
+                fingerprint = PlayerDataHolder.mix(fingerprint, potionEffect.getType().hashCode());
+                fingerprint = PlayerDataHolder.mix(fingerprint, potionEffect.getDuration());
+                fingerprint = PlayerDataHolder.mix(fingerprint, potionEffect.getAmplifier());
+            }
+        }
+
+        fingerprint = PlayerDataHolder.mix(fingerprint, this.playerCoordinates != null ? 1 : 0);
+
+        if (this.playerCoordinates != null) {
+            fingerprint = PlayerDataHolder.mix(fingerprint, Double.doubleToLongBits(this.playerCoordinates.x));
+            fingerprint = PlayerDataHolder.mix(fingerprint, Double.doubleToLongBits(this.playerCoordinates.y));
+            fingerprint = PlayerDataHolder.mix(fingerprint, Double.doubleToLongBits(this.playerCoordinates.z));
+            fingerprint = PlayerDataHolder.mix(fingerprint, Float.floatToIntBits(this.playerCoordinates.pitch));
+            fingerprint = PlayerDataHolder.mix(fingerprint, Float.floatToIntBits(this.playerCoordinates.yaw));
+        }
+
+        fingerprint = PlayerDataHolder.mix(fingerprint, this.playerExperienceLevels);
+        fingerprint = PlayerDataHolder.mix(fingerprint, Float.floatToIntBits(this.playerExperiencePoints));
+        fingerprint = PlayerDataHolder.mix(fingerprint, Double.doubleToLongBits(this.playerHealth));
+        return PlayerDataHolder.mix(fingerprint, this.playerHunger);
+    }
+
     /**
      * De-serializes the PlayerDataHolder from a JSON-like object into an instance of PlayerDataHolder
      * so that it can be normally used.
@@ -127,13 +247,15 @@ public class PlayerDataHolder implements Serializable {
     @SuppressWarnings("unchecked")
     public void deserialize(JsonObject serializedPlayerData) {
 
-         this.playerInventory = serializedPlayerData.get("inventory") != null
-                ? SerializationUtils.itemStackArrayFromBase64(FileUtils.GSON.fromJson(serializedPlayerData.get("inventory").toString(), String.class))
-                : new ItemStack[InventoryType.PLAYER.getDefaultSize()];
+        this.playerInventory = new ItemStack[InventoryType.PLAYER.getDefaultSize()];
+        this.playerArmour = new ItemStack[4];
 
-         this.playerArmour = serializedPlayerData.get("inventory") != null ?
-                SerializationUtils.itemStackArrayFromBase64(FileUtils.GSON.fromJson(serializedPlayerData.get("armour").toString(), String.class))
-                : new ItemStack[4];
+        // The items are kept encoded until they're asked for.
+        this.encodedInventory = serializedPlayerData.get("inventory") != null && !serializedPlayerData.get("inventory").isJsonNull()
+                ? LazyItems.fromBase64(serializedPlayerData.get("inventory").getAsString()) : null;
+
+        this.encodedArmour = serializedPlayerData.get("armour") != null && !serializedPlayerData.get("armour").isJsonNull()
+                ? LazyItems.fromBase64(serializedPlayerData.get("armour").getAsString()) : null;
 
         // Returns a list of the potion effects, if present, without the effects being cast to SimplePotionEffect
         ArrayList<Object> uncastedPotionEffectList = serializedPlayerData.get("potionEffects") != null ?
@@ -153,6 +275,112 @@ public class PlayerDataHolder implements Serializable {
                 : null;
     }
 
+    /**
+     * Alternative for {@link #deserialize(JsonObject)} that reads the JSON-like object field by field from a stream,
+     * decoding every value in place, instead of building a JSON tree and converting parts of it back into strings.
+     * Missing or null values get the same defaults as in {@link #deserialize(JsonObject)}.
+     *
+     * @param jsonReader The reader, positioned right before the JSON-like object to de-serialize
+     */
+    public void deserialize(JsonReader jsonReader) throws IOException {
+
+        this.playerInventory = new ItemStack[InventoryType.PLAYER.getDefaultSize()];
+        this.playerArmour = new ItemStack[4];
+        this.encodedInventory = null;
+        this.encodedArmour = null;
+        this.playerPotionEffects = null;
+        this.playerCoordinates = null;
+        this.playerExperienceLevels = 0;
+        this.playerExperiencePoints = 0.0F;
+        this.playerHealth = 20.0D;
+        this.playerHunger = 20;
+
+        jsonReader.beginObject();
+
+        while (jsonReader.hasNext()) {
+
+            String fieldName = jsonReader.nextName();
+
+            if (jsonReader.peek() == JsonToken.NULL) {
+                jsonReader.nextNull();
+                continue;
+            }
+
+            switch (fieldName) {
+                case "inventory": this.encodedInventory = LazyItems.fromBase64(jsonReader.nextString()); break;
+                case "armour": this.encodedArmour = LazyItems.fromBase64(jsonReader.nextString()); break;
+                case "potionEffects": this.playerPotionEffects = PlayerDataHolder.readPotionEffects(jsonReader); break;
+                case "coordinates": this.playerCoordinates = PlayerDataHolder.readCoordinates(jsonReader); break;
+                case "experienceLevels": this.playerExperienceLevels = jsonReader.nextInt(); break;
+                case "experiencePoints": this.playerExperiencePoints = (float) jsonReader.nextDouble(); break;
+                case "health": this.playerHealth = jsonReader.nextDouble(); break;
+                case "hunger": this.playerHunger = jsonReader.nextInt(); break;
+                default: jsonReader.skipValue();
+            }
+        }
+
+        jsonReader.endObject();
+    }
+
+    /**
+     * Reads a list of serialized SimplePotionEffects from a JSON stream.
+     * @param jsonReader The reader, positioned right before the list
+     * @return The list of potion effects
+     */
+    private static ArrayList<SimplePotionEffect> readPotionEffects(JsonReader jsonReader) throws IOException {
+
+        ArrayList<SimplePotionEffect> potionEffects = new ArrayList<>();
+        jsonReader.beginArray();
+
+        while (jsonReader.hasNext()) {
+
+            String type = null;
+            int duration = 0;
+            int amplifier = 0;
+            jsonReader.beginObject();
+
+            while (jsonReader.hasNext()) {
+                switch (jsonReader.nextName()) {
+                    case "type": type = jsonReader.nextString(); break;
+                    case "duration": duration = jsonReader.nextInt(); break;
+                    case "amplifier": amplifier = jsonReader.nextInt(); break;
+                    default: jsonReader.skipValue();
+                }
+            }
+
+            jsonReader.endObject();
+            potionEffects.add(new SimplePotionEffect(type, duration, amplifier));
+        }
+
+        jsonReader.endArray();
+        return potionEffects;
+    }
+
+    /**
+     * Reads a serialized PartialLocation from a JSON stream.
+     * @param jsonReader The reader, positioned right before the location
+     * @return The PartialLocation
+     */
+    private static PartialLocation readCoordinates(JsonReader jsonReader) throws IOException {
+
+        PartialLocation coordinates = new PartialLocation(0, 0, 0, 0, 0);
+        jsonReader.beginObject();
+
+        while (jsonReader.hasNext()) {
+            switch (jsonReader.nextName()) {
+                case "x": coordinates.x = jsonReader.nextDouble(); break;
+                case "y": coordinates.y = jsonReader.nextDouble(); break;
+                case "z": coordinates.z = jsonReader.nextDouble(); break;
+                case "pitch": coordinates.pitch = (float) jsonReader.nextDouble(); break;
+                case "yaw": coordinates.yaw = (float) jsonReader.nextDouble(); break;
+                default: jsonReader.skipValue();
+            }
+        }
+
+        jsonReader.endObject();
+        return coordinates;
+    }
+
     /**
      * The player needs to exist somewhere, so if the coordinates are nulled, the data holder is empty.
      * @return True if the data holder is empty, false otherwise.
@@ -165,8 +393,14 @@ public class PlayerDataHolder implements Serializable {
      * Applies the Playerdata held in the PlayerDataHolder to a given player.
      */
     public void applyTo(Player player, World level) {
-        player.getInventory().setContents(this.playerInventory);
-        player.getInventory().setArmorContents(this.playerArmour);
+
+        long applyStart = System.nanoTime();
+
+        // Both are decoded before anything is applied, so that an item that can't be read leaves the player untouched.
+        ItemStack[] inventory = this.getPlayerInventory();
+        ItemStack[] armour = this.getPlayerArmour();
+        player.getInventory().setContents(inventory);
+        player.getInventory().setArmorContents(armour);
         player.setLevel(this.playerExperienceLevels);
         player.setExp(this.playerExperiencePoints);
         player.setHealth(this.playerHealth);
@@ -178,22 +412,121 @@ public class PlayerDataHolder implements Serializable {
                 player.addPotionEffect(potionEffect.toPotionEffect());
         }
 
-        if (!this.isEmpty() && !AOSPlayerManagerConfig.getConfig().getList("worlds.disable-coordinate-handling").contains(level.getName())) {
+        if (!this.isEmpty() && !WorldPolicy.get(level.getName()).isCoordinateHandlingDisabled()) {
             level.getChunkAt(this.playerCoordinates.toLocation(level)).load();
             player.teleport(this.playerCoordinates.toLocation(level));
         }
 
         player.saveData();
+        PlayerdataMetrics.APPLY.record(System.nanoTime() - applyStart);
+    }
+
+    /**
+     * Applies a partial update into the PlayerDataHolder, replacing the fields it sets, and leaving the rest as is.
+     * @param patch The PlayerdataPatch to apply
+     */
+    public synchronized void apply(PlayerdataPatch patch) {
+        if (patch.patchesCoordinates()) this.playerCoordinates = patch.getCoordinates();
+        if (patch.getHealth() != null) this.playerHealth = patch.getHealth();
+        if (patch.getHunger() != null) this.playerHunger = patch.getHunger();
+        if (patch.getExperienceLevels() != null) this.playerExperienceLevels = patch.getExperienceLevels();
+        if (patch.getExperiencePoints() != null) this.playerExperiencePoints = patch.getExperiencePoints();
+    }
+
+    /**
+     * Decodes the items right away, if they're still encoded. This is meant for holders loaded ahead of time off the
+     * main thread, so that the main thread doesn't have to decode them once it asks for them.
+     * @return This PlayerDataHolder, for chaining
+     */
+    public PlayerDataHolder decode() {
+        this.getPlayerInventory();
+        this.getPlayerArmour();
+        return this;
+    }
+
+    /**
+     * Mixes the fingerprints of every slot of an item array into a fingerprint, along with the number of slots.
+     * @param fingerprint The fingerprint to mix into
+     * @param items The NBT compounds of the items to mix in
+     * @return The new fingerprint
+     */
+    private static long mixItems(long fingerprint, NBTTagCompound[] items) {
+
+        if (items == null) return PlayerDataHolder.mix(fingerprint, -1);
+
+        fingerprint = PlayerDataHolder.mix(fingerprint, items.length);
+        for (NBTTagCompound item : items)
+            fingerprint = PlayerDataHolder.mix(fingerprint, SerializationUtils.nbtFingerprint(item));
+
+        return fingerprint;
+    }
+
+    /**
+     * Mixes a value into a fingerprint.
+     * @param fingerprint The fingerprint to mix into
+     * @param value The value to mix in
+     * @return The new fingerprint
+     */
+    private static long mix(long fingerprint, long value) {
+        return (fingerprint ^ value) * 0x100000001B3L;
     }
 
-    public ItemStack[] getPlayerInventory() {
+    /**
+     * Gets the inventory items, building them from the captured NBT compounds if they weren't yet. From then on,
+     * the ItemStacks are what the holder goes by, since they can be changed by whoever they're handed to.
+     * @return The inventory items
+     */
+    public synchronized ItemStack[] getPlayerInventory() {
+
+        if (this.capturedInventory != null) {
+            this.playerInventory = SerializationUtils.itemStackArrayFromNBT(this.capturedInventory);
+            this.capturedInventory = null;
+        }
+
+        if (this.encodedInventory != null) {
+            this.playerInventory = this.encodedInventory.get();
+            this.encodedInventory = null;
+        }
+
         return this.playerInventory;
     }
 
-    public ItemStack[] getPlayerArmour() {
+    /**
+     * Does the same as {@link #getPlayerInventory()} but for the armour items.
+     * @return The armour items
+     */
+    public synchronized ItemStack[] getPlayerArmour() {
+
+        if (this.capturedArmour != null) {
+            this.playerArmour = SerializationUtils.itemStackArrayFromNBT(this.capturedArmour);
+            this.capturedArmour = null;
+        }
+
+        if (this.encodedArmour != null) {
+            this.playerArmour = this.encodedArmour.get();
+            this.encodedArmour = null;
+        }
+
         return this.playerArmour;
     }
 
+    /**
+     * Gets the NBT compounds of the inventory items, which is what the writers encode. These are the captured
+     * compounds if there are any, so they must not be changed.
+     * @return The NBT compounds of the inventory items
+     */
+    public synchronized NBTTagCompound[] getPlayerInventoryNBT() {
+        return this.capturedInventory != null ? this.capturedInventory : SerializationUtils.itemStackArrayToNBT(this.getPlayerInventory());
+    }
+
+    /**
+     * Does the same as {@link #getPlayerInventoryNBT()} but for the armour items.
+     * @return The NBT compounds of the armour items
+     */
+    public synchronized NBTTagCompound[] getPlayerArmourNBT() {
+        return this.capturedArmour != null ? this.capturedArmour : SerializationUtils.itemStackArrayToNBT(this.getPlayerArmour());
+    }
+
     public ArrayList<SimplePotionEffect> getPlayerPotionEffects() {
         return this.playerPotionEffects;
     }
@@ -221,5 +554,52 @@ public class PlayerDataHolder implements Serializable {
     public void setPlayerCoordinates(PartialLocation playerCoordinates) {
         this.playerCoordinates = playerCoordinates;
     }
-}
 
+    /**
+     * Decodes the items of an inventory from their stored form.
+     */
+    @FunctionalInterface
+    public interface EncodedItems {
+
+        /**
+         * @return The decoded items
+         */
+        ItemStack[] decode();
+    }
+
+    /**
+     * Holds the encoded items of an inventory, decoding them the first time they're asked for. This is shared between
+     * a holder and its copies, so every copy gets its own array, but the items are only ever decoded once.
+     */
+    private static class LazyItems {
+
+        private EncodedItems encodedItems;
+        private ItemStack[] items;
+
+        private LazyItems(EncodedItems encodedItems) {
+            this.encodedItems = encodedItems;
+        }
+
+        /**
+         * Creates the LazyItems for the base64 string of an inventory, as stored in the JSON format.
+         * @param data The base64 string of the inventory
+         * @return The LazyItems for the inventory
+         */
+        private static LazyItems fromBase64(String data) {
+            return new LazyItems(() -> SerializationUtils.itemStackArrayFromBase64(data));
+        }
+
+        /**
+         * @return A copy of the decoded items, decoding them if they weren't yet.
+         */
+        private synchronized ItemStack[] get() {
+
+            if (this.encodedItems != null) {
+                this.items = this.encodedItems.decode();
+                this.encodedItems = null;
+            }
+
+            return this.items != null ? this.items.clone() : null;
+        }
+    }
+}
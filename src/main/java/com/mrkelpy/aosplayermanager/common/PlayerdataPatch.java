@@ -0,0 +1,100 @@
+package com.mrkelpy.aosplayermanager.common;
+
+import com.google.gson.JsonObject;
+import com.mrkelpy.aosplayermanager.util.FileUtils;
+
+/**
+ * This class describes a partial update of a playerdata record, holding new values for some of its scalar fields
+ * (the coordinates and the stats). Applying it to a stored record only rewrites those fields, leaving the items
+ * untouched, so they don't have to be decoded and encoded again.
+ * <br>
+ * Every field left unset is kept as it is in the record.
+ */
+public class PlayerdataPatch {
+
+    private boolean patchesCoordinates;
+    private PartialLocation coordinates;
+    private Double health;
+    private Integer hunger;
+    private Integer experienceLevels;
+    private Float experiencePoints;
+
+    /**
+     * Sets the coordinates to patch in. Null is a valid value, which nulls out the coordinates in the record.
+     * @param coordinates The new coordinates
+     * @return This PlayerdataPatch, for chaining
+     */
+    public PlayerdataPatch setCoordinates(PartialLocation coordinates) {
+        this.patchesCoordinates = true;
+        this.coordinates = coordinates;
+        return this;
+    }
+
+    public PlayerdataPatch setHealth(double health) {
+        this.health = health;
+        return this;
+    }
+
+    public PlayerdataPatch setHunger(int hunger) {
+        this.hunger = hunger;
+        return this;
+    }
+
+    public PlayerdataPatch setExperienceLevels(int experienceLevels) {
+        this.experienceLevels = experienceLevels;
+        return this;
+    }
+
+    public PlayerdataPatch setExperiencePoints(float experiencePoints) {
+        this.experiencePoints = experiencePoints;
+        return this;
+    }
+
+    /**
+     * @return Whether the patch only touches the coordinates.
+     */
+    public boolean isCoordinatesOnly() {
+        return this.patchesCoordinates && this.health == null && this.hunger == null
+                && this.experienceLevels == null && this.experiencePoints == null;
+    }
+
+    /**
+     * Applies the patch into a serialized PlayerDataHolder, in the JSON format.
+     * @param record The serialized PlayerDataHolder, which is changed in place
+     */
+    public void applyTo(JsonObject record) {
+
+        // Null values are left out of the records, so null coordinates are removed instead of being set to null.
+        if (this.patchesCoordinates && this.coordinates != null) record.add("coordinates", FileUtils.GSON.toJsonTree(this.coordinates.serialize()));
+        if (this.patchesCoordinates && this.coordinates == null) record.remove("coordinates");
+
+        if (this.health != null) record.addProperty("health", this.health);
+        if (this.hunger != null) record.addProperty("hunger", this.hunger);
+        if (this.experienceLevels != null) record.addProperty("experienceLevels", this.experienceLevels);
+        if (this.experiencePoints != null) record.addProperty("experiencePoints", this.experiencePoints);
+    }
+
+    public boolean patchesCoordinates() {
+        return this.patchesCoordinates;
+    }
+
+    public PartialLocation getCoordinates() {
+        return this.coordinates;
+    }
+
+    public Double getHealth() {
+        return this.health;
+    }
+
+    public Integer getHunger() {
+        return this.hunger;
+    }
+
+    public Integer getExperienceLevels() {
+        return this.experienceLevels;
+    }
+
+    public Float getExperiencePoints() {
+        return this.experiencePoints;
+    }
+}
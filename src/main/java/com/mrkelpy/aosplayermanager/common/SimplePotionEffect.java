@@ -59,6 +59,18 @@ public class SimplePotionEffect implements ConfigurationSerializable {
         return map;
     }
 
+    public String getType() {
+        return this.type;
+    }
+
+    public int getDuration() {
+        return this.duration;
+    }
+
+    public int getAmplifier() {
+        return this.amplifier;
+    }
+
     @Override
     public String toString() {
         return this.type;
@@ -37,11 +37,71 @@ public class AOSPlayerManagerConfig {
         if (!getConfig().contains("worlds.no-keepinventory"))
             getConfig().set("worlds.no-keepinventory", Arrays.asList("example-world5", "example-world6"));
 
+        if (!getConfig().contains("worlds.default-gamemodes"))
+            getConfig().set("worlds.default-gamemodes.Creative", "CREATIVE");
+
         if (!getConfig().contains("general.global-save"))
             getConfig().set("general.global-save-tick-interval", false);
 
         if (!getConfig().contains("general.global-save-tick-interval"))
             getConfig().set("general.global-save-tick-interval", 20*60*5);
+
+        if (!getConfig().contains("general.global-save-tick-budget-millis"))
+            getConfig().set("general.global-save-tick-budget-millis", 5);
+
+        if (!getConfig().contains("general.save-coalescing-window-ticks"))
+            getConfig().set("general.save-coalescing-window-ticks", 40);
+
+        if (!getConfig().contains("general.playerdata-cache-size"))
+            getConfig().set("general.playerdata-cache-size", 256);
+
+        if (!getConfig().contains("general.skip-unchanged-saves"))
+            getConfig().set("general.skip-unchanged-saves", true);
+
+        if (!getConfig().contains("general.preload-max-wait-millis"))
+            getConfig().set("general.preload-max-wait-millis", 50);
+
+        if (!getConfig().contains("general.login-prefetch-limit"))
+            getConfig().set("general.login-prefetch-limit", 8);
+
+        if (!getConfig().contains("general.login-prefetch-timeout-ticks"))
+            getConfig().set("general.login-prefetch-timeout-ticks", 600);
+
+        if (!getConfig().contains("general.write-threads"))
+            getConfig().set("general.write-threads", 0);
+
+        if (!getConfig().contains("backups.segment-size-bytes"))
+            getConfig().set("backups.segment-size-bytes", 4 * 1024 * 1024);
+
+        if (!getConfig().contains("backups.delta-encoding"))
+            getConfig().set("backups.delta-encoding", true);
+
+        if (!getConfig().contains("backups.keyframe-interval"))
+            getConfig().set("backups.keyframe-interval", 16);
+
+        if (!getConfig().contains("backups.min-interval-seconds"))
+            getConfig().set("backups.min-interval-seconds", 60);
+
+        if (!getConfig().contains("backups.max-per-hour"))
+            getConfig().set("backups.max-per-hour", 20);
+
+        if (!getConfig().contains("backups.retention-interval-minutes"))
+            getConfig().set("backups.retention-interval-minutes", 60);
+
+        if (!getConfig().contains("backups.keep-all-hours"))
+            getConfig().set("backups.keep-all-hours", 24);
+
+        if (!getConfig().contains("backups.keep-hourly-days"))
+            getConfig().set("backups.keep-hourly-days", 7);
+
+        if (!getConfig().contains("storage.format"))
+            getConfig().set("storage.format", "json");
+
+        if (!getConfig().contains("storage.item-blobs"))
+            getConfig().set("storage.item-blobs", true);
+
+        if (!getConfig().contains("storage.item-blob-gc-on-startup"))
+            getConfig().set("storage.item-blob-gc-on-startup", true);
     }
 
     /**
@@ -7,6 +7,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -17,7 +18,10 @@ import java.util.stream.Collectors;
 public class LevelSetConfiguration {
 
     public static final File LEVEL_SET_FILE = new File(AOSPlayerManager.DataFolder, "LevelSetConfigs.json");
-    private static ArrayList<ArrayList<String>> LEVEL_SETS = readLevelSetConfig();
+    private static volatile LevelSetIndex LEVEL_SETS = LevelSetIndex.build(readLevelSetConfig());
+
+    // The single world "sets" handed out for the worlds outside of any set, kept so they're only allocated once.
+    private static final ConcurrentHashMap<String, List<String>> SINGLE_LEVEL_SETS = new ConcurrentHashMap<>();
 
     public LevelSetConfiguration() {
         setup();
@@ -48,31 +52,41 @@ public class LevelSetConfiguration {
         FileUtils.writeJson(LEVEL_SET_FILE.getPath(), levelSetConfig);
     }
 
-    public static ArrayList<ArrayList<String>> getLevelSets() {
-        return LEVEL_SETS;
+    /**
+     * @return Every Level Set, in the order they're configured in. Neither the list nor the sets can be modified.
+     */
+    public static List<List<String>> getLevelSets() {
+        return LEVEL_SETS.levelSets;
     }
 
     /**
-     * Returns the Level Set that contains the given world.
+     * Returns the Level Set that contains the given world. If the world isn't in any set, a set containing only that
+     * world is returned instead. The returned set can't be modified.
      * @param worldName The name of the world to search for.
      * @return The Level Set that contains the given world.
      */
-    @SuppressWarnings("ArraysAsListWithZeroOrOneArgument")
-    public static ArrayList<String> getLevelSetFor(String worldName) {
+    public static List<String> getLevelSetFor(String worldName) {
 
-        for (ArrayList<String> levelSet : LEVEL_SETS) {
-            if (levelSet.contains(worldName)) {
-                return levelSet;
-            }
-        }
-        return new ArrayList<>(Arrays.asList(worldName));
+        int levelSetId = getLevelSetId(worldName);
+        if (levelSetId >= 0) return LEVEL_SETS.levelSets.get(levelSetId);
+
+        return SINGLE_LEVEL_SETS.computeIfAbsent(worldName, Collections::singletonList);
     }
 
     /**
-     * Reloads the LevelSetConfigs
+     * Returns the position of the Level Set that contains the given world within {@link #getLevelSets()}.
+     * @param worldName The name of the world to search for.
+     * @return The ID of the Level Set, or -1 if the world isn't in any set.
+     */
+    public static int getLevelSetId(String worldName) {
+        return LEVEL_SETS.levelSetIds.getOrDefault(worldName, -1);
+    }
+
+    /**
+     * Reloads the LevelSetConfigs, swapping them in all at once.
      */
     public static void reload() {
-        LEVEL_SETS = readLevelSetConfig();
+        LEVEL_SETS = LevelSetIndex.build(readLevelSetConfig());
     }
 
     /**
@@ -97,4 +111,53 @@ public class LevelSetConfiguration {
         return new ArrayList<>();
     }
 
+    /**
+     * Holds the Level Sets along with the index from every world to the set it belongs to. This is never modified
+     * after being built, so it can be read from any thread while a reload builds the next one.
+     */
+    private static class LevelSetIndex {
+
+        private final List<List<String>> levelSets;
+        private final Map<String, Integer> levelSetIds;
+
+        private LevelSetIndex(List<List<String>> levelSets, Map<String, Integer> levelSetIds) {
+            this.levelSets = levelSets;
+            this.levelSetIds = levelSetIds;
+        }
+
+        /**
+         * Validates the configured Level Sets and indexes them. A world can only be in one set, so if it's listed in
+         * more than one, it's kept in the first and dropped from the others. Empty sets are dropped altogether.
+         * @param configuredLevelSets The Level Sets, as read from the config file
+         * @return The built LevelSetIndex
+         */
+        private static LevelSetIndex build(List<? extends List<String>> configuredLevelSets) {
+
+            List<List<String>> levelSets = new ArrayList<>();
+            Map<String, Integer> levelSetIds = new HashMap<>();
+
+            for (List<String> configuredLevelSet : configuredLevelSets != null ? configuredLevelSets : Collections.<List<String>>emptyList()) {
+
+                List<String> levelSet = new ArrayList<>();
+
+                for (String level : configuredLevelSet) {
+
+                    Integer levelSetId = levelSetIds.get(level);
+
+                    if (levelSetId != null) {
+                        if (levelSetId != levelSets.size())
+                            AOSPlayerManager.LOGGER.warning("The world " + level + " is in more than one level set, so it's only kept in set " + levelSetId);
+                        continue;
+                    }
+
+                    levelSetIds.put(level, levelSets.size());
+                    levelSet.add(level);
+                }
+
+                if (!levelSet.isEmpty()) levelSets.add(Collections.unmodifiableList(levelSet));
+            }
+
+            return new LevelSetIndex(Collections.unmodifiableList(levelSets), levelSetIds);
+        }
+    }
 }
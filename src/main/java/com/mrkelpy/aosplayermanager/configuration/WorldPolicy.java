@@ -0,0 +1,107 @@
+package com.mrkelpy.aosplayermanager.configuration;
+
+import com.mrkelpy.aosplayermanager.AOSPlayerManager;
+import org.bukkit.GameMode;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class holds the settings that apply to a single world (the coordinate handling, the keepinventory override
+ * and the default gamemode), compiled from the configuration file into a table indexed by the world name.
+ * <br>
+ * The table is immutable and is replaced as a whole when the configuration is reloaded, so the events can look
+ * the policies up on every save without walking the configuration or taking any locks.
+ */
+public class WorldPolicy {
+
+    private static final WorldPolicy DEFAULT = new WorldPolicy(false, false, false, GameMode.SURVIVAL);
+    private static volatile Map<String, WorldPolicy> POLICIES = Collections.emptyMap();
+
+    private final boolean coordinateHandlingDisabled;
+    private final boolean nullCoordinates;
+    private final boolean noKeepInventory;
+    private final GameMode defaultGamemode;
+
+    private WorldPolicy(boolean coordinateHandlingDisabled, boolean nullCoordinates, boolean noKeepInventory, GameMode defaultGamemode) {
+        this.coordinateHandlingDisabled = coordinateHandlingDisabled;
+        this.nullCoordinates = nullCoordinates;
+        this.noKeepInventory = noKeepInventory;
+        this.defaultGamemode = defaultGamemode;
+    }
+
+    /**
+     * Returns the policy for a world. Any world that isn't mentioned in the configuration gets the default policy,
+     * with every setting off and Survival as the default gamemode.
+     * @param levelName The name of the world
+     * @return The WorldPolicy for the world
+     */
+    public static WorldPolicy get(String levelName) {
+        return POLICIES.getOrDefault(levelName, DEFAULT);
+    }
+
+    /**
+     * Compiles the world policies from the configuration file, and swaps them in all at once.
+     */
+    public static void reload() {
+
+        List<String> coordinateHandlingDisabled = AOSPlayerManagerConfig.getConfig().getStringList("worlds.disable-coordinate-handling");
+        List<String> nullCoordinates = AOSPlayerManagerConfig.getConfig().getStringList("worlds.null-coordinates");
+        List<String> noKeepInventory = AOSPlayerManagerConfig.getConfig().getStringList("worlds.no-keepinventory");
+        Map<String, GameMode> defaultGamemodes = WorldPolicy.readDefaultGamemodes();
+
+        // Every world mentioned anywhere gets an entry, so the lookups are a single hash probe.
+        Map<String, WorldPolicy> policies = new HashMap<>();
+        coordinateHandlingDisabled.forEach(level -> policies.put(level, null));
+        nullCoordinates.forEach(level -> policies.put(level, null));
+        noKeepInventory.forEach(level -> policies.put(level, null));
+        defaultGamemodes.keySet().forEach(level -> policies.put(level, null));
+
+        policies.replaceAll((level, policy) -> new WorldPolicy(coordinateHandlingDisabled.contains(level),
+                nullCoordinates.contains(level), noKeepInventory.contains(level),
+                defaultGamemodes.getOrDefault(level, GameMode.SURVIVAL)));
+
+        POLICIES = Collections.unmodifiableMap(policies);
+    }
+
+    /**
+     * Reads the default gamemodes for the worlds from the configuration file, skipping any invalid gamemode.
+     * @return The default gamemode of every world that has one configured
+     */
+    private static Map<String, GameMode> readDefaultGamemodes() {
+
+        Map<String, GameMode> defaultGamemodes = new HashMap<>();
+        ConfigurationSection section = AOSPlayerManagerConfig.getConfig().getConfigurationSection("worlds.default-gamemodes");
+        if (section == null) return defaultGamemodes;
+
+        for (String level : section.getKeys(false)) {
+
+            try {
+                defaultGamemodes.put(level, GameMode.valueOf(section.getString(level).toUpperCase()));
+            } catch (IllegalArgumentException | NullPointerException e) {
+                AOSPlayerManager.LOGGER.warning("Invalid default gamemode for " + level + ": " + section.getString(level));
+            }
+        }
+
+        return defaultGamemodes;
+    }
+
+    public boolean isCoordinateHandlingDisabled() {
+        return this.coordinateHandlingDisabled;
+    }
+
+    public boolean isNullCoordinates() {
+        return this.nullCoordinates;
+    }
+
+    public boolean isNoKeepInventory() {
+        return this.noKeepInventory;
+    }
+
+    public GameMode getDefaultGamemode() {
+        return this.defaultGamemode;
+    }
+}
@@ -3,14 +3,28 @@ package com.mrkelpy.aosplayermanager.events;
 import com.mrkelpy.aosplayermanager.AOSPlayerManager;
 import com.mrkelpy.aosplayermanager.configuration.AOSPlayerManagerConfig;
 import com.mrkelpy.aosplayermanager.configuration.LevelSetConfiguration;
+import com.mrkelpy.aosplayermanager.configuration.WorldPolicy;
 import com.mrkelpy.aosplayermanager.gui.PlayerdataLevelSelectorGUI;
+import com.mrkelpy.aosplayermanager.util.BackupDeltas;
+import com.mrkelpy.aosplayermanager.util.BackupPolicy;
+import com.mrkelpy.aosplayermanager.util.BackupRetention;
+import com.mrkelpy.aosplayermanager.util.BackupSegments;
 import com.mrkelpy.aosplayermanager.util.EventUtils;
 import com.mrkelpy.aosplayermanager.util.FileUtils;
+import com.mrkelpy.aosplayermanager.util.ItemBlobStore;
+import com.mrkelpy.aosplayermanager.util.PlayerdataCache;
+import com.mrkelpy.aosplayermanager.util.PlayerdataDirtyTracker;
+import com.mrkelpy.aosplayermanager.util.PlayerdataMetrics;
+import com.mrkelpy.aosplayermanager.util.PlayerdataPreloader;
+import com.mrkelpy.aosplayermanager.util.PlayerdataRecords;
+import com.mrkelpy.aosplayermanager.util.PlayerdataSaveCoalescer;
+import com.mrkelpy.aosplayermanager.util.PlayerdataWriteQueue;
 import org.bukkit.Bukkit;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
 import org.bukkit.event.world.WorldSaveEvent;
 
 import java.util.*;
@@ -48,6 +62,8 @@ public class AOSPlayerManagerCommands implements CommandExecutor {
         commandSender.sendMessage("§b> §f/apm levellist §7-> Displays a list of all managed levels in the server.");
         commandSender.sendMessage("§b> §f/apm savedata [(Optional) target player] §7-> Saves the playerdata for a player or all players if unspecified.");
         commandSender.sendMessage("§b> §f/apm checkdata [target player] §7-> Checks the playerdata for a player, allowing the operator to restore or clone it.");
+        commandSender.sendMessage("§b> §f/apm stats [(Optional) reset] §7-> Displays the plugin's performance statistics, or resets them.");
+        commandSender.sendMessage("§b> §f/apm gc §7-> Deletes the stored items that aren't used by any save or backup anymore.");
         commandSender.sendMessage("§b> §f/apm reload §7-> Reloads the plugin.");
         commandSender.sendMessage("§b> §f/apm help §7-> Displays this menu.");
         return true;
@@ -63,8 +79,8 @@ public class AOSPlayerManagerCommands implements CommandExecutor {
     private boolean levelListCommand(CommandSender commandSender) {
 
         ArrayList<String> managedWorlds = FileUtils.getManagedWorlds();
-        ArrayList<ArrayList<String>> levelSets = LevelSetConfiguration.getLevelSets();
-        commandSender.sendMessage(String.format("§f----- §aManaged Worlds (%s) §f-----", FileUtils.getManagedWorlds().size()));
+        List<List<String>> levelSets = LevelSetConfiguration.getLevelSets();
+        commandSender.sendMessage(String.format("§f----- §aManaged Worlds (%s) §f-----", managedWorlds.size()));
 
         // Sends every separate level set to the player as a string
         for (int i = 0; i < levelSets.size(); i++) {
@@ -136,12 +152,103 @@ public class AOSPlayerManagerCommands implements CommandExecutor {
         }
 
         EventUtils.eventPlayerdataSave(playerSender, playerSender.getWorld().getName());
-        EventUtils.eventPlayerdataBackup(playerSender, playerSender.getWorld().getName());
+        EventUtils.eventPlayerdataBackup(playerSender, playerSender.getWorld().getName(), BackupPolicy.Reason.COMMAND);
         commandSender.sendMessage("§aSaved data for " + args[0] + "");
         return true;
 
     }
 
+    /**
+     * Displays the performance statistics collected by the plugin, so that its settings can be tuned. Using
+     * "/apm stats reset" clears every counter and latency histogram instead, so they can be measured again from scratch.
+     * @param commandSender The sender of the command
+     * @param args The arguments of the command
+     * @return Boolean, feedback to the caller
+     */
+    private boolean statsCommand(CommandSender commandSender, String[] args) {
+
+        if (args.length > 0 && args[0].equalsIgnoreCase("reset")) {
+            PlayerdataMetrics.reset();
+            PlayerdataSaveCoalescer.INSTANCE.resetStats();
+            PlayerdataCache.INSTANCE.resetStats();
+            ItemBlobStore.INSTANCE.resetStats();
+            PlayerdataWriteQueue.INSTANCE.resetStats();
+            PlayerdataRecords.resetStats();
+            PlayerdataDirtyTracker.INSTANCE.resetStats();
+            BackupPolicy.INSTANCE.resetStats();
+            BackupRetention.INSTANCE.resetStats();
+            PlayerdataPreloader.INSTANCE.resetStats();
+            GlobalPeriodicDataSavingEvent.resetStats();
+            commandSender.sendMessage("§aReset the performance statistics");
+            return true;
+        }
+
+        commandSender.sendMessage(String.format("§f----- §a%s Statistics §f-----", AOSPlayerManager.PLUGIN_NAME));
+        commandSender.sendMessage(String.format("§b> §eCoalesced saves: §f%s §7(%s saves performed)",
+                PlayerdataSaveCoalescer.INSTANCE.getCoalescedSaves(), PlayerdataSaveCoalescer.INSTANCE.getFlushedSaves()));
+        commandSender.sendMessage(String.format("§b> §ePlayerdata cache: §f%s/%s entries §7(%s hits, %s misses, %s evictions)",
+                PlayerdataCache.INSTANCE.size(), PlayerdataCache.INSTANCE.getMaxEntries(), PlayerdataCache.INSTANCE.getHits(),
+                PlayerdataCache.INSTANCE.getMisses(), PlayerdataCache.INSTANCE.getEvictions()));
+        commandSender.sendMessage(String.format("§b> §eItem blobs: §f%s written §7(%s reused)",
+                ItemBlobStore.INSTANCE.getWrittenBlobs(), ItemBlobStore.INSTANCE.getReusedBlobs()));
+        commandSender.sendMessage(String.format("§b> §eMain thread per save: §f%.3fms avg §7(%s saves captured)",
+                PlayerdataWriteQueue.INSTANCE.getAverageCaptureMillis(), PlayerdataWriteQueue.INSTANCE.getCaptures()));
+        commandSender.sendMessage(String.format("§b> §eRecord writes: §f%.3fms avg full, %.3fms avg patched §7(%s full, %s patched)",
+                PlayerdataRecords.getAverageWriteMillis(), PlayerdataRecords.getAveragePatchMillis(),
+                PlayerdataRecords.getWrites(), PlayerdataRecords.getPatches()));
+        commandSender.sendMessage(String.format("§b> §eUnchanged saves skipped: §f%s §7(%s saves performed)",
+                PlayerdataDirtyTracker.INSTANCE.getSkippedSaves(), PlayerdataDirtyTracker.INSTANCE.getPerformedSaves()));
+        commandSender.sendMessage(String.format("§b> §eUnchanged backups skipped: §f%s §7(%s backups performed)",
+                PlayerdataDirtyTracker.INSTANCE.getSkippedBackups(), PlayerdataDirtyTracker.INSTANCE.getPerformedBackups()));
+        commandSender.sendMessage(String.format("§b> §eRate limited backups: §f%s §7(%s allowed, %s forced)",
+                BackupPolicy.INSTANCE.getLimitedBackups(), BackupPolicy.INSTANCE.getAllowedBackups(),
+                BackupPolicy.INSTANCE.getForcedBackups()));
+        commandSender.sendMessage(String.format("§b> §eBackup retention: §f%s backups removed §7(%s files, %s bytes reclaimed)",
+                BackupRetention.INSTANCE.getRemovedBackups(), BackupRetention.INSTANCE.getReclaimedFiles(),
+                BackupRetention.INSTANCE.getReclaimedBytes()));
+        commandSender.sendMessage(String.format("§b> §eWorld change preloads: §f%s used §7(%s timed out, %s missing)",
+                PlayerdataPreloader.INSTANCE.getUsedPreloads(), PlayerdataPreloader.INSTANCE.getTimedOutPreloads(),
+                PlayerdataPreloader.INSTANCE.getMissedPreloads()));
+        commandSender.sendMessage(String.format("§b> §eLogin prefetches: §f%s levels loaded §7(%s logins released)",
+                PlayerdataPreloader.INSTANCE.getPrefetchedLevels(), PlayerdataPreloader.INSTANCE.getReleasedPrefetches()));
+        commandSender.sendMessage(String.format("§b> §eGlobal save: §f%.2fms avg, %.2fms max per tick §7(%s ticks, last cycle saved %s players in %s ticks)",
+                GlobalPeriodicDataSavingEvent.getAverageTickCostMillis(), GlobalPeriodicDataSavingEvent.getMaxTickCostMillis(),
+                GlobalPeriodicDataSavingEvent.getSavingTicks(), GlobalPeriodicDataSavingEvent.getLastCycleSaves(),
+                GlobalPeriodicDataSavingEvent.getLastCycleTicks()));
+
+        for (PlayerdataMetrics.Histogram histogram : PlayerdataMetrics.getHistograms()) {
+            commandSender.sendMessage(String.format("§b> §e%s: §f%.3fms p50, %.3fms p95, %.3fms p99, %.3fms max §7(%s calls, %.3fms avg%s)",
+                    histogram.getName(), histogram.getPercentileMillis(0.5), histogram.getPercentileMillis(0.95),
+                    histogram.getPercentileMillis(0.99), histogram.getMaxMillis(), histogram.getCount(), histogram.getAverageMillis(),
+                    histogram.getBytes() > 0 ? ", " + histogram.getBytes() + " bytes" : ""));
+        }
+
+        return true;
+    }
+
+    /**
+     * Deletes the item blobs that aren't referenced anymore. The collection reads through all the stored data,
+     * so it runs asynchronously, and the sender is told about the result once it's done.
+     * @param commandSender The sender of the command
+     * @return Boolean, feedback to the caller
+     */
+    private boolean gcCommand(CommandSender commandSender) {
+
+        Plugin plugin = Bukkit.getPluginManager().getPlugin(AOSPlayerManager.PLUGIN_NAME);
+        commandSender.sendMessage("§eCollecting the unused item blobs...");
+
+        // The result is only reported while the plugin is still enabled, since a collection stopped by a disable ends after it.
+        ItemBlobStore.INSTANCE.collectGarbageAsync().thenAccept(result -> {
+            if (!plugin.isEnabled()) return;
+
+            Bukkit.getScheduler().runTask(plugin, () -> commandSender.sendMessage(result != null
+                    ? String.format("§aDeleted %s unused item blobs (%s bytes)", result.getDeletedBlobs(), result.getReclaimedBytes())
+                    : "§cThe item blobs couldn't be collected, check the console for details"));
+        });
+
+        return true;
+    }
+
     /**
      * Reloads the plugin configs and saves the players' data.
      * @param commandSender The sender of the command
@@ -152,6 +259,17 @@ public class AOSPlayerManagerCommands implements CommandExecutor {
         saveDataCommand(commandSender, new String[]{});
         AOSPlayerManagerConfig.reload();
         LevelSetConfiguration.reload();
+        WorldPolicy.reload();
+        PlayerdataWriteQueue.INSTANCE.configure();
+        BackupPolicy.INSTANCE.configure();
+        BackupRetention.INSTANCE.configure();
+        PlayerdataCache.INSTANCE.configure();
+        BackupSegments.configure();
+        BackupDeltas.configure();
+        ItemBlobStore.INSTANCE.configure();
+        PlayerdataRecords.configure();
+        PlayerdataDirtyTracker.INSTANCE.configure();
+        PlayerdataPreloader.INSTANCE.configure();
         commandSender.sendMessage("§eReloaded " + AOSPlayerManager.PLUGIN_NAME);
         return true;
     }
@@ -213,6 +331,16 @@ public class AOSPlayerManagerCommands implements CommandExecutor {
             return helpCommand(commandSender);
         }
 
+        if (command.equalsIgnoreCase("stats")) {
+            if (!this.checkPermission("aos.stats", commandSender)) return true;
+            return statsCommand(commandSender, args);
+        }
+
+        if (command.equalsIgnoreCase("gc")) {
+            if (!this.checkPermission("aos.gc", commandSender)) return true;
+            return gcCommand(commandSender);
+        }
+
         if (command.equalsIgnoreCase("reload")) {
             if (!this.checkPermission("aos.reload", commandSender)) return true;
             return reloadCommand(commandSender);
@@ -9,22 +9,140 @@ import org.bukkit.plugin.Plugin;
 import org.bukkit.scheduler.BukkitRunnable;
 import org.bukkit.scheduler.BukkitTask;
 
+import java.util.ArrayDeque;
+import java.util.UUID;
+
 /**
  * Handles the global saving of playerdata every x ticks set on the configuration file.
+ * <br>
+ * Instead of saving every online player in a single tick, the saves are spread across the interval: every tick,
+ * players are saved until the configured time budget is spent, and the rest are carried over into the next tick.
+ * To guarantee that every player is saved once per interval, a tick always saves at least its fair share of the
+ * players left, even if that goes over the budget.
  */
 public class GlobalPeriodicDataSavingEvent extends BukkitRunnable {
 
+    // The cost of the saving ticks, kept for the stats command. These are only touched from the main thread.
+    private static long savingTicks;
+    private static long totalTickCostNanos;
+    private static long maxTickCostNanos;
+    private static long lastCycleSaves;
+    private static long lastCycleTicks;
+
+    private final ArrayDeque<UUID> pendingPlayers = new ArrayDeque<>();
+    private long interval = 20*60;
+    private long tick;
+    private long budgetNanos;
+    private long cycleSaves;
+    private long cycleTicks;
+
     /**
-     * Saves all the online players' playerdatas.
+     * Saves the next players of the current cycle, within the time budget, starting a new cycle every interval.
      */
     @Override
     public void run() {
-        for (Player player : Bukkit.getServer().getOnlinePlayers())
+
+        if (this.tick % this.interval == 0) this.startCycle();
+
+        long ticksLeft = this.interval - this.tick % this.interval;
+        this.tick++;
+
+        if (this.pendingPlayers.isEmpty()) return;
+
+        // The players left are split evenly across the ticks left, so the cycle always finishes within the interval.
+        long fairShare = (this.pendingPlayers.size() + ticksLeft - 1) / ticksLeft;
+        long startTime = System.nanoTime();
+        long saves = 0;
+
+        while (!this.pendingPlayers.isEmpty() && (saves < fairShare || System.nanoTime() - startTime < this.budgetNanos)) {
+
+            // Players that left since the cycle started were already saved when they quit.
+            Player player = Bukkit.getPlayer(this.pendingPlayers.poll());
+            if (player == null || !player.isOnline()) continue;
+
             EventUtils.eventPlayerdataSave(player, player.getWorld().getName());
+            saves++;
+        }
+
+        GlobalPeriodicDataSavingEvent.recordTick(System.nanoTime() - startTime);
+        this.cycleSaves += saves;
+        this.cycleTicks++;
+    }
+
+    /**
+     * Starts a new saving cycle, queueing every online player to be saved, and reading the time budget.
+     */
+    private void startCycle() {
+
+        // Whatever is left from the previous cycle is saved right away, which only happens if the fair share was skipped.
+        while (!this.pendingPlayers.isEmpty()) {
+            Player player = Bukkit.getPlayer(this.pendingPlayers.poll());
+            if (player != null && player.isOnline()) EventUtils.eventPlayerdataSave(player, player.getWorld().getName());
+        }
+
+        if (this.tick > 0) {
+            lastCycleSaves = this.cycleSaves;
+            lastCycleTicks = this.cycleTicks;
+        }
+
+        this.cycleSaves = 0;
+        this.cycleTicks = 0;
+        this.budgetNanos = Math.max(0, AOSPlayerManagerConfig.getConfig().getLong("general.global-save-tick-budget-millis")) * 1000000L;
+
+        for (Player player : Bukkit.getServer().getOnlinePlayers())
+            this.pendingPlayers.add(player.getUniqueId());
+    }
+
+    /**
+     * Records the cost of a saving tick into the stats.
+     * @param costNanos How long the tick took, in nanoseconds
+     */
+    private static void recordTick(long costNanos) {
+        savingTicks++;
+        totalTickCostNanos += costNanos;
+        maxTickCostNanos = Math.max(maxTickCostNanos, costNanos);
+    }
+
+    /**
+     * Clears the cost of the saving ticks. Like the rest of the stats, this must be called from the main thread.
+     */
+    public static void resetStats() {
+        savingTicks = 0;
+        totalTickCostNanos = 0;
+        maxTickCostNanos = 0;
+        lastCycleSaves = 0;
+        lastCycleTicks = 0;
+    }
+
+    /**
+     * @return The average time spent saving players in the ticks that saved any, in milliseconds.
+     */
+    public static double getAverageTickCostMillis() {
+        return savingTicks > 0 ? totalTickCostNanos / (double) savingTicks / 1000000 : 0;
     }
 
     /**
-     * Obtains the value for the global save tick interval from the configuration file, and runs the task based on it.
+     * @return The longest time spent saving players in a single tick, in milliseconds.
+     */
+    public static double getMaxTickCostMillis() {
+        return maxTickCostNanos / 1000000D;
+    }
+
+    public static long getSavingTicks() {
+        return savingTicks;
+    }
+
+    public static long getLastCycleSaves() {
+        return lastCycleSaves;
+    }
+
+    public static long getLastCycleTicks() {
+        return lastCycleTicks;
+    }
+
+    /**
+     * Obtains the value for the global save tick interval from the configuration file, and runs the task every tick,
+     * spreading the saves across the interval.
      * <br>
      * Shadow-sets the lower bound for the interval to 1 minute, to avoid issues.
      * @param plugin The plugin instance
@@ -34,7 +152,7 @@ public class GlobalPeriodicDataSavingEvent extends BukkitRunnable {
     public BukkitTask runTaskTimer(Plugin plugin) throws IllegalArgumentException, IllegalStateException {
 
         long globalSavingDelay = AOSPlayerManagerConfig.getConfig().getInt("general.global-save-tick-interval");
-        return super.runTaskTimer(plugin, 0, globalSavingDelay > 20*60 ? globalSavingDelay : 20*60L);
+        this.interval = globalSavingDelay > 20*60 ? globalSavingDelay : 20*60L;
+        return super.runTaskTimer(plugin, 0, 1);
     }
 }
-
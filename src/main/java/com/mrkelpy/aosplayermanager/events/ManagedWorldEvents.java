@@ -0,0 +1,32 @@
+package com.mrkelpy.aosplayermanager.events;
+
+import com.mrkelpy.aosplayermanager.util.FileUtils;
+import com.mrkelpy.aosplayermanager.util.ManagedWorldRegistry;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+public class ManagedWorldEvents implements Listener {
+
+    /**
+     * Handles the worlds loaded after startup (such as the ones created through Multiverse), making their
+     * playerdata directory and registering them as managed worlds.
+     * @param event WorldLoadEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldLoad(WorldLoadEvent event) {
+        FileUtils.makeLevelDirectory(event.getWorld().getName());
+    }
+
+    /**
+     * Handles the worlds being unloaded, dropping the directory handles kept for them. The world stays managed,
+     * since its playerdata is still there for when it's loaded again.
+     * @param event WorldUnloadEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        ManagedWorldRegistry.INSTANCE.forget(event.getWorld().getName());
+    }
+}
@@ -0,0 +1,23 @@
+package com.mrkelpy.aosplayermanager.events;
+
+import com.mrkelpy.aosplayermanager.util.PlayerdataPreloader;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+
+public class PlayerDataPrefetchEvents implements Listener {
+
+    /**
+     * Handles the prefetching of playerdata while a player is logging in, so that their data is already
+     * decoded by the time they first change worlds. This runs after every other plugin had its say on the
+     * login, so the data isn't loaded for players that won't get in.
+     * @param event AsyncPlayerPreLoginEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) return;
+        PlayerdataPreloader.INSTANCE.prefetch(event.getUniqueId());
+    }
+}
@@ -1,6 +1,12 @@
 package com.mrkelpy.aosplayermanager.events;
 
+import com.mrkelpy.aosplayermanager.AOSPlayerManager;
+import com.mrkelpy.aosplayermanager.util.BackupPolicy;
 import com.mrkelpy.aosplayermanager.util.EventUtils;
+import com.mrkelpy.aosplayermanager.util.PlayerdataDirtyTracker;
+import com.mrkelpy.aosplayermanager.util.PlayerdataPreloader;
+import com.mrkelpy.aosplayermanager.util.PlayerdataSaveCoalescer;
+import com.mrkelpy.aosplayermanager.util.PlayerdataWriteQueue;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
@@ -20,8 +26,11 @@ public class PlayerDataSavingEvents implements Listener {
     public void onPlayerQuit(PlayerQuitEvent event) {
 
         Player player = event.getPlayer();
+        PlayerdataSaveCoalescer.INSTANCE.discard(player);
         EventUtils.eventPlayerdataSave(player, player.getWorld().getName());
-        EventUtils.eventPlayerdataBackup(player, player.getWorld().getName());
+        EventUtils.eventPlayerdataBackup(player, player.getWorld().getName(), BackupPolicy.Reason.QUIT);
+        PlayerdataDirtyTracker.INSTANCE.forget(player.getUniqueId());
+        PlayerdataPreloader.INSTANCE.discard(player.getUniqueId());
     }
 
     /**
@@ -36,25 +45,27 @@ public class PlayerDataSavingEvents implements Listener {
     }
 
     /**
-     * Handles the saving of playerdata when a player drops an item
+     * Handles the saving of playerdata when a player drops an item. Since this event fires very often,
+     * the save is coalesced with any other saves requested within the coalescing window.
      * @param event PlayerDropItemEvent
      */
     @EventHandler
     public void onPlayerItemDrop(PlayerDropItemEvent event) {
 
         Player player = event.getPlayer();
-        EventUtils.eventPlayerdataSave(player, player.getWorld().getName());
+        PlayerdataSaveCoalescer.INSTANCE.requestSave(player);
     }
 
     /**
-     * Handles the saving of playerdata when a player picks up an item
+     * Handles the saving of playerdata when a player picks up an item. Since this event fires very often,
+     * the save is coalesced with any other saves requested within the coalescing window.
      * @param event PlayerPickupItemEvent
      */
     @EventHandler
     public void onPlayerItemPickup(PlayerPickupItemEvent event) {
 
         Player player = event.getPlayer();
-        EventUtils.eventPlayerdataSave(player, player.getWorld().getName());
+        PlayerdataSaveCoalescer.INSTANCE.requestSave(player);
     }
 
     /**
@@ -65,23 +76,44 @@ public class PlayerDataSavingEvents implements Listener {
     @EventHandler
     public void onPlayerDeath(PlayerDeathEvent event) {
         Player player = event.getEntity().getPlayer();
+        PlayerdataSaveCoalescer.INSTANCE.discard(player);
+        PlayerdataPreloader.INSTANCE.discard(player.getUniqueId());
         EventUtils.eventPlayerdataSaveForDeath(player, player.getWorld().getName());
     }
 
     /**
      * Handles the saving of all the players' playerdata when a world
      * is saved.
+     * <br>
+     * Only the snapshots are captured here, and the writes are handed to the I/O threads as one batch, which is
+     * logged once it's done, so the autosave tick doesn't wait on any of them.
      * @param event WorldSaveEvent
      */
     @EventHandler
     public void onWorldSaveEvent(WorldSaveEvent event) {
 
         List<Player> worldPlayerList = event.getWorld().getPlayers();
+        if (worldPlayerList.isEmpty()) return;
+
+        String worldName = event.getWorld().getName();
+
+        PlayerdataWriteQueue.INSTANCE.collect(() -> {
+            for (Player player : worldPlayerList) {
+                EventUtils.eventPlayerdataSave(player, player.getWorld().getName());
+                EventUtils.eventPlayerdataBackup(player, player.getWorld().getName(), BackupPolicy.Reason.WORLD_SAVE);
+            }
+
+        }).thenAccept(result -> {
+
+            // The players whose data didn't change since their last save don't submit anything, so they aren't counted.
+            if (result.getSubmitted() == 0) return;
+
+            String message = "Submitted " + result.getSubmitted() + " playerdata writes for " + worldPlayerList.size() + " players in "
+                    + worldName + ": " + result.getCompleted() + " completed, " + result.getFailed() + " failed";
 
-        for (Player player : worldPlayerList) {
-            EventUtils.eventPlayerdataSave(player, player.getWorld().getName());
-            EventUtils.eventPlayerdataBackup(player, player.getWorld().getName());
-        }
+            if (result.getFailed() > 0) AOSPlayerManager.LOGGER.warning(message);
+            else AOSPlayerManager.LOGGER.info(message);
+        });
     }
 }
 
@@ -1,15 +1,16 @@
 package com.mrkelpy.aosplayermanager.events;
 
 import com.mrkelpy.aosplayermanager.AOSPlayerManager;
-import com.mrkelpy.aosplayermanager.common.DefaultGamemodes;
 
 import com.mrkelpy.aosplayermanager.common.PlayerDataHolder;
-import com.mrkelpy.aosplayermanager.configuration.AOSPlayerManagerConfig;
+import com.mrkelpy.aosplayermanager.configuration.WorldPolicy;
 import com.mrkelpy.aosplayermanager.util.EventUtils;
-import com.mrkelpy.aosplayermanager.util.FileUtils;
+import com.mrkelpy.aosplayermanager.util.PlayerdataPreloader;
+import com.mrkelpy.aosplayermanager.util.PlayerdataSaveCoalescer;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerPortalEvent;
@@ -20,6 +21,9 @@ public class onWorldChangedEvents implements Listener {
     /**
      * Handles the dynamic loading of playerdata before a player moves worlds.
      * This takes in the Set context, so if a world in a set is affected, the entire set will too.
+     * <br>
+     * Once the data is saved, the data for the destination level starts loading in the background, so that it's
+     * ready by the time the player arrives.
      * @param event PlayerTeleportEvent
      */
     @EventHandler
@@ -31,7 +35,9 @@ public class onWorldChangedEvents implements Listener {
         Player player = event.getPlayer();
 
         if (player.isInsideVehicle()) player.leaveVehicle();  // Kicks the player from the vehicle if they are inside one.
+        PlayerdataSaveCoalescer.INSTANCE.discard(player);
         EventUtils.eventPlayerdataSave(player, player.getWorld().getName());
+        PlayerdataPreloader.INSTANCE.preload(player, event.getTo().getWorld().getName());
     }
 
     /**
@@ -43,23 +49,45 @@ public class onWorldChangedEvents implements Listener {
         this.onWorldChangedPre((PlayerTeleportEvent) event);
     }
 
+    /**
+     * Drops the preloaded destination data if the teleport ends up cancelled, since the player isn't going there.
+     * @param event PlayerTeleportEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldChangedCancelled(PlayerTeleportEvent event) {
+        if (event.isCancelled()) PlayerdataPreloader.INSTANCE.discard(event.getPlayer().getUniqueId());
+    }
+
+    /**
+     * Does the same as {@link #onWorldChangedCancelled(PlayerTeleportEvent)} but for PlayerPortalEvent.
+     * @param event PlayerPortalEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldChangedCancelled(PlayerPortalEvent event) {
+        this.onWorldChangedCancelled((PlayerTeleportEvent) event);
+    }
+
     /**
      * Handles the dynamic loading of playerdata after a player moves worlds.
      * This takes in the Set context, so if a world in a set is affected, the entire set will too.
+     * <br>
+     * The data is picked up from the preload started by {@link #onWorldChangedPre(PlayerTeleportEvent)}, and
+     * is only loaded here if there's none (such as when respawning into another world).
      * @param event PlayerChangedWorldEvent
      */
     @EventHandler
     public void onWorldChangedPost(PlayerChangedWorldEvent event) {
 
         Player player = event.getPlayer();
-        PlayerDataHolder playerdata = FileUtils.getPlayerData(player, player.getWorld().getName());
+        PlayerDataHolder playerdata = PlayerdataPreloader.INSTANCE.take(player, player.getWorld().getName());
         // Force default gamemode
-        player.setGameMode(DefaultGamemodes.get(player.getWorld().getName()));
+        player.setGameMode(WorldPolicy.get(player.getWorld().getName()).getDefaultGamemode());
 
-        // If the null-coordinates setting is enabled for this level, run the playerdata save event again. This will null the
-        // coordinates of the player for the level they're in now, and its set.
-        if (AOSPlayerManagerConfig.getConfig().getList("worlds.null-coordinates").contains(event.getPlayer().getWorld().getName()))
-            EventUtils.eventPlayerdataSave(player, player.getWorld().getName());
+        // If the null-coordinates setting is enabled for this level, null the coordinates of the player for the level
+        // they're in now, and its set. Only the coordinates are patched, since the player is still carrying the data
+        // of the level they came from until it's applied.
+        if (WorldPolicy.get(player.getWorld().getName()).isNullCoordinates())
+            EventUtils.eventPlayerdataNullCoordinates(player, player.getWorld().getName());
 
         // Applies the data a tick later to avoid issues with Multiverse.
         Bukkit.getScheduler().runTaskLater(
@@ -4,6 +4,7 @@ import com.mrkelpy.aosplayermanager.AOSPlayerManager;
 import com.mrkelpy.aosplayermanager.common.BackupHolder;
 import com.mrkelpy.aosplayermanager.common.PlayerDataHolder;
 import com.mrkelpy.aosplayermanager.common.SimplePotionEffect;
+import com.mrkelpy.aosplayermanager.util.BackupPolicy;
 import com.mrkelpy.aosplayermanager.util.EventUtils;
 import com.mrkelpy.aosplayermanager.util.FileUtils;
 import com.mrkelpy.aosplayermanager.util.GUIUtils;
@@ -134,7 +135,7 @@ public class PlayerdataVisualizationGUI<T extends OfflinePlayer> extends PagedGU
     private void cloneInstance(Player target) {
 
         Collections.reverse(Arrays.asList(this.playerdata.getPlayerdata().getPlayerArmour()));
-        EventUtils.eventPlayerdataBackup(target, target.getWorld().getName());
+        EventUtils.eventPlayerdataBackup(target, target.getWorld().getName(), BackupPolicy.Reason.PRE_RESTORE);
 
         this.playerdata.getPlayerdata().setPlayerCoordinates(null);
         this.playerdata.getPlayerdata().applyTo(target, Bukkit.getWorld(this.levelName));
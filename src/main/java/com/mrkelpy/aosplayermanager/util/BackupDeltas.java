@@ -0,0 +1,281 @@
+package com.mrkelpy.aosplayermanager.util;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.mrkelpy.aosplayermanager.common.PlayerDataHolder;
+import com.mrkelpy.aosplayermanager.configuration.AOSPlayerManagerConfig;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * This class implements the delta encoding of backups. Consecutive backups of a player in a level are mostly the same,
+ * so instead of storing the whole playerdata every time, a delta backup only stores the inventory and armour slots,
+ * and the stats, that changed since the previous backup.
+ * <br>
+ * A full backup (a keyframe) is stored every few backups, so reconstructing any backup never takes more than
+ * that many deltas. Keyframes are stored in the same format as a full JSON backup.
+ */
+@SuppressWarnings("deprecation")
+public class BackupDeltas {
+
+    private static final String REMOVED_FIELD = "$removed";
+    private static volatile boolean enabled = true;
+    private static volatile int keyframeInterval = 16;
+
+    /**
+     * Reads the delta encoding settings from the configuration file. These are read upfront because the backups
+     * are encoded on the I/O threads.
+     */
+    public static void configure() {
+        enabled = AOSPlayerManagerConfig.getConfig().getBoolean("backups.delta-encoding");
+        keyframeInterval = Math.max(1, AOSPlayerManagerConfig.getConfig().getInt("backups.keyframe-interval"));
+    }
+
+    /**
+     * Encodes a backup, either as a keyframe or as a delta against the previous backup in the chain.
+     * @param previous The state of the previous backup, or null if there's none to encode against
+     * @param timestamp The timestamp of the backup, in milliseconds
+     * @param snapshot The playerdata to back up
+     * @return The encoded backup
+     */
+    public static Encoded encode(Chain previous, long timestamp, PlayerDataHolder snapshot) {
+
+        Chain current = new Chain(timestamp,
+                SerializationUtils.nbtArrayToMagBase32(snapshot.getPlayerInventoryNBT()),
+                SerializationUtils.nbtArrayToMagBase32(snapshot.getPlayerArmourNBT()),
+                FileUtils.GSON.toJsonTree(snapshot.serializeStats()).getAsJsonObject(), 0);
+
+        return BackupDeltas.encode(previous, current);
+    }
+
+    /**
+     * Encodes the state of an already decoded backup again, either as a keyframe or as a delta against the previous
+     * backup in the chain. This is what allows backups to be dropped from the middle of a chain.
+     * @param previous The state of the previous backup, or null if there's none to encode against
+     * @param state The decoded state of the backup, which is left untouched
+     * @return The encoded backup
+     */
+    public static Encoded reencode(Chain previous, Chain state) {
+
+        JsonObject stats = new JsonObject();
+        for (Map.Entry<String, JsonElement> stat : state.stats.entrySet())
+            stats.add(stat.getKey(), stat.getValue());
+
+        return BackupDeltas.encode(previous, new Chain(state.timestamp, state.inventory.clone(), state.armour.clone(), stats, 0));
+    }
+
+    /**
+     * Encodes the state of a backup, either as a keyframe or as a delta against the previous backup in the chain.
+     * @param previous The state of the previous backup, or null if there's none to encode against
+     * @param current The state of the backup, which becomes the state of the chain after it
+     * @return The encoded backup
+     */
+    private static Encoded encode(Chain previous, Chain current) {
+
+        long timestamp = current.timestamp;
+
+        // Backups in the same second replace each other in the index, so they can't be the base of a delta.
+        boolean keyframe = !enabled || previous == null || previous.deltas + 1 >= keyframeInterval || previous.timestamp == timestamp
+                || previous.inventory.length != current.inventory.length || previous.armour.length != current.armour.length;
+
+        if (keyframe)
+            return new Encoded(BackupSegments.KIND_JSON, BackupDeltas.toBytes(current.toRecord()), current);
+
+        // Only store the slots and the stats that are different from the previous backup.
+        JsonObject delta = new JsonObject();
+        delta.add("inventory", BackupDeltas.diffSlots(previous.inventory, current.inventory));
+        delta.add("armour", BackupDeltas.diffSlots(previous.armour, current.armour));
+
+        for (Map.Entry<String, JsonElement> stat : current.stats.entrySet()) {
+            if (!stat.getValue().equals(previous.stats.get(stat.getKey())))
+                delta.add(stat.getKey(), stat.getValue());
+        }
+
+        // Stats that aren't in the playerdata anymore are listed, so they can be dropped when the delta is applied.
+        JsonArray removedStats = new JsonArray();
+        for (String statName : previous.stats.keySet()) {
+            if (!current.stats.has(statName)) removedStats.add(statName);
+        }
+
+        if (removedStats.size() > 0) delta.add(REMOVED_FIELD, removedStats);
+
+        current.deltas = previous.deltas + 1;
+        return new Encoded(BackupSegments.KIND_JSON_DELTA, BackupDeltas.toBytes(delta), current);
+    }
+
+    /**
+     * Creates the state of a chain from a keyframe payload.
+     * @param timestamp The timestamp of the keyframe, in milliseconds
+     * @param payload The keyframe payload
+     * @return The state of the keyframe
+     */
+    public static Chain fromKeyframe(long timestamp, byte[] payload) {
+        return BackupDeltas.fromRecord(timestamp, new JsonParser().parse(new String(payload, StandardCharsets.UTF_8)).getAsJsonObject());
+    }
+
+    /**
+     * Creates the state of a chain from a full serialized PlayerDataHolder.
+     * @param timestamp The timestamp of the record, in milliseconds
+     * @param record The serialized PlayerDataHolder
+     * @return The state of the record
+     */
+    public static Chain fromRecord(long timestamp, JsonObject record) {
+
+        String[] inventory = BackupDeltas.unpackSlots(record.get("inventory"));
+        String[] armour = BackupDeltas.unpackSlots(record.get("armour"));
+
+        JsonObject stats = new JsonObject();
+        for (Map.Entry<String, JsonElement> field : record.entrySet()) {
+            if (!field.getKey().equals("inventory") && !field.getKey().equals("armour"))
+                stats.add(field.getKey(), field.getValue());
+        }
+
+        return new Chain(timestamp, inventory, armour, stats, 0);
+    }
+
+    /**
+     * Applies a delta payload on top of the state of the previous backup, turning it into the state of the delta's backup.
+     * @param state The state of the previous backup, which is changed in place
+     * @param timestamp The timestamp of the delta, in milliseconds
+     * @param payload The delta payload
+     */
+    public static void apply(Chain state, long timestamp, byte[] payload) {
+
+        JsonObject delta = new JsonParser().parse(new String(payload, StandardCharsets.UTF_8)).getAsJsonObject();
+        BackupDeltas.patchSlots(state.inventory, delta.getAsJsonObject("inventory"));
+        BackupDeltas.patchSlots(state.armour, delta.getAsJsonObject("armour"));
+
+        for (Map.Entry<String, JsonElement> field : delta.entrySet()) {
+            if (!field.getKey().equals("inventory") && !field.getKey().equals("armour") && !field.getKey().equals(REMOVED_FIELD))
+                state.stats.add(field.getKey(), field.getValue());
+        }
+
+        if (delta.has(REMOVED_FIELD))
+            delta.getAsJsonArray(REMOVED_FIELD).forEach(statName -> state.stats.remove(statName.getAsString()));
+
+        state.timestamp = timestamp;
+        state.deltas++;
+    }
+
+    /**
+     * Builds a JSON object holding the slots that changed between two inventories, keyed by their index.
+     * @param previous The slots of the previous inventory
+     * @param current The slots of the current inventory
+     * @return The JSON object with the changed slots
+     */
+    private static JsonObject diffSlots(String[] previous, String[] current) {
+
+        JsonObject changedSlots = new JsonObject();
+
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == null ? previous[i] != null : !current[i].equals(previous[i]))
+                changedSlots.add(String.valueOf(i), current[i] != null ? new JsonPrimitive(current[i]) : JsonNull.INSTANCE);
+        }
+
+        return changedSlots;
+    }
+
+    /**
+     * Applies the slots changed in a delta into an inventory.
+     * @param slots The slots of the inventory, which are changed in place
+     * @param changedSlots The JSON object with the changed slots
+     */
+    private static void patchSlots(String[] slots, JsonObject changedSlots) {
+
+        if (changedSlots == null) return;
+
+        for (Map.Entry<String, JsonElement> slot : changedSlots.entrySet())
+            slots[Integer.parseInt(slot.getKey())] = slot.getValue().isJsonNull() ? null : slot.getValue().getAsString();
+    }
+
+    /**
+     * Unpacks the base64 string of an inventory in a serialized PlayerDataHolder into its slots.
+     * @param packedSlots The JSON element with the base64 string
+     * @return The slots of the inventory
+     */
+    private static String[] unpackSlots(JsonElement packedSlots) {
+
+        if (packedSlots == null || packedSlots.isJsonNull()) return new String[0];
+
+        String[] slots = SerializationUtils.magBase32ArrayFromBase64(packedSlots.getAsString());
+        return slots != null ? slots : new String[0];
+    }
+
+    /**
+     * Converts a JSON object into the bytes of a payload.
+     * @param json The JSON object to convert
+     * @return The payload bytes
+     */
+    private static byte[] toBytes(JsonObject json) {
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Holds the state of a backup in a delta chain, that is, the encoded slots and the stats of the backup, and
+     * how many deltas it is away from its keyframe.
+     */
+    public static class Chain {
+
+        private long timestamp;
+        private final String[] inventory;
+        private final String[] armour;
+        private final JsonObject stats;
+        private int deltas;
+
+        private Chain(long timestamp, String[] inventory, String[] armour, JsonObject stats, int deltas) {
+            this.timestamp = timestamp;
+            this.inventory = inventory;
+            this.armour = armour;
+            this.stats = stats;
+            this.deltas = deltas;
+        }
+
+        /**
+         * Turns the state back into a full serialized PlayerDataHolder.
+         * @return The serialized PlayerDataHolder
+         */
+        public JsonObject toRecord() {
+
+            JsonObject record = new JsonObject();
+            for (Map.Entry<String, JsonElement> stat : this.stats.entrySet())
+                record.add(stat.getKey(), stat.getValue());
+
+            record.addProperty("inventory", SerializationUtils.magBase32ArrayToBase64(this.inventory));
+            record.addProperty("armour", SerializationUtils.magBase32ArrayToBase64(this.armour));
+            return record;
+        }
+    }
+
+    /**
+     * Holds an encoded backup, along with the state of the chain after it.
+     */
+    public static class Encoded {
+
+        private final byte kind;
+        private final byte[] payload;
+        private final Chain chain;
+
+        private Encoded(byte kind, byte[] payload, Chain chain) {
+            this.kind = kind;
+            this.payload = payload;
+            this.chain = chain;
+        }
+
+        public byte getKind() {
+            return this.kind;
+        }
+
+        public byte[] getPayload() {
+            return this.payload;
+        }
+
+        public Chain getChain() {
+            return this.chain;
+        }
+    }
+}
@@ -0,0 +1,831 @@
+package com.mrkelpy.aosplayermanager.util;
+
+import com.mrkelpy.aosplayermanager.AOSPlayerManager;
+import com.mrkelpy.aosplayermanager.common.PlayerDataHolder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * This class implements an append-only index of the backups of a player in a level, holding the timestamp, location
+ * and size of every backup. It allows the backups to be listed, paged and searched by date without listing the
+ * backups directory or reading any of the backups themselves.
+ * <br>
+ * New backups are packed into the segment files implemented by {@link BackupSegments}, while the backups from before
+ * the segments existed are still read from their own JSON files. Packed backups may be deltas against the previous
+ * one, as implemented by {@link BackupDeltas}.
+ * <br>
+ * The index is stored inside the backups directory it describes, and is rebuilt from the directory contents
+ * if it's missing, corrupted or out of sync with the directory.
+ */
+@SuppressWarnings("ResultOfMethodCallIgnored")
+public class BackupIndex {
+
+    public static final String BACKUP_DATE_PATTERN = "yyyy.MM.dd.HH.mm.ss";
+    public static final int SEGMENT_LEGACY = -1;
+    public static final int SEGMENT_PENDING = -2;
+    private static final String INDEX_FILENAME = "timeline.idx";
+    private static final int INDEX_MAGIC = 0x41504D49;
+    private static final int INDEX_VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 25;
+
+    private static final int MAX_LOADED_INDEXES = 1024;
+    private static final long IDLE_EVICTION_MILLIS = 5 * 60 * 1000;
+
+    private static final ConcurrentHashMap<String, BackupIndex> LOADED_INDEXES = new ConcurrentHashMap<>();
+
+    private final File directory;
+    private final File indexFile;
+    private long[] timestamps = new long[16];
+    private int[] segments = new int[16];
+    private long[] offsets = new long[16];
+    private int[] sizes = new int[16];
+    private byte[] kinds = new byte[16];
+    private int count;
+    private int activeSegment;
+    private long activeSegmentSize;
+    private BackupDeltas.Chain deltaChain;
+    private volatile long lastAccess;
+    private int maintenanceUsers;
+
+    /**
+     * Main constructor for the BackupIndex. This doesn't load anything; use {@link #get(UUID, String)} instead.
+     * @param directory The backups directory described by the index
+     */
+    private BackupIndex(File directory) {
+        this.directory = directory;
+        this.indexFile = new File(directory, INDEX_FILENAME);
+    }
+
+    /**
+     * Gets the index for the backups of a player in a level, loading (or rebuilding) it if it isn't loaded yet.
+     * <br>
+     * Once more than {@value #MAX_LOADED_INDEXES} indexes are loaded, the ones that have been idle for a few minutes
+     * are dropped, so that the indexes of the players who left don't stay in memory for good.
+     * @param playerUUID The UUID of the player
+     * @param levelName The level the backups belong to
+     * @return The BackupIndex for the player and level
+     */
+    public static BackupIndex get(UUID playerUUID, String levelName) {
+
+        // The access time is set inside the compute, so that an index can't be evicted between being handed out
+        // and being used.
+        BackupIndex index = BackupIndex.compute(playerUUID, levelName, backupIndex -> backupIndex.lastAccess = System.currentTimeMillis());
+
+        if (LOADED_INDEXES.size() > MAX_LOADED_INDEXES) BackupIndex.evictIdle();
+        return index;
+    }
+
+    /**
+     * Gets the index for the backups of a player in a level for a background pass, such as the backup retention or
+     * the blob collection, which goes through every index once. The index must be handed back through
+     * {@link #release()} once the pass is done with it, which drops it again unless a player is using it.
+     * @param playerUUID The UUID of the player
+     * @param levelName The level the backups belong to
+     * @return The BackupIndex for the player and level
+     */
+    public static BackupIndex acquire(UUID playerUUID, String levelName) {
+        return BackupIndex.compute(playerUUID, levelName, backupIndex -> backupIndex.maintenanceUsers++);
+    }
+
+    /**
+     * Hands back an index gotten through {@link #acquire(UUID, String)}, dropping it if it's idle.
+     */
+    public void release() {
+
+        long idleSince = System.currentTimeMillis() - IDLE_EVICTION_MILLIS;
+
+        LOADED_INDEXES.computeIfPresent(this.directory.getPath(), (path, backupIndex) -> {
+            if (backupIndex != this) return backupIndex;
+            this.maintenanceUsers--;
+            return this.isIdle(idleSince) ? null : this;
+        });
+    }
+
+    /**
+     * Drops the indexes that haven't been used in the last few minutes, so that they're loaded from the disk again
+     * the next time they're needed.
+     * @return The amount of indexes dropped
+     */
+    public static int evictIdle() {
+
+        long idleSince = System.currentTimeMillis() - IDLE_EVICTION_MILLIS;
+        int[] evicted = {0};
+
+        // Each index is checked and removed inside a compute, so that it can't be handed out while it's dropped.
+        for (String path : LOADED_INDEXES.keySet()) {
+            LOADED_INDEXES.computeIfPresent(path, (key, backupIndex) -> {
+                if (!backupIndex.isIdle(idleSince)) return backupIndex;
+                evicted[0]++;
+                return null;
+            });
+        }
+
+        return evicted[0];
+    }
+
+    /**
+     * Gets the loaded index for the backups of a player in a level, loading it if needed, and updates it while no
+     * other thread can get or drop it.
+     * @param playerUUID The UUID of the player
+     * @param levelName The level the backups belong to
+     * @param update The update to apply to the index
+     * @return The BackupIndex for the player and level
+     */
+    private static BackupIndex compute(UUID playerUUID, String levelName, Consumer<BackupIndex> update) {
+
+        File directory = FileUtils.makeLevelDirectory("backups/" + levelName + "/" + playerUUID.toString());
+
+        return LOADED_INDEXES.compute(directory.getPath(), (path, backupIndex) -> {
+
+            if (backupIndex == null) {
+                backupIndex = new BackupIndex(directory);
+                backupIndex.load();
+            }
+
+            update.accept(backupIndex);
+            return backupIndex;
+        });
+    }
+
+    /**
+     * Gets the name of the file that holds a backup taken at the given timestamp.
+     * @param timestamp The timestamp of the backup, in milliseconds
+     * @return The filename of the backup
+     */
+    public static String getBackupFilename(long timestamp) {
+        return new SimpleDateFormat(BACKUP_DATE_PATTERN).format(new Date(timestamp)) + ".json";
+    }
+
+    /**
+     * Adds a backup into the index in memory, so that it's listed right away, even before its data is written.
+     * Backups taken within the same second share the same entry, and the last one wins.
+     * @param timestamp The timestamp of the backup, in milliseconds
+     */
+    public synchronized void add(long timestamp) {
+        if (this.count > 0 && this.timestamps[this.count - 1] == timestamp) return;
+        this.put(timestamp, SEGMENT_PENDING, 0, 0, BackupSegments.KIND_JSON);
+    }
+
+    /**
+     * Encodes a backup snapshot against the previous backup appended into the index, and appends it.
+     * This is meant to be run from an I/O thread.
+     * @param timestamp The timestamp of the backup, in milliseconds
+     * @param snapshot The playerdata to back up
+     * @return Whether the backup was appended
+     */
+    public synchronized boolean appendSnapshot(long timestamp, PlayerDataHolder snapshot) {
+
+        BackupDeltas.Encoded encoded = BackupDeltas.encode(this.deltaChain, timestamp, snapshot);
+        boolean appended = this.append(timestamp, encoded.getKind(), encoded.getPayload());
+
+        // If the append failed, the next backup can't be a delta against this one, so it starts a new chain.
+        this.deltaChain = appended ? encoded.getChain() : null;
+        if (appended) PlayerdataMetrics.BACKUP.recordBytes(BackupSegments.FRAME_HEADER_SIZE + encoded.getPayload().length);
+        return appended;
+    }
+
+    /**
+     * Appends a backup payload into the active segment, sealing it first if it would grow past the configured size,
+     * and records it in the index. This is meant to be run from an I/O thread.
+     * @param timestamp The timestamp of the backup, in milliseconds
+     * @param kind The kind of payload
+     * @param payload The payload bytes
+     * @return Whether the payload was appended
+     */
+    public synchronized boolean append(long timestamp, byte kind, byte[] payload) {
+
+        try {
+            if (BackupSegments.shouldSeal(this.activeSegmentSize, payload.length)) {
+                BackupSegments.seal(BackupSegments.getSegmentFile(this.directory, this.activeSegment), this.getFrames(this.activeSegment));
+                this.activeSegment++;
+                this.activeSegmentSize = 0;
+            }
+
+            File segmentFile = BackupSegments.getSegmentFile(this.directory, this.activeSegment);
+            long offset = BackupSegments.appendFrame(segmentFile, timestamp, kind, payload);
+            this.activeSegmentSize = offset + BackupSegments.FRAME_HEADER_SIZE + payload.length;
+            this.commit(timestamp, this.activeSegment, offset, payload.length, kind);
+            return true;
+
+        } catch (IOException e) {
+            AOSPlayerManager.LOGGER.warning("Failed to append a backup into " + this.directory.getPath());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Reads the playerdata of a backup in the index, seeking straight to it if it's inside a segment. Delta backups
+     * are rebuilt from their keyframe, applying every delta in between.
+     * @param timestamp The timestamp of the backup to read, in milliseconds
+     * @return The PlayerDataHolder with the backup's data, or null if it can't be read
+     */
+    public PlayerDataHolder read(long timestamp) {
+
+        LinkedList<Entry> chain = new LinkedList<>();
+
+        // Looks up the entry again, since the one used to list the backup might've been pending back then.
+        synchronized (this) {
+            int position = Arrays.binarySearch(this.timestamps, 0, this.count, timestamp);
+            if (position < 0) return null;
+            chain.add(this.makeEntry(position));
+
+            // Walks back to the keyframe of a delta, skipping the backups that never made it into a segment.
+            for (int i = position - 1; i >= 0 && chain.getFirst().getKind() == BackupSegments.KIND_JSON_DELTA; i--) {
+                if (this.segments[i] != SEGMENT_PENDING) chain.addFirst(this.makeEntry(i));
+            }
+        }
+
+        Entry entry = chain.getLast();
+
+        if (entry.getSegment() == SEGMENT_PENDING) return null;
+
+        if (entry.getSegment() != SEGMENT_LEGACY && (chain.getFirst().getKind() != BackupSegments.KIND_JSON || chain.getFirst().getSegment() < 0)) {
+            AOSPlayerManager.LOGGER.warning("Failed to find the keyframe of the backup " + timestamp + " in " + this.directory.getPath());
+            return null;
+        }
+
+        try {
+            if (entry.getSegment() == SEGMENT_LEGACY)
+                return PlayerdataRecords.readJson(new File(this.directory, getBackupFilename(entry.getTimestamp())));
+
+            if (chain.size() == 1)
+                return PlayerdataRecords.decodeJson(new InputStreamReader(new ByteArrayInputStream(this.readPayload(entry)), StandardCharsets.UTF_8));
+
+            Entry keyframe = chain.removeFirst();
+            BackupDeltas.Chain state = BackupDeltas.fromKeyframe(keyframe.getTimestamp(), this.readPayload(keyframe));
+
+            for (Entry delta : chain)
+                BackupDeltas.apply(state, delta.getTimestamp(), this.readPayload(delta));
+
+            return new PlayerDataHolder(state.toRecord());
+
+        } catch (IOException | UncheckedIOException e) {
+            AOSPlayerManager.LOGGER.warning("Failed to read a backup from " + this.directory.getPath());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Reads the raw payload of a backup, without decoding it. Legacy backups return the contents of their JSON file.
+     * @param entry The entry of the backup
+     * @return The payload bytes, or null if the backup isn't written yet
+     */
+    public byte[] readPayload(Entry entry) throws IOException {
+
+        if (entry.getSegment() == SEGMENT_PENDING) return null;
+
+        if (entry.getSegment() == SEGMENT_LEGACY)
+            return Files.readAllBytes(new File(this.directory, getBackupFilename(entry.getTimestamp())).toPath());
+
+        return BackupSegments.readFrame(BackupSegments.getSegmentFile(this.directory, entry.getSegment()), entry.getOffset(), entry.getTimestamp());
+    }
+
+    /**
+     * Records the location of a backup once its data is written, appending it to the index file.
+     * @param timestamp The timestamp of the backup, in milliseconds
+     * @param segment The segment the backup is in
+     * @param offset The offset of the backup's frame inside its segment
+     * @param size The size of the backup's data, in bytes
+     * @param kind The kind of payload
+     */
+    private void commit(long timestamp, int segment, long offset, int size, byte kind) {
+
+        int position = Arrays.binarySearch(this.timestamps, 0, this.count, timestamp);
+
+        if (position < 0) {
+            this.put(timestamp, segment, offset, size, kind);
+            position = this.count - 1;
+        }
+
+        this.segments[position] = segment;
+        this.offsets[position] = offset;
+        this.sizes[position] = size;
+        this.kinds[position] = kind;
+
+        try (DataOutputStream indexOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.indexFile, true)))) {
+
+            // A brand-new index file needs its header before any records.
+            if (this.indexFile.length() == 0) {
+                indexOutput.writeInt(INDEX_MAGIC);
+                indexOutput.writeInt(INDEX_VERSION);
+            }
+
+            this.writeRecord(indexOutput, position);
+
+        } catch (IOException e) {
+            AOSPlayerManager.LOGGER.warning("Failed to append to the backup index " + this.indexFile.getPath());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns a page of backups, ordered from the newest to the oldest, where 0 is the newest backup.
+     * @param begin The index of the first backup to return
+     * @param end The index of the last backup to return (inclusive), or -1 for every backup until the oldest
+     * @return The list of entries in the page
+     */
+    public synchronized List<Entry> getPage(int begin, int end) {
+
+        List<Entry> entries = new ArrayList<>();
+        if (end == -1 || end >= this.count) end = this.count - 1;
+
+        for (int i = Math.max(begin, 0); i <= end; i++)
+            entries.add(this.makeEntry(this.count - 1 - i));
+
+        return entries;
+    }
+
+    /**
+     * Returns all the backups taken within a range of time, ordered from the newest to the oldest.
+     * @param from The beginning of the range, in milliseconds (inclusive)
+     * @param to The end of the range, in milliseconds (inclusive)
+     * @return The list of entries in the range
+     */
+    public synchronized List<Entry> getRange(long from, long to) {
+
+        List<Entry> entries = new ArrayList<>();
+        int first = this.lowerBound(from);
+        int last = this.lowerBound(to == Long.MAX_VALUE ? to : to + 1) - 1;
+
+        for (int i = last; i >= first; i--)
+            entries.add(this.makeEntry(i));
+
+        return entries;
+    }
+
+    /**
+     * @return The number of backups in the index.
+     */
+    public synchronized int size() {
+        return this.count;
+    }
+
+    /**
+     * @return The backups directory described by the index.
+     */
+    public File getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Rebuilds the index from the backups present in its directory, overwriting the index file. The legacy JSON backups
+     * are found by their filenames, and the packed ones by reading the segments.
+     */
+    public synchronized void rebuild() {
+
+        this.count = 0;
+        this.activeSegment = 0;
+        this.activeSegmentSize = 0;
+
+        File[] backupFiles = this.directory.listFiles();
+        DateFormat backupDateFormat = new SimpleDateFormat(BACKUP_DATE_PATTERN);
+        List<BackupSegments.Frame> legacyBackups = new ArrayList<>();
+        TreeMap<Integer, File> segmentFiles = new TreeMap<>();
+
+        for (File backupFile : backupFiles != null ? backupFiles : new File[0]) {
+
+            if (BackupSegments.parseSegmentNumber(backupFile.getName()) >= 0) {
+                segmentFiles.put(BackupSegments.parseSegmentNumber(backupFile.getName()), backupFile);
+                continue;
+            }
+
+            // Only the JSON files named after a backup date are legacy backups.
+            if (!backupFile.getName().endsWith(".json")) continue;
+            Date saveDate = BackupIndex.tryParseDate(backupDateFormat, backupFile.getName());
+            if (saveDate == null) continue;
+
+            legacyBackups.add(new BackupSegments.Frame(saveDate.getTime(), 0, (int) backupFile.length(), BackupSegments.KIND_JSON));
+        }
+
+        // Gathers every backup with its location, with the legacy ones first, since the segments always came after them.
+        List<Object[]> backups = new ArrayList<>();
+        legacyBackups.forEach(frame -> backups.add(new Object[] {frame, SEGMENT_LEGACY}));
+
+        for (Map.Entry<Integer, File> segmentFile : segmentFiles.entrySet()) {
+            try {
+                BackupSegments.Scan scan = BackupSegments.scan(segmentFile.getValue());
+                scan.getFrames().forEach(frame -> backups.add(new Object[] {frame, segmentFile.getKey()}));
+
+                // The last segment is the active one, unless it was already sealed.
+                this.activeSegment = scan.isSealed() ? segmentFile.getKey() + 1 : segmentFile.getKey();
+                this.activeSegmentSize = scan.isSealed() ? 0 : scan.getLength();
+
+            } catch (IOException e) {
+                AOSPlayerManager.LOGGER.warning("Failed to scan the backup segment " + segmentFile.getValue().getPath());
+                e.printStackTrace();
+            }
+        }
+
+        // Sorts the backups by date (keeping the order above for equal dates) and adds them into the index.
+        backups.sort(Comparator.comparingLong(backup -> ((BackupSegments.Frame) backup[0]).getTimestamp()));
+
+        for (Object[] backup : backups) {
+            BackupSegments.Frame frame = (BackupSegments.Frame) backup[0];
+            this.put(frame.getTimestamp(), (int) backup[1], frame.getOffset(), frame.getSize(), frame.getKind());
+        }
+
+        this.writeIndexFile();
+    }
+
+    /**
+     * Drops the given backups from the index, rewriting the packed backups that are kept into new segments, and
+     * deleting the old segments and the dropped legacy backups. Since a kept delta might've been based on a dropped
+     * backup, the kept backups are decoded and encoded again into a new chain.
+     * <br>
+     * Backups that aren't written yet are always kept. This is meant to be run off the main thread, and holds the
+     * index for as long as it takes, so the backups of this player and level wait for it.
+     * @param removedTimestamps The timestamps of the backups to drop, in milliseconds
+     * @return The result of the compaction, or null if it failed, in which case nothing is changed
+     */
+    public synchronized CompactionResult compact(Set<Long> removedTimestamps) {
+
+        int removedBackups = 0;
+        for (int i = 0; i < this.count; i++) {
+            if (this.segments[i] != SEGMENT_PENDING && removedTimestamps.contains(this.timestamps[i])) removedBackups++;
+        }
+
+        if (removedBackups == 0) return new CompactionResult(0, 0, 0);
+
+        // The kept backups are written into brand-new segments after the active one, so nothing is lost if this fails.
+        int firstSegment = this.activeSegment + 1;
+        int segment = firstSegment;
+        long segmentSize = 0;
+        List<BackupSegments.Frame> segmentFrames = new ArrayList<>();
+        BackupDeltas.Chain state = null;
+        BackupDeltas.Chain written = null;
+
+        BackupIndex compacted = new BackupIndex(this.directory);
+        TreeSet<Integer> oldSegments = new TreeSet<>();
+        List<File> removedLegacyBackups = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < this.count; i++) {
+
+                boolean removed = removedTimestamps.contains(this.timestamps[i]);
+
+                if (this.segments[i] == SEGMENT_PENDING || (this.segments[i] == SEGMENT_LEGACY && !removed)) {
+                    compacted.put(this.timestamps[i], this.segments[i], this.offsets[i], this.sizes[i], this.kinds[i]);
+                    continue;
+                }
+
+                if (this.segments[i] == SEGMENT_LEGACY) {
+                    removedLegacyBackups.add(new File(this.directory, getBackupFilename(this.timestamps[i])));
+                    continue;
+                }
+
+                // Every packed backup is decoded, even the dropped ones, since the next ones might be deltas against them.
+                oldSegments.add(this.segments[i]);
+                byte[] payload = this.readPayload(this.makeEntry(i));
+
+                if (this.kinds[i] == BackupSegments.KIND_JSON) state = BackupDeltas.fromKeyframe(this.timestamps[i], payload);
+                else if (state == null) throw new IOException("Failed to find the keyframe of the backup " + this.timestamps[i]);
+                else BackupDeltas.apply(state, this.timestamps[i], payload);
+
+                if (removed) continue;
+
+                BackupDeltas.Encoded encoded = BackupDeltas.reencode(written, state);
+
+                if (BackupSegments.shouldSeal(segmentSize, encoded.getPayload().length)) {
+                    BackupSegments.seal(BackupSegments.getSegmentFile(this.directory, segment), segmentFrames);
+                    segmentFrames.clear();
+                    segment++;
+                    segmentSize = 0;
+                }
+
+                long offset = BackupSegments.appendFrame(BackupSegments.getSegmentFile(this.directory, segment),
+                        this.timestamps[i], encoded.getKind(), encoded.getPayload());
+
+                segmentSize = offset + BackupSegments.FRAME_HEADER_SIZE + encoded.getPayload().length;
+                segmentFrames.add(new BackupSegments.Frame(this.timestamps[i], offset, encoded.getPayload().length, encoded.getKind()));
+                compacted.put(this.timestamps[i], segment, offset, encoded.getPayload().length, encoded.getKind());
+                written = encoded.getChain();
+            }
+
+        } catch (IOException | RuntimeException e) {
+            AOSPlayerManager.LOGGER.warning("Failed to compact the backups in " + this.directory.getPath());
+            e.printStackTrace();
+
+            for (int newSegment = firstSegment; newSegment <= segment; newSegment++)
+                BackupSegments.getSegmentFile(this.directory, newSegment).delete();
+
+            return null;
+        }
+
+        long reclaimedBytes = 0;
+        int reclaimedFiles = 0;
+
+        for (int newSegment = firstSegment; newSegment <= segment; newSegment++) {
+            File segmentFile = BackupSegments.getSegmentFile(this.directory, newSegment);
+            if (!segmentFile.exists()) continue;
+            reclaimedBytes -= segmentFile.length();
+            reclaimedFiles--;
+        }
+
+        // The new index is written before anything is deleted, so an interrupted compaction only leaves extra files.
+        this.timestamps = compacted.timestamps;
+        this.segments = compacted.segments;
+        this.offsets = compacted.offsets;
+        this.sizes = compacted.sizes;
+        this.kinds = compacted.kinds;
+        this.count = compacted.count;
+        this.activeSegment = segment;
+        this.activeSegmentSize = segmentSize;
+        this.deltaChain = written;
+
+        // If the new index didn't make it to the disk, the one there still points into the old segments.
+        if (!this.writeIndexFile()) return null;
+
+        List<File> deletedFiles = new ArrayList<>(removedLegacyBackups);
+        oldSegments.forEach(oldSegment -> deletedFiles.add(BackupSegments.getSegmentFile(this.directory, oldSegment)));
+
+        for (File deletedFile : deletedFiles) {
+            long length = deletedFile.length();
+            if (!deletedFile.delete()) continue;
+            reclaimedBytes += length;
+            reclaimedFiles++;
+        }
+
+        // Deleting the files touches the directory, so make sure the index doesn't look outdated on the next load.
+        this.indexFile.setLastModified(Math.max(System.currentTimeMillis(), this.directory.lastModified()));
+        return new CompactionResult(removedBackups, reclaimedFiles, reclaimedBytes);
+    }
+
+    /**
+     * Loads the index from its file, or rebuilds it if the file can't be trusted. The directory being modified
+     * after the index file means that a segment or a backup was created without making it into the index, and
+     * the active segment having a different size than expected means that a frame was appended without making it
+     * into the index.
+     */
+    private void load() {
+
+        if (!this.indexFile.exists() || this.directory.lastModified() > this.indexFile.lastModified()) {
+            this.rebuild();
+            return;
+        }
+
+        try (DataInputStream indexInput = new DataInputStream(new BufferedInputStream(new FileInputStream(this.indexFile)))) {
+
+            if (indexInput.readInt() != INDEX_MAGIC || indexInput.readInt() != INDEX_VERSION) {
+                this.rebuild();
+                return;
+            }
+
+            // A torn record at the end of the file, from an interrupted append, is ignored.
+            long records = (this.indexFile.length() - HEADER_SIZE) / RECORD_SIZE;
+
+            for (long i = 0; i < records; i++)
+                this.put(indexInput.readLong(), indexInput.readInt(), indexInput.readLong(), indexInput.readInt(), indexInput.readByte());
+
+        } catch (IOException e) {
+            AOSPlayerManager.LOGGER.warning("Failed to read the backup index " + this.indexFile.getPath() + ", rebuilding it");
+            this.rebuild();
+            return;
+        }
+
+        // The active segment is the last one in the index, and it must end right after its last frame.
+        for (int i = 0; i < this.count; i++) {
+
+            if (this.segments[i] > this.activeSegment) {
+                this.activeSegment = this.segments[i];
+                this.activeSegmentSize = 0;
+            }
+
+            if (this.segments[i] == this.activeSegment)
+                this.activeSegmentSize = Math.max(this.activeSegmentSize, this.offsets[i] + BackupSegments.FRAME_HEADER_SIZE + this.sizes[i]);
+        }
+
+        if (BackupSegments.getSegmentFile(this.directory, this.activeSegment).length() != this.activeSegmentSize)
+            this.rebuild();
+    }
+
+    /**
+     * Checks if the index can be dropped. The indexes with backups still waiting to be written are never dropped,
+     * since the write queue holds onto them, and loading a second instance would have two indexes appending into
+     * the same segments. This must be called from inside a compute on the loaded indexes.
+     * @param idleSince The time before which the index must've been last used, in milliseconds
+     * @return Whether the index is idle
+     */
+    private synchronized boolean isIdle(long idleSince) {
+
+        if (this.maintenanceUsers > 0 || this.lastAccess >= idleSince) return false;
+
+        for (int i = this.count - 1; i >= 0; i--)
+            if (this.segments[i] == SEGMENT_PENDING) return false;
+
+        return true;
+    }
+
+    /**
+     * Puts a backup at the end of the index in memory. Backups with the same timestamp as the last one replace it,
+     * since backups taken within the same second share the same entry.
+     * @param timestamp The timestamp of the backup, in milliseconds
+     * @param segment The segment the backup is in
+     * @param offset The offset of the backup's frame inside its segment
+     * @param size The size of the backup's data, in bytes
+     * @param kind The kind of payload
+     */
+    private void put(long timestamp, int segment, long offset, int size, byte kind) {
+
+        if (this.count == 0 || this.timestamps[this.count - 1] != timestamp) {
+            this.ensureCapacity(this.count + 1);
+            this.count++;
+        }
+
+        int position = this.count - 1;
+        this.timestamps[position] = timestamp;
+        this.segments[position] = segment;
+        this.offsets[position] = offset;
+        this.sizes[position] = size;
+        this.kinds[position] = kind;
+    }
+
+    /**
+     * Gets the frames in the index that belong to a segment.
+     * @param segment The number of the segment
+     * @return The list of frames
+     */
+    private List<BackupSegments.Frame> getFrames(int segment) {
+
+        List<BackupSegments.Frame> frames = new ArrayList<>();
+
+        for (int i = 0; i < this.count; i++) {
+            if (this.segments[i] == segment)
+                frames.add(new BackupSegments.Frame(this.timestamps[i], this.offsets[i], this.sizes[i], this.kinds[i]));
+        }
+
+        return frames;
+    }
+
+    /**
+     * Writes the whole index into a temporary file, and then replaces the index file with it.
+     * @return Whether the index file was replaced
+     */
+    private boolean writeIndexFile() {
+
+        File temporaryFile = new File(this.directory, INDEX_FILENAME + ".tmp");
+
+        try (DataOutputStream indexOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+
+            indexOutput.writeInt(INDEX_MAGIC);
+            indexOutput.writeInt(INDEX_VERSION);
+
+            for (int i = 0; i < this.count; i++)
+                this.writeRecord(indexOutput, i);
+
+        } catch (IOException e) {
+            AOSPlayerManager.LOGGER.warning("Failed to write the backup index " + this.indexFile.getPath());
+            e.printStackTrace();
+            temporaryFile.delete();
+            return false;
+        }
+
+        if (!FileUtils.replaceFile(temporaryFile, this.indexFile)) return false;
+
+        // Replacing the file touches the directory, so make sure the index doesn't look outdated on the next load.
+        this.indexFile.setLastModified(Math.max(System.currentTimeMillis(), this.directory.lastModified()));
+        return true;
+    }
+
+    /**
+     * Writes the record at the given position into an index output stream.
+     * @param indexOutput The stream to write the record to
+     * @param position The position of the record in the index
+     */
+    private void writeRecord(DataOutputStream indexOutput, int position) throws IOException {
+        indexOutput.writeLong(this.timestamps[position]);
+        indexOutput.writeInt(this.segments[position]);
+        indexOutput.writeLong(this.offsets[position]);
+        indexOutput.writeInt(this.sizes[position]);
+        indexOutput.writeByte(this.kinds[position]);
+    }
+
+    /**
+     * Finds the position of the first backup taken at, or after, the given timestamp.
+     * @param timestamp The timestamp to search for, in milliseconds
+     * @return The position of the backup, or the number of backups if there's none
+     */
+    private int lowerBound(long timestamp) {
+
+        int position = Arrays.binarySearch(this.timestamps, 0, this.count, timestamp);
+        return position >= 0 ? position : -position - 1;
+    }
+
+    /**
+     * Creates an Entry from the record at the given position.
+     * @param position The position of the record in the index
+     * @return The Entry
+     */
+    private Entry makeEntry(int position) {
+        return new Entry(this.timestamps[position], this.segments[position], this.offsets[position], this.sizes[position], this.kinds[position]);
+    }
+
+    /**
+     * Grows the record arrays so that they can fit at least the given number of records.
+     * @param capacity The number of records to fit
+     */
+    private void ensureCapacity(int capacity) {
+
+        if (capacity <= this.timestamps.length) return;
+
+        int newCapacity = Math.max(capacity, this.timestamps.length * 2);
+        this.timestamps = Arrays.copyOf(this.timestamps, newCapacity);
+        this.segments = Arrays.copyOf(this.segments, newCapacity);
+        this.offsets = Arrays.copyOf(this.offsets, newCapacity);
+        this.sizes = Arrays.copyOf(this.sizes, newCapacity);
+        this.kinds = Arrays.copyOf(this.kinds, newCapacity);
+    }
+
+    /**
+     * Tries to parse the date from the filename of a backup file. If it fails, it returns null.
+     * @param format The format of the date to parse
+     * @param date The date to parse
+     * @return The parsed date, or null if it failed
+     */
+    private static Date tryParseDate(DateFormat format, String date) {
+
+        try {
+            return format.parse(date);
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Holds the result of a compaction.
+     */
+    public static class CompactionResult {
+
+        private final int removedBackups;
+        private final int reclaimedFiles;
+        private final long reclaimedBytes;
+
+        private CompactionResult(int removedBackups, int reclaimedFiles, long reclaimedBytes) {
+            this.removedBackups = removedBackups;
+            this.reclaimedFiles = reclaimedFiles;
+            this.reclaimedBytes = reclaimedBytes;
+        }
+
+        public int getRemovedBackups() {
+            return this.removedBackups;
+        }
+
+        public int getReclaimedFiles() {
+            return this.reclaimedFiles;
+        }
+
+        public long getReclaimedBytes() {
+            return this.reclaimedBytes;
+        }
+    }
+
+    /**
+     * Represents a single backup in the index.
+     */
+    public static class Entry {
+
+        private final long timestamp;
+        private final int segment;
+        private final long offset;
+        private final int size;
+        private final byte kind;
+
+        private Entry(long timestamp, int segment, long offset, int size, byte kind) {
+            this.timestamp = timestamp;
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+            this.kind = kind;
+        }
+
+        public long getTimestamp() {
+            return this.timestamp;
+        }
+
+        public int getSegment() {
+            return this.segment;
+        }
+
+        public long getOffset() {
+            return this.offset;
+        }
+
+        public int getSize() {
+            return this.size;
+        }
+
+        public byte getKind() {
+            return this.kind;
+        }
+    }
+}
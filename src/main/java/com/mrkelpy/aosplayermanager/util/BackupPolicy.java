@@ -0,0 +1,133 @@
+package com.mrkelpy.aosplayermanager.util;
+
+import com.mrkelpy.aosplayermanager.configuration.AOSPlayerManagerConfig;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * This class decides whether a backup of a player's data in a level may be made, bounding how many backups are made
+ * no matter how the events that trigger them cluster (such as a player relogging a few times around an autosave).
+ * <br>
+ * Every (player, level) pair must wait a minimum interval between backups, and can't go over a maximum amount of
+ * backups per hour. Backups made for a forcing {@link Reason} (such as right before a restore) always go through,
+ * but still count towards the limits.
+ */
+public class BackupPolicy {
+
+    public static final BackupPolicy INSTANCE = new BackupPolicy();
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+
+    // The timestamps of the backups made within the last hour, for every player and level.
+    private final HashMap<UUID, HashMap<String, ArrayDeque<Long>>> history = new HashMap<>();
+    private long minIntervalMillis = 60 * 1000L;
+    private int maxPerHour = 20;
+    private long allowedBackups;
+    private long limitedBackups;
+    private long forcedBackups;
+
+    /**
+     * Reads the minimum interval and the maximum amount of backups per hour from the configuration file.
+     */
+    public synchronized void configure() {
+        this.minIntervalMillis = Math.max(0, AOSPlayerManagerConfig.getConfig().getLong("backups.min-interval-seconds")) * 1000L;
+        this.maxPerHour = Math.max(0, AOSPlayerManagerConfig.getConfig().getInt("backups.max-per-hour"));
+    }
+
+    /**
+     * Checks whether a backup of a player's data in a level may be made right now. This doesn't record anything,
+     * so that a backup that ends up not being made for another reason doesn't count towards the limits.
+     * @param playerUUID The UUID of the player
+     * @param levelName The level being backed up
+     * @param reason The reason the backup is being made for
+     * @return Whether the backup may be made
+     */
+    public synchronized boolean allows(UUID playerUUID, String levelName, Reason reason) {
+
+        if (reason.isForced()) {
+            this.forcedBackups++;
+            return true;
+        }
+
+        long now = System.currentTimeMillis();
+        ArrayDeque<Long> timestamps = this.getTimestamps(playerUUID, levelName, now);
+        boolean allowed = timestamps.isEmpty()
+                || (now - timestamps.peekLast() >= this.minIntervalMillis
+                && (this.maxPerHour == 0 || timestamps.size() < this.maxPerHour));
+
+        if (allowed) this.allowedBackups++;
+        else this.limitedBackups++;
+
+        return allowed;
+    }
+
+    /**
+     * Records that a backup of a player's data in a level was made.
+     * @param playerUUID The UUID of the player
+     * @param levelName The level that was backed up
+     */
+    public synchronized void record(UUID playerUUID, String levelName) {
+        long now = System.currentTimeMillis();
+        this.getTimestamps(playerUUID, levelName, now).add(now);
+    }
+
+    /**
+     * Clears the counts of allowed, limited and forced backups. The backup history the limits are based on is kept.
+     */
+    public synchronized void resetStats() {
+        this.allowedBackups = 0;
+        this.limitedBackups = 0;
+        this.forcedBackups = 0;
+    }
+
+    public synchronized long getAllowedBackups() {
+        return this.allowedBackups;
+    }
+
+    public synchronized long getLimitedBackups() {
+        return this.limitedBackups;
+    }
+
+    public synchronized long getForcedBackups() {
+        return this.forcedBackups;
+    }
+
+    /**
+     * Gets the timestamps of the backups made for a player in a level within the last hour, dropping the older ones.
+     * @param playerUUID The UUID of the player
+     * @param levelName The level to get the timestamps for
+     * @param now The current time, in milliseconds
+     * @return The timestamps, oldest first
+     */
+    private ArrayDeque<Long> getTimestamps(UUID playerUUID, String levelName, long now) {
+
+        ArrayDeque<Long> timestamps = this.history.computeIfAbsent(playerUUID, uuid -> new HashMap<>())
+                .computeIfAbsent(levelName, level -> new ArrayDeque<>());
+
+        while (!timestamps.isEmpty() && now - timestamps.peekFirst() >= HOUR_MILLIS) timestamps.pollFirst();
+        return timestamps;
+    }
+
+    /**
+     * Represents why a backup is being made. The forcing reasons bypass the limits, since the backup is what
+     * allows whatever comes after it to be undone.
+     */
+    public enum Reason {
+
+        QUIT(false),
+        WORLD_SAVE(false),
+        COMMAND(true),
+        PRE_RESTORE(true);
+
+        private final boolean forced;
+
+        Reason(boolean forced) {
+            this.forced = forced;
+        }
+
+        public boolean isForced() {
+            return this.forced;
+        }
+    }
+}
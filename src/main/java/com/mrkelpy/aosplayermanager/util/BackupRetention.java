@@ -0,0 +1,217 @@
+package com.mrkelpy.aosplayermanager.util;
+
+import com.mrkelpy.aosplayermanager.AOSPlayerManager;
+import com.mrkelpy.aosplayermanager.configuration.AOSPlayerManagerConfig;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class thins out the backups as they get older, so that the backups directory doesn't grow forever. Every backup
+ * from the last few hours is kept, then only the newest backup of every hour for the last few days, and then only the
+ * newest backup of every day.
+ * <br>
+ * The retention runs periodically on its own low priority thread, going through the backup indexes one by one, and
+ * every index drops all of its thinned out backups at once through {@link BackupIndex#compact(Set)}.
+ */
+public class BackupRetention {
+
+    public static final BackupRetention INSTANCE = new BackupRetention();
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+    private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, AOSPlayerManager.PLUGIN_NAME + " Retention");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private ScheduledFuture<?> task;
+    private volatile boolean stopping;
+    private volatile long keepAllMillis = 24 * HOUR_MILLIS;
+    private volatile long keepHourlyMillis = 7 * DAY_MILLIS;
+    private long removedBackups;
+    private long reclaimedFiles;
+    private long reclaimedBytes;
+
+    /**
+     * Reads the retention settings from the configuration file, and (re)schedules the retention runs.
+     * An interval of 0 disables them.
+     */
+    public synchronized void configure() {
+
+        this.keepAllMillis = Math.max(0, AOSPlayerManagerConfig.getConfig().getLong("backups.keep-all-hours")) * HOUR_MILLIS;
+        this.keepHourlyMillis = Math.max(0, AOSPlayerManagerConfig.getConfig().getLong("backups.keep-hourly-days")) * DAY_MILLIS;
+        long intervalMinutes = AOSPlayerManagerConfig.getConfig().getLong("backups.retention-interval-minutes");
+
+        if (this.task != null) this.task.cancel(false);
+        this.task = intervalMinutes > 0
+                ? this.executor.scheduleWithFixedDelay(this::run, intervalMinutes, intervalMinutes, TimeUnit.MINUTES)
+                : null;
+    }
+
+    /**
+     * Stops the retention runs, letting a run that is underway finish the index it's compacting, and waits for it.
+     * This must happen before the plugin is disabled, so that a run never compacts the segments that the next
+     * instance of the plugin (after a reload) is appending into.
+     * @param timeoutMillis The maximum time to wait for the run to finish, in milliseconds
+     */
+    public synchronized void shutdown(long timeoutMillis) {
+
+        this.stopping = true;
+        if (this.task != null) this.task.cancel(false);
+        this.executor.shutdown();
+
+        try {
+            if (!this.executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS))
+                AOSPlayerManager.LOGGER.warning("Timed out waiting for the backup retention to stop");
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Goes through every backup index, dropping the backups that aren't kept anymore, and logs how much was reclaimed.
+     * This is run on the retention thread.
+     */
+    public void run() {
+
+        int compactedIndexes = 0;
+        long runRemovedBackups = 0;
+        long runReclaimedFiles = 0;
+        long runReclaimedBytes = 0;
+        long now = System.currentTimeMillis();
+
+        File[] levelDirectories = FileUtils.makeLevelDirectory("backups").listFiles(File::isDirectory);
+
+        for (File levelDirectory : levelDirectories != null ? levelDirectories : new File[0]) {
+
+            if (this.stopping) break;
+            File[] playerDirectories = levelDirectory.listFiles(File::isDirectory);
+
+            for (File playerDirectory : playerDirectories != null ? playerDirectories : new File[0]) {
+
+                if (this.stopping) break;
+                UUID playerUUID = BackupRetention.tryParseUUID(playerDirectory.getName());
+                if (playerUUID == null) continue;
+
+                BackupIndex.CompactionResult result;
+
+                BackupIndex backupIndex = null;
+
+                // A failure in one index must not stop the runs, since the executor drops a task that throws.
+                try {
+                    backupIndex = BackupIndex.acquire(playerUUID, levelDirectory.getName());
+                    Set<Long> removedTimestamps = this.selectRemovals(backupIndex.getPage(0, -1), now);
+                    if (removedTimestamps.isEmpty()) continue;
+                    result = backupIndex.compact(removedTimestamps);
+
+                } catch (RuntimeException e) {
+                    AOSPlayerManager.LOGGER.warning("Failed to apply the backup retention to " + playerDirectory.getPath());
+                    e.printStackTrace();
+                    continue;
+
+                } finally {
+                    if (backupIndex != null) backupIndex.release();
+                }
+
+                if (result == null) continue;
+
+                compactedIndexes++;
+                runRemovedBackups += result.getRemovedBackups();
+                runReclaimedFiles += result.getReclaimedFiles();
+                runReclaimedBytes += result.getReclaimedBytes();
+
+                // Lets the writes and the server catch up between the indexes, since this isn't urgent.
+                Thread.yield();
+            }
+        }
+
+        this.count(runRemovedBackups, runReclaimedFiles, runReclaimedBytes);
+        if (compactedIndexes == 0) return;
+
+        AOSPlayerManager.LOGGER.info(String.format("Backup retention removed %s backups from %s players and levels, reclaiming %s files (%s bytes)",
+                runRemovedBackups, compactedIndexes, runReclaimedFiles, runReclaimedBytes));
+    }
+
+    /**
+     * Picks the backups that aren't kept anymore. Every backup newer than the keep-all window is kept, and, past it,
+     * only the newest backup of every hour (within the hourly window) or of every day (beyond it) is kept.
+     * @param entries The backups of a player in a level, from the newest to the oldest
+     * @param now The current time, in milliseconds
+     * @return The timestamps of the backups to drop
+     */
+    private Set<Long> selectRemovals(List<BackupIndex.Entry> entries, long now) {
+
+        Set<Long> keptBuckets = new HashSet<>();
+        Set<Long> removedTimestamps = new HashSet<>();
+
+        for (BackupIndex.Entry entry : entries) {
+
+            // Backups that aren't written yet are left alone, and don't take the place of the written ones.
+            long age = now - entry.getTimestamp();
+            if (entry.getSegment() == BackupIndex.SEGMENT_PENDING || age < this.keepAllMillis) continue;
+
+            // The days follow the server's timezone, and are kept apart from the hours by being negative.
+            long localTimestamp = entry.getTimestamp() + TimeZone.getDefault().getOffset(entry.getTimestamp());
+            long bucket = age < this.keepAllMillis + this.keepHourlyMillis
+                    ? localTimestamp / HOUR_MILLIS
+                    : -(localTimestamp / DAY_MILLIS) - 1;
+
+            if (!keptBuckets.add(bucket)) removedTimestamps.add(entry.getTimestamp());
+        }
+
+        return removedTimestamps;
+    }
+
+    /**
+     * Clears the totals of what the retention runs removed and reclaimed.
+     */
+    public synchronized void resetStats() {
+        this.removedBackups = 0;
+        this.reclaimedFiles = 0;
+        this.reclaimedBytes = 0;
+    }
+
+    public synchronized long getRemovedBackups() {
+        return this.removedBackups;
+    }
+
+    public synchronized long getReclaimedFiles() {
+        return this.reclaimedFiles;
+    }
+
+    public synchronized long getReclaimedBytes() {
+        return this.reclaimedBytes;
+    }
+
+    private synchronized void count(long removedBackups, long reclaimedFiles, long reclaimedBytes) {
+        this.removedBackups += removedBackups;
+        this.reclaimedFiles += reclaimedFiles;
+        this.reclaimedBytes += reclaimedBytes;
+    }
+
+    /**
+     * Tries to parse a UUID from the name of a backups directory. If it fails, it returns null.
+     * @param name The name to parse
+     * @return The parsed UUID, or null if it failed
+     */
+    private static UUID tryParseUUID(String name) {
+
+        try {
+            return UUID.fromString(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package com.mrkelpy.aosplayermanager.util;
+
+import com.mrkelpy.aosplayermanager.AOSPlayerManager;
+import com.mrkelpy.aosplayermanager.configuration.AOSPlayerManagerConfig;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class implements the segment files that the backups are packed into. Instead of one file per backup,
+ * the backups of a player in a level are appended as framed records into a rolling segment file, which gets
+ * sealed with a footer index once it grows past the configured size.
+ * <br>
+ * A frame is laid out as: magic (int), timestamp (long), kind (byte), payload length (int), payload.
+ * A footer is laid out as: record count (int), records (timestamp, offset, length, kind), footer offset (long), magic (int).
+ */
+@SuppressWarnings("ResultOfMethodCallIgnored")
+public class BackupSegments {
+
+    public static final byte KIND_JSON = 0;
+    public static final byte KIND_JSON_DELTA = 1;
+    public static final int FRAME_HEADER_SIZE = 17;
+
+    private static final int FRAME_MAGIC = 0x41504D46;
+    private static final int FOOTER_MAGIC = 0x41504D53;
+    private static final int FOOTER_RECORD_SIZE = 21;
+    private static final int FOOTER_TRAILER_SIZE = 12;
+    private static volatile long sealThreshold = 4 * 1024 * 1024;
+
+    /**
+     * Reads the size at which the segments are sealed from the configuration file. This is read upfront
+     * because the segments are written from the I/O threads.
+     */
+    public static void configure() {
+        sealThreshold = Math.max(1024, AOSPlayerManagerConfig.getConfig().getLong("backups.segment-size-bytes"));
+    }
+
+    /**
+     * Gets the segment file with the given number inside a backups directory.
+     * @param directory The backups directory
+     * @param segment The number of the segment
+     * @return The segment file
+     */
+    public static File getSegmentFile(File directory, int segment) {
+        return new File(directory, String.format("segment-%06d.seg", segment));
+    }
+
+    /**
+     * Parses the segment number out of a segment filename.
+     * @param filename The filename to parse
+     * @return The segment number, or -1 if the file isn't a segment
+     */
+    public static int parseSegmentNumber(String filename) {
+
+        if (!filename.startsWith("segment-") || !filename.endsWith(".seg")) return -1;
+
+        try {
+            return Integer.parseInt(filename.substring(8, filename.length() - 4));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Checks whether a segment of the given size should be sealed before a payload is appended to it.
+     * An empty segment is never sealed, so a payload bigger than the threshold still gets a segment.
+     * @param segmentSize The current size of the segment, in bytes
+     * @param payloadSize The size of the payload about to be appended
+     * @return Whether the segment should be sealed
+     */
+    public static boolean shouldSeal(long segmentSize, int payloadSize) {
+        return segmentSize > 0 && segmentSize + FRAME_HEADER_SIZE + payloadSize > sealThreshold;
+    }
+
+    /**
+     * Appends a payload into a segment file as a framed record.
+     * @param segmentFile The segment file to append to
+     * @param timestamp The timestamp of the backup, in milliseconds
+     * @param kind The kind of payload
+     * @param payload The payload bytes
+     * @return The offset of the frame inside the segment
+     */
+    public static long appendFrame(File segmentFile, long timestamp, byte kind, byte[] payload) throws IOException {
+
+        long offset = segmentFile.length();
+
+        try (DataOutputStream segmentOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segmentFile, true)))) {
+            segmentOutput.writeInt(FRAME_MAGIC);
+            segmentOutput.writeLong(timestamp);
+            segmentOutput.writeByte(kind);
+            segmentOutput.writeInt(payload.length);
+            segmentOutput.write(payload);
+
+        } catch (IOException e) {
+
+            // A partly written frame would sit in front of every frame appended after it, so it's cut off right away.
+            try (RandomAccessFile segment = new RandomAccessFile(segmentFile, "rw")) {
+                if (segment.length() > offset) segment.setLength(offset);
+            } catch (IOException truncateException) {
+                e.addSuppressed(truncateException);
+            }
+
+            throw e;
+        }
+
+        return offset;
+    }
+
+    /**
+     * Reads the payload of a frame, seeking straight to its offset.
+     * @param segmentFile The segment file to read from
+     * @param offset The offset of the frame inside the segment
+     * @param timestamp The timestamp the frame is expected to have, to make sure the offset is right
+     * @return The payload bytes
+     */
+    public static byte[] readFrame(File segmentFile, long offset, long timestamp) throws IOException {
+
+        try (RandomAccessFile segment = new RandomAccessFile(segmentFile, "r")) {
+
+            segment.seek(offset);
+            if (segment.readInt() != FRAME_MAGIC || segment.readLong() != timestamp)
+                throw new IOException("No backup frame for " + timestamp + " at offset " + offset + " of " + segmentFile.getPath());
+
+            segment.readByte();
+            byte[] payload = new byte[segment.readInt()];
+            segment.readFully(payload);
+            return payload;
+        }
+    }
+
+    /**
+     * Seals a segment by appending a footer index of its frames. No more frames can be appended after this.
+     * @param segmentFile The segment file to seal
+     * @param frames The frames inside the segment
+     */
+    public static void seal(File segmentFile, List<Frame> frames) throws IOException {
+
+        long footerOffset = segmentFile.length();
+
+        try (DataOutputStream segmentOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segmentFile, true)))) {
+
+            segmentOutput.writeInt(frames.size());
+
+            for (Frame frame : frames) {
+                segmentOutput.writeLong(frame.timestamp);
+                segmentOutput.writeLong(frame.offset);
+                segmentOutput.writeInt(frame.size);
+                segmentOutput.writeByte(frame.kind);
+            }
+
+            segmentOutput.writeLong(footerOffset);
+            segmentOutput.writeInt(FOOTER_MAGIC);
+        }
+    }
+
+    /**
+     * Reads every frame inside a segment. Sealed segments are read from their footer; unsealed ones are scanned
+     * frame by frame. A damaged frame followed by readable ones is skipped over and reported, keeping the frames after
+     * it, while a torn frame at the end (from an interrupted append) is cut off the file.
+     * @param segmentFile The segment file to read
+     * @return The result of the scan
+     */
+    public static Scan scan(File segmentFile) throws IOException {
+
+        Scan footerScan = BackupSegments.readFooter(segmentFile);
+        if (footerScan != null) return footerScan;
+
+        List<Frame> frames = new ArrayList<>();
+        byte[] header = new byte[FRAME_HEADER_SIZE];
+        long position = 0;
+        long length;
+
+        try (RandomAccessFile segment = new RandomAccessFile(segmentFile, "rw")) {
+
+            length = segment.length();
+
+            while (position < length) {
+
+                Frame frame = BackupSegments.readFrameHeader(segment, position, length, header);
+
+                if (frame != null) {
+                    frames.add(frame);
+                    position += FRAME_HEADER_SIZE + frame.size;
+                    continue;
+                }
+
+                long nextPosition = BackupSegments.findNextFrame(segment, position + 1, length, header);
+
+                // Nothing readable follows, so this is a torn append and the tail can go.
+                if (nextPosition < 0) {
+                    segment.setLength(position);
+                    break;
+                }
+
+                AOSPlayerManager.LOGGER.warning(String.format("Skipped %s damaged bytes at offset %s of %s",
+                        nextPosition - position, position, segmentFile.getPath()));
+                position = nextPosition;
+            }
+        }
+
+        return new Scan(frames, false, Math.min(position, length));
+    }
+
+    /**
+     * Reads the header of the frame at a position, checking that it's a whole frame.
+     * @param segment The segment to read from
+     * @param position The position of the frame
+     * @param length The length of the segment
+     * @param header A buffer of {@link #FRAME_HEADER_SIZE} bytes to read the header into
+     * @return The frame, or null if there's no whole frame at the position
+     */
+    private static Frame readFrameHeader(RandomAccessFile segment, long position, long length, byte[] header) throws IOException {
+
+        if (position + FRAME_HEADER_SIZE > length) return null;
+
+        segment.seek(position);
+        segment.readFully(header);
+        DataInputStream headerInput = new DataInputStream(new ByteArrayInputStream(header));
+
+        if (headerInput.readInt() != FRAME_MAGIC) return null;
+        long timestamp = headerInput.readLong();
+        byte kind = headerInput.readByte();
+        int size = headerInput.readInt();
+
+        if ((kind != KIND_JSON && kind != KIND_JSON_DELTA) || size < 0 || position + FRAME_HEADER_SIZE + size > length) return null;
+        return new Frame(timestamp, position, size, kind);
+    }
+
+    /**
+     * Looks for the next whole frame in a segment, starting from a position.
+     * @param segment The segment to search
+     * @param position The position to start searching from
+     * @param length The length of the segment
+     * @param header A buffer of {@link #FRAME_HEADER_SIZE} bytes to read the headers into
+     * @return The position of the next frame, or -1 if there's none
+     */
+    private static long findNextFrame(RandomAccessFile segment, long position, long length, byte[] header) throws IOException {
+
+        byte[] buffer = new byte[64 * 1024];
+
+        for (long chunkStart = position; chunkStart + 4 <= length; chunkStart += buffer.length - 3) {
+
+            segment.seek(chunkStart);
+            int read = (int) Math.min(buffer.length, length - chunkStart);
+            segment.readFully(buffer, 0, read);
+
+            // Only the spots starting with the magic are checked as whole frames.
+            for (int i = 0; i + 4 <= read; i++) {
+                int magic = (buffer[i] & 0xFF) << 24 | (buffer[i + 1] & 0xFF) << 16 | (buffer[i + 2] & 0xFF) << 8 | (buffer[i + 3] & 0xFF);
+                if (magic == FRAME_MAGIC && BackupSegments.readFrameHeader(segment, chunkStart + i, length, header) != null)
+                    return chunkStart + i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Reads the frames from the footer of a segment.
+     * @param segmentFile The segment file to read
+     * @return The result of the scan, or null if the segment isn't sealed
+     */
+    private static Scan readFooter(File segmentFile) throws IOException {
+
+        long length = segmentFile.length();
+        if (length < FOOTER_TRAILER_SIZE + 4) return null;
+
+        try (RandomAccessFile segment = new RandomAccessFile(segmentFile, "r")) {
+
+            segment.seek(length - FOOTER_TRAILER_SIZE);
+            long footerOffset = segment.readLong();
+            if (segment.readInt() != FOOTER_MAGIC || footerOffset < 0 || footerOffset > length - FOOTER_TRAILER_SIZE - 4) return null;
+
+            segment.seek(footerOffset);
+            int count = segment.readInt();
+            if (count < 0 || footerOffset + 4 + (long) count * FOOTER_RECORD_SIZE + FOOTER_TRAILER_SIZE != length) return null;
+
+            List<Frame> frames = new ArrayList<>();
+            for (int i = 0; i < count; i++)
+                frames.add(new Frame(segment.readLong(), segment.readLong(), segment.readInt(), segment.readByte()));
+
+            return new Scan(frames, true, length);
+        }
+    }
+
+    /**
+     * Represents a single frame inside a segment.
+     */
+    public static class Frame {
+
+        private final long timestamp;
+        private final long offset;
+        private final int size;
+        private final byte kind;
+
+        public Frame(long timestamp, long offset, int size, byte kind) {
+            this.timestamp = timestamp;
+            this.offset = offset;
+            this.size = size;
+            this.kind = kind;
+        }
+
+        public long getTimestamp() {
+            return this.timestamp;
+        }
+
+        public long getOffset() {
+            return this.offset;
+        }
+
+        public int getSize() {
+            return this.size;
+        }
+
+        public byte getKind() {
+            return this.kind;
+        }
+    }
+
+    /**
+     * Holds the result of scanning a segment.
+     */
+    public static class Scan {
+
+        private final List<Frame> frames;
+        private final boolean sealed;
+        private final long length;
+
+        private Scan(List<Frame> frames, boolean sealed, long length) {
+            this.frames = frames;
+            this.sealed = sealed;
+            this.length = length;
+        }
+
+        public List<Frame> getFrames() {
+            return this.frames;
+        }
+
+        public boolean isSealed() {
+            return this.sealed;
+        }
+
+        public long getLength() {
+            return this.length;
+        }
+    }
+}
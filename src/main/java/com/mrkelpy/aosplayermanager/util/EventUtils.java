@@ -1,8 +1,8 @@
 package com.mrkelpy.aosplayermanager.util;
 
 import com.mrkelpy.aosplayermanager.common.PartialLocation;
-import com.mrkelpy.aosplayermanager.configuration.AOSPlayerManagerConfig;
 import com.mrkelpy.aosplayermanager.configuration.LevelSetConfiguration;
+import com.mrkelpy.aosplayermanager.configuration.WorldPolicy;
 import org.bukkit.Bukkit;
 import org.bukkit.Material;
 import org.bukkit.entity.Player;
@@ -10,11 +10,8 @@ import org.bukkit.event.inventory.InventoryType;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
 
 public class EventUtils {
 
@@ -22,22 +19,41 @@ public class EventUtils {
     /**
      * Saves the playerdata for a player into a level or level set. This method
      * is meant to be run from event listeners.
+     * <br>
+     * The levels in a set share a single record, so saving one of them saves the whole set; the other levels
+     * only need their coordinates touched when they're being nulled out.
      * @param player The player to save the data for
      * @param levelName The level to save the data to
      */
     public static void eventPlayerdataSave(Player player, String levelName) {
 
         // If the null-coordinates setting is enabled for this level, don't save the coordinates for it or the set.
-        boolean nullCoordinates = AOSPlayerManagerConfig.getConfig().getList("worlds.null-coordinates").contains(levelName);
+        boolean nullCoordinates = WorldPolicy.get(levelName).isNullCoordinates();
 
         FileUtils.savePlayerData(player, levelName, nullCoordinates ? null : new PartialLocation(player.getLocation()));
 
-        // Applies the playerdata for every world in the set, save for the location.
-        if (LevelSetConfiguration.getLevelSetFor(levelName).isEmpty()) return;
+        // The rest of the set already shares the saved data, so only their coordinates need to be nulled out.
+        if (!nullCoordinates) return;
 
         for (String level : LevelSetConfiguration.getLevelSetFor(levelName)) {
             if (level.equals(levelName)) continue; // Skips the level we are saving to.
-            FileUtils.savePlayerData(player, level, nullCoordinates ? null : FileUtils.getPlayerData(player, level).getPlayerCoordinates());
+            FileUtils.savePlayerCoordinates(player, level, null);
+        }
+    }
+
+    /**
+     * Nulls out the stored coordinates of a player for a level and the rest of its set, so minecraft handles the
+     * coordinate placement, without rewriting the rest of the playerdata. This method is meant to be run from event listeners.
+     * @param player The player to null the coordinates for
+     * @param levelName The level to null the coordinates for
+     */
+    public static void eventPlayerdataNullCoordinates(Player player, String levelName) {
+
+        FileUtils.savePlayerCoordinates(player, levelName, null);
+
+        for (String level : LevelSetConfiguration.getLevelSetFor(levelName)) {
+            if (level.equals(levelName)) continue; // Skips the level we already nulled out.
+            FileUtils.savePlayerCoordinates(player, level, null);
         }
     }
 
@@ -49,20 +65,21 @@ public class EventUtils {
      * specifically for the backups. It's better and less messy in the long run.
      * @param player The player to save the data for
      * @param levelName The level to save the data to
+     * @param reason The reason the backup is being made for
      */
-    public static void eventPlayerdataBackup(Player player, String levelName) {
+    public static void eventPlayerdataBackup(Player player, String levelName, BackupPolicy.Reason reason) {
 
         // If the null-coordinates setting is enabled for this level, don't save the coordinates for it or the set.
-        boolean nullCoordinates = AOSPlayerManagerConfig.getConfig().getList("worlds.null-coordinates").contains(levelName);
+        boolean nullCoordinates = WorldPolicy.get(levelName).isNullCoordinates();
 
-        FileUtils.backupPlayerData(player, levelName, nullCoordinates ? null : new PartialLocation(player.getLocation()));
+        FileUtils.backupPlayerData(player, levelName, nullCoordinates ? null : new PartialLocation(player.getLocation()), reason);
 
         // Applies the playerdata for every world in the set, save for the location.
         if (LevelSetConfiguration.getLevelSetFor(levelName).isEmpty()) return;
 
         for (String level : LevelSetConfiguration.getLevelSetFor(levelName)) {
             if (level.equals(levelName)) continue; // Skips the level we are backing up to.
-            FileUtils.backupPlayerData(player, level, nullCoordinates ? null : FileUtils.getPlayerData(player, level).getPlayerCoordinates());
+            FileUtils.backupPlayerData(player, level, nullCoordinates ? null : FileUtils.getPlayerCoordinates(player, level), reason);
         }
     }
 
@@ -77,20 +94,18 @@ public class EventUtils {
      */
     public static void eventPlayerdataSaveForDeath(Player player, String levelName) {
 
-        // Check if the world is in a set
-        List<ArrayList<String>> levelSet = LevelSetConfiguration.getLevelSets().stream().filter(set -> set.contains(levelName)).collect(Collectors.toList());
         Inventory inventory = player.getInventory();
         ItemStack[] armour = player.getInventory().getArmorContents();
 
         // If the keepInventory gamerule is set to true, but there's a forced no keepinv, the items won't been dropped, so
         // we need to drop them manually. This is an edge case that I don't think has a better fix.
-        if (Boolean.parseBoolean(player.getWorld().getGameRuleValue("keepInventory")) && AOSPlayerManagerConfig.getConfig().getList("worlds.no-keepinventory").contains(levelName)) {
+        if (Boolean.parseBoolean(player.getWorld().getGameRuleValue("keepInventory")) && WorldPolicy.get(levelName).isNoKeepInventory()) {
             Arrays.stream(inventory.getContents()).filter(Objects::nonNull).filter(i -> i.getType() != Material.AIR).forEach(i -> player.getWorld().dropItemNaturally(player.getLocation(), i));
             Arrays.stream(armour).filter(Objects::nonNull).filter(i -> i.getType() != Material.AIR).forEach(item -> player.getWorld().dropItemNaturally(player.getLocation(), item));
         }
 
         // Delete the inventory from the player if keepinventory is disabled or force disabled, and update the inventory and armour.
-        if (!Boolean.parseBoolean(player.getWorld().getGameRuleValue("keepInventory")) || AOSPlayerManagerConfig.getConfig().getList("worlds.no-keepinventory").contains(levelName)) {
+        if (!Boolean.parseBoolean(player.getWorld().getGameRuleValue("keepInventory")) || WorldPolicy.get(levelName).isNoKeepInventory()) {
             player.getInventory().setContents(Bukkit.createInventory(null, InventoryType.PLAYER).getContents());
             player.getInventory().setArmorContents(new ItemStack[4]);
 
@@ -100,12 +115,10 @@ public class EventUtils {
 
         FileUtils.savePlayerDataForDeath(player, levelName, inventory, armour);
 
-        // Applies the playerdata for every world in the set, save for the location.
-        if (levelSet.isEmpty()) return;
-
-        for (String level : levelSet.get(0)) {
+        // The rest of the set already shares the saved data, so only their coordinates are nulled out.
+        for (String level : LevelSetConfiguration.getLevelSetFor(levelName)) {
             if (level.equals(levelName)) continue; // Skips the level we are saving to.
-            FileUtils.savePlayerDataForDeath(player, level, inventory, armour);
+            FileUtils.savePlayerCoordinates(player, level, null);
         }
     }
 
@@ -5,6 +5,8 @@ import com.mrkelpy.aosplayermanager.AOSPlayerManager;
 import com.mrkelpy.aosplayermanager.common.BackupHolder;
 import com.mrkelpy.aosplayermanager.common.PartialLocation;
 import com.mrkelpy.aosplayermanager.common.PlayerDataHolder;
+import com.mrkelpy.aosplayermanager.common.PlayerdataPatch;
+import com.mrkelpy.aosplayermanager.configuration.LevelSetConfiguration;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
@@ -14,9 +16,12 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Modifier;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.DateFormat;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -38,35 +43,51 @@ public class FileUtils {
             .create();
 
     /**
-     * Creates the levels' storage directory if it doesn't exist.
+     * The directory inside the level list's directory holding the playerdata shared by the levels of every level set.
      */
-    public static File makeLevelListDirectory() {
+    public static final String LEVEL_SETS_DIRECTORY = "levelsets";
 
-        File levelListDirectory = new File(AOSPlayerManager.DataFolder, "AOSPlayerManagerDimensions");
+    /**
+     * Creates the levels' storage directory if it doesn't exist. The first call sets up the
+     * {@link ManagedWorldRegistry} for it, and the later ones are served from there.
+     */
+    public static File makeLevelListDirectory() {
 
-        if (!levelListDirectory.exists())
-            levelListDirectory.mkdirs();
+        File levelListDirectory = ManagedWorldRegistry.INSTANCE.getLevelListDirectory();
+        if (levelListDirectory != null) return levelListDirectory;
 
-        return levelListDirectory;
+        ManagedWorldRegistry.INSTANCE.populate(new File(AOSPlayerManager.DataFolder, "AOSPlayerManagerDimensions"));
+        return ManagedWorldRegistry.INSTANCE.getLevelListDirectory();
     }
 
     /**
      * Creates a subdirectory inside the level list's directory representing a level's playerdata storage
-     * if it doesn't already exist.
+     * if it doesn't already exist. Directories that are already known to exist are returned without checking.
      */
     public static File makeLevelDirectory(String levelName) {
+        makeLevelListDirectory();
+        return ManagedWorldRegistry.INSTANCE.getDirectory(levelName);
+    }
 
-        File levelDirectory = new File(makeLevelListDirectory(), levelName);
-
-        if (!levelDirectory.exists())
-            levelDirectory.mkdirs();
-
-        return levelDirectory;
+    /**
+     * Creates a subdirectory inside the level sets' directory representing the shared playerdata storage of a
+     * level set, if it doesn't already exist. The directory is named after the sorted levels in the set, so it
+     * doesn't change with the order they're listed in.
+     * @param levelSet The levels in the set
+     * @return The level set's directory
+     */
+    public static File makeLevelSetDirectory(List<String> levelSet) {
+        return makeLevelDirectory(LEVEL_SETS_DIRECTORY + "/" + levelSet.stream().sorted().collect(Collectors.joining("+")));
     }
 
     /**
      * Creates a file inside the level's playerdata storage directory (if it doesn't exist already)
      * that represents a player's data for that level, based on the given PlayerDataHolder.
+     * <br>
+     * If the level is in a level set, the data is written into the record shared by the whole set instead, and
+     * only the coordinates are written for the level itself.
+     * <br>
+     * The data is captured right away, but the file itself is written in the background by the {@link PlayerdataWriteQueue}.
      * @param player The player to save the data from
      * @param levelName The level to save the data to
      * @param location The location that the player was in for the level. This needs to be here
@@ -75,9 +96,13 @@ public class FileUtils {
      */
     public static File savePlayerData(Player player, String levelName, PartialLocation location) {
 
+        long captureStart = System.nanoTime();
         PlayerDataHolder playerDataHolder = new PlayerDataHolder(player, location);
-        File playerdataFile = new File(makeLevelDirectory(levelName), player.getUniqueId().toString() + ".json");
-        FileUtils.writeJson(playerdataFile.getPath(), FileUtils.GSON.toJsonTree(playerDataHolder.serialize()).getAsJsonObject());
+        File playerdataFile = FileUtils.submitPlayerData(player, levelName, playerDataHolder);
+
+        long captureNanos = System.nanoTime() - captureStart;
+        PlayerdataWriteQueue.INSTANCE.recordCapture(captureNanos);
+        PlayerdataMetrics.SAVE.record(captureNanos);
         return playerdataFile;
     }
 
@@ -90,37 +115,77 @@ public class FileUtils {
     }
 
     /**
-     * Creates a backup of the player's current data inside plugin/AOSPlayerDimensions/backups/UUID/date.
+     * Creates a backup of the player's current data inside plugin/AOSPlayerDimensions/backups/level/UUID, packed into
+     * the segment files implemented by {@link BackupSegments}.
      * <br>
      * This method is meant to be used in conjunction with {@link FileUtils#savePlayerData(Player, String, PartialLocation)},
      * but it can be used without it.
      * @param player The player to save the data from
      * @param levelName The level to save the data to
-     * @return The File instance containing the data
+     * @param reason The reason the backup is being made for, checked against the {@link BackupPolicy}
+     * @return The File instance identifying the backup
      */
-    public static File backupPlayerData(Player player, String levelName, PartialLocation location) {
+    public static File backupPlayerData(Player player, String levelName, PartialLocation location, BackupPolicy.Reason reason) {
+
+        long backupStart = System.nanoTime();
+        File playerdataBackupFile = FileUtils.submitBackup(player, levelName, location, reason);
+
+        PlayerdataMetrics.BACKUP.record(System.nanoTime() - backupStart);
+        return playerdataBackupFile;
+    }
+
+    /**
+     * Captures the backup for {@link #backupPlayerData(Player, String, PartialLocation, BackupPolicy.Reason)} and
+     * submits it to the {@link PlayerdataWriteQueue}, unless the policy or the dirty tracker skip it.
+     * @param player The player to save the data from
+     * @param levelName The level to save the data to
+     * @param location The location that the player was in for the level
+     * @param reason The reason the backup is being made for
+     * @return The File instance identifying the backup
+     */
+    private static File submitBackup(Player player, String levelName, PartialLocation location, BackupPolicy.Reason reason) {
+
+        // Create the necessary resources to name the backup (The backup index and the date of the backup truncated to
+        // the second, since that's the resolution of the filenames)
+        BackupIndex backupIndex = BackupIndex.get(player.getUniqueId(), levelName);
+        long timestamp = System.currentTimeMillis() / 1000 * 1000;
+
+        // List the backup in the index and have it appended into the backup segments. The file named after the date
+        // isn't created anymore, but it still identifies the backup while it's waiting to be written.
+        File playerdataBackupFile = new File(backupIndex.getDirectory(), BackupIndex.getBackupFilename(timestamp));
+
+        // Backups made too soon after the previous ones of the level are skipped before the player's data is even
+        // captured, and so are the ones identical to the previous one, since they wouldn't restore anything new.
+        if (!BackupPolicy.INSTANCE.allows(player.getUniqueId(), levelName, reason)) return playerdataBackupFile;
 
-        // Create the necessary resources to save the player's data (The path to the backup directory, the date formatted to the filename,
-        // and the playerdata holder with the data to save)
-        File playerLevelBackup = makeLevelDirectory("backups/" + levelName + "/" + player.getUniqueId().toString());
-        String date = new SimpleDateFormat("yyyy.MM.dd.HH.mm.ss").format(new Date());
         PlayerDataHolder playerDataHolder = new PlayerDataHolder(player, location);
 
-        // Create the final path destination for the backup and write the data to it
-        File playerdataBackupFile = new File(playerLevelBackup, date + ".json");
-        FileUtils.writeJson(playerdataBackupFile.getPath(), FileUtils.GSON.toJsonTree(playerDataHolder.serialize()).getAsJsonObject());
+        if (!PlayerdataDirtyTracker.INSTANCE.shouldBackup(player.getUniqueId(), levelName, playerDataHolder.fingerprint()))
+            return playerdataBackupFile;
+
+        UUID playerUUID = player.getUniqueId();
+        BackupPolicy.INSTANCE.record(playerUUID, levelName);
+        backupIndex.add(timestamp);
+        PlayerdataWriteQueue.INSTANCE.submit(player.getUniqueId(), playerdataBackupFile, playerDataHolder, (file, snapshot) ->
+                backupIndex.appendSnapshot(timestamp, snapshot)).thenAccept(appended -> {
+
+            // The fingerprint was recorded before the backup was written, so it's dropped if the backup didn't make it.
+            if (!appended) PlayerdataDirtyTracker.INSTANCE.forgetBackup(playerUUID, levelName);
+        });
+
         return playerdataBackupFile;
     }
 
     /**
-     * Shortcut for the {@link FileUtils#backupPlayerData(Player, String, PartialLocation)} method,
+     * Shortcut for the {@link FileUtils#backupPlayerData(Player, String, PartialLocation, BackupPolicy.Reason)} method,
      * setting the location as the player's location.
      * @param player The player to save the data from
      * @param levelName The level to save the data to
+     * @param reason The reason the backup is being made for
      * @return The File instance containing the data
      */
-    public static File backupPlayerData(Player player, String levelName) {
-        return backupPlayerData(player, levelName, new PartialLocation(player.getLocation()));
+    public static File backupPlayerData(Player player, String levelName, BackupPolicy.Reason reason) {
+        return backupPlayerData(player, levelName, new PartialLocation(player.getLocation()), reason);
     }
 
     /**
@@ -139,13 +204,157 @@ public class FileUtils {
         data.add(player.getMaxHealth());
         data.add(20);
 
+        long captureStart = System.nanoTime();
         PlayerDataHolder playerDataHolder = new PlayerDataHolder(player, data);
+        File playerdataFile = FileUtils.submitPlayerData(player, levelName, playerDataHolder);
+
+        long captureNanos = System.nanoTime() - captureStart;
+        PlayerdataWriteQueue.INSTANCE.recordCapture(captureNanos);
+        PlayerdataMetrics.SAVE.record(captureNanos);
+        return playerdataFile;
+    }
+
+    /**
+     * Caches a captured PlayerDataHolder and queues it to be written into the player's playerdata file for a level,
+     * in the storage format configured through {@link PlayerdataRecords}. If the data didn't change since it was last
+     * saved into the same file for the same level, nothing is written.
+     * @param player The player the data belongs to
+     * @param levelName The level to save the data to
+     * @param playerDataHolder The captured data
+     * @return The File instance identifying the data
+     */
+    private static File submitPlayerData(Player player, String levelName, PlayerDataHolder playerDataHolder) {
+
+        // Levels in a set share their record, so it goes into the set's directory instead of the level's.
+        List<String> levelSet = LevelSetConfiguration.getLevelSetFor(levelName);
+        File playerdataDirectory = levelSet.size() > 1 ? makeLevelSetDirectory(levelSet) : makeLevelDirectory(levelName);
+        File playerdataFile = PlayerdataRecords.getRecordFile(playerdataDirectory, player.getUniqueId());
+
+        // The level is part of the fingerprint, since the levels in a set write into the same file.
+        long fingerprint = playerDataHolder.fingerprint() * 31 + levelName.hashCode();
+        if (!PlayerdataDirtyTracker.INSTANCE.shouldSave(player.getUniqueId(), playerdataFile.getPath(), fingerprint))
+            return playerdataFile;
+
+        UUID playerUUID = player.getUniqueId();
+        PlayerdataCache.INSTANCE.put(playerUUID, levelName, playerDataHolder);
+
+        // An older snapshot still waiting to be written in the other format would overwrite this one, so it's dropped.
+        PlayerdataWriteQueue.INSTANCE.cancel(PlayerdataRecords.getOtherFormatFile(playerdataFile));
+        PlayerdataWriteQueue.INSTANCE.submit(player.getUniqueId(), playerdataFile, playerDataHolder, PlayerdataRecords::write).thenAccept(written -> {
+
+            // The fingerprint was recorded before the save was written, so it's dropped if the save didn't make it.
+            if (!written) PlayerdataDirtyTracker.INSTANCE.forgetSave(playerUUID, playerdataFile.getPath());
+        });
+
+        if (levelSet.size() < 2) return playerdataFile;
+
+        // The coordinates are the only thing that isn't shared, so they're written for this level alone, and the
+        // other levels in the set can't be served from the cache anymore, since their shared data just changed.
+        File coordinatesFile = new File(makeLevelDirectory(levelName), player.getUniqueId().toString() + PlayerdataRecords.COORDINATES_EXTENSION);
+        PlayerdataWriteQueue.INSTANCE.submit(player.getUniqueId(), coordinatesFile, playerDataHolder, PlayerdataRecords::writeCoordinates);
+
+        for (String level : levelSet) {
+            if (!level.equals(levelName)) PlayerdataCache.INSTANCE.invalidate(player.getUniqueId(), level);
+        }
 
-        File playerdataFile = new File(makeLevelDirectory(levelName), player.getUniqueId().toString() + ".json");
-        FileUtils.writeJson(playerdataFile.getPath(), FileUtils.GSON.toJsonTree(playerDataHolder.serialize()).getAsJsonObject());
         return playerdataFile;
     }
 
+    /**
+     * Saves only the coordinates of a player for a level, leaving the rest of the data untouched. For levels in a
+     * level set, this writes the coordinates file of the level, and for the other levels, it patches the coordinates
+     * into the playerdata file.
+     * @param player The player to save the coordinates for
+     * @param levelName The level to save the coordinates to
+     * @param location The coordinates to save, or null to have minecraft handle the placement
+     * @return The File instance identifying the coordinates
+     */
+    public static File savePlayerCoordinates(Player player, String levelName, PartialLocation location) {
+        return FileUtils.patchPlayerData(player.getUniqueId(), levelName, new PlayerdataPatch().setCoordinates(location));
+    }
+
+    /**
+     * Applies a partial update to the stored playerdata of a player for a level, only rewriting the coordinates and
+     * stats it sets, without decoding or encoding the items. If the player has no playerdata for the level, there's
+     * nothing to update, so nothing is written.
+     * <br>
+     * The levels in a level set keep their coordinates in their own coordinates file, so patching only the
+     * coordinates of such a level doesn't touch the record shared by the set.
+     * @param playerUUID The UUID of the player
+     * @param levelName The level to update the data for
+     * @param patch The PlayerdataPatch to apply
+     * @return The File instance identifying the update
+     */
+    public static File patchPlayerData(UUID playerUUID, String levelName, PlayerdataPatch patch) {
+
+        List<String> levelSet = LevelSetConfiguration.getLevelSetFor(levelName);
+        File coordinatesFile = new File(makeLevelDirectory(levelName), playerUUID.toString() + PlayerdataRecords.COORDINATES_EXTENSION);
+
+        if (levelSet.size() > 1 && patch.patchesCoordinates()) {
+
+            // Only the coordinates are written, so the holder doesn't need to hold anything else.
+            PlayerDataHolder coordinatesHolder = new PlayerDataHolder(null, null, null, patch.getCoordinates(), 0, 0, 0, 0);
+            PlayerdataCache.INSTANCE.invalidate(playerUUID, levelName);
+            PlayerdataWriteQueue.INSTANCE.submit(playerUUID, coordinatesFile, coordinatesHolder, PlayerdataRecords::writeCoordinates);
+            if (patch.isCoordinatesOnly()) return coordinatesFile;
+        }
+
+        File playerdataDirectory = levelSet.size() > 1 ? makeLevelSetDirectory(levelSet) : makeLevelDirectory(levelName);
+        File playerdataFile = PlayerdataRecords.getRecordFile(playerdataDirectory, playerUUID);
+        File otherFormatFile = PlayerdataRecords.getOtherFormatFile(playerdataFile);
+
+        // The patch goes into the file the data would be read from: a pending write first, and the stored file otherwise.
+        File patchedFile = PlayerdataWriteQueue.INSTANCE.getPending(playerdataFile) != null ? playerdataFile
+                : PlayerdataWriteQueue.INSTANCE.getPending(otherFormatFile) != null ? otherFormatFile
+                : PlayerdataRecords.getStoredFile(playerdataDirectory, playerUUID);
+
+        PlayerDataHolder playerDataHolder;
+
+        // A record that can't be read can't be patched either, and is left as it is for the next full save.
+        try {
+            playerDataHolder = FileUtils.readRecord(playerdataDirectory, playerUUID);
+        } catch (UncheckedIOException | JsonSyntaxException e) {
+            AOSPlayerManager.LOGGER.warning("Failed to patch the playerdata of " + playerUUID + " for " + levelName + ": " + e.getMessage());
+            return playerdataFile;
+        }
+
+        if (patchedFile == null || playerDataHolder == null) return playerdataFile;
+
+        // The readers see the patched data until it's written, and the patch is written after any write it replaces,
+        // since that one might've been another patch. Patches only set values, so applying one twice is harmless.
+        playerDataHolder.apply(patch);
+        PlayerdataWriteQueue.SnapshotWriter pendingWriter = PlayerdataWriteQueue.INSTANCE.getPendingWriter(patchedFile);
+
+        PlayerdataWriteQueue.INSTANCE.submit(playerUUID, patchedFile, playerDataHolder, pendingWriter == null
+                ? (file, snapshot) -> PlayerdataRecords.patch(file, patch)
+                : (file, snapshot) -> pendingWriter.write(file, snapshot) && PlayerdataRecords.patch(file, patch));
+
+        // The record of a set is shared, so the cache entries of every level in it are outdated now.
+        if (levelSet.size() > 1) levelSet.forEach(level -> PlayerdataCache.INSTANCE.invalidate(playerUUID, level));
+        else PlayerdataCache.INSTANCE.put(playerUUID, levelName, playerDataHolder);
+
+        PlayerdataDirtyTracker.INSTANCE.forgetSave(playerUUID, playerdataFile.getPath());
+        return patchedFile;
+    }
+
+    /**
+     * Gets the coordinates of a player in a level. For levels in a level set, this only reads the coordinates,
+     * instead of the whole playerdata.
+     * @param player The player to get the coordinates for
+     * @param levelName The level to get the coordinates from
+     * @return The coordinates, or null if there are none
+     */
+    public static PartialLocation getPlayerCoordinates(OfflinePlayer player, String levelName) {
+
+        PlayerDataHolder cachedPlayerData = PlayerdataCache.INSTANCE.get(player.getUniqueId(), levelName);
+        if (cachedPlayerData != null) return cachedPlayerData.getPlayerCoordinates();
+
+        if (LevelSetConfiguration.getLevelSetFor(levelName).size() < 2)
+            return FileUtils.getPlayerData(player, levelName).getPlayerCoordinates();
+
+        return FileUtils.readCoordinates(player.getUniqueId(), levelName);
+    }
+
     /**
      * Shortcut for the {@link FileUtils#savePlayerDataForDeath(Player, String, Inventory, ItemStack[])} method,
      * setting inventory as the player's inventory.
@@ -156,56 +365,162 @@ public class FileUtils {
 
     /**
      * Accesses the playerdata file for a player in a level, and loads it into a PlayerDataHolder.
+     * <br>
+     * The data is looked up in the {@link PlayerdataCache} first, so the file is only read if it isn't cached. The file
+     * can be in any of the formats implemented by {@link PlayerdataRecords}.
      * @param player The player to get the data from
      * @param levelName The level to get the data from
      * @return The PlayerDataHolder instance containing the data
      */
     public static PlayerDataHolder getPlayerData(OfflinePlayer player, String levelName) {
+        return FileUtils.getPlayerData(player.getUniqueId(), levelName);
+    }
+
+    /**
+     * Alternative for {@link FileUtils#getPlayerData(OfflinePlayer, String)} that takes in the UUID of the player,
+     * for when there's no player instance yet (such as while they're logging in).
+     * @param playerUUID The UUID of the player to get the data from
+     * @param levelName The level to get the data from
+     * @return The PlayerDataHolder instance containing the data
+     */
+    public static PlayerDataHolder getPlayerData(UUID playerUUID, String levelName) {
+
+        long loadStart = System.nanoTime();
+        PlayerDataHolder playerDataHolder = FileUtils.loadPlayerData(playerUUID, levelName);
 
-        File playerdataFile = new File(makeLevelDirectory(levelName), player.getUniqueId().toString() + ".json");
-        HashMap<String, Object> playerData = (HashMap<String, Object>) FileUtils.readJson(playerdataFile.getPath());
-        return new PlayerDataHolder(playerData);
+        PlayerdataMetrics.LOAD.record(System.nanoTime() - loadStart);
+        return playerDataHolder;
     }
 
     /**
-     * Accesses the backups folders for a player in a certain level and returns an ArrayList containing all the backups
-     * created in the form of a BackupHolder. There's also a begin and end parameters that can be used to optimise the searches
-     * @param player The player to get the data from
+     * Loads the data for {@link #getPlayerData(UUID, String)}, from the cache, a pending write or the disk.
+     * @param playerUUID The UUID of the player to get the data from
      * @param levelName The level to get the data from
-     * @param begin The beginning of the range to get the backups from
-     * @param end The end of the range to get the backups from
-     * @return The ArrayList with the BackupHolders containing the data
+     * @return The PlayerDataHolder instance containing the data
      */
-    public static ArrayList<BackupHolder> getPlayerDataBackups(OfflinePlayer player, String levelName, int begin, int end) {
+    private static PlayerDataHolder loadPlayerData(UUID playerUUID, String levelName) {
+
+        // The version is taken first, so that what's read below isn't cached over a save made while it was read.
+        long cacheVersion = PlayerdataCache.INSTANCE.getVersion(playerUUID, levelName);
+        PlayerDataHolder cachedPlayerData = PlayerdataCache.INSTANCE.get(playerUUID, levelName);
+        if (cachedPlayerData != null) return cachedPlayerData;
+
+        // Levels in a set get the shared record with their own coordinates. If the set was never saved with the
+        // shared layout, the level's own playerdata file is used instead.
+        List<String> levelSet = LevelSetConfiguration.getLevelSetFor(levelName);
+        PlayerDataHolder sharedPlayerData = levelSet.size() > 1 ? FileUtils.readRecord(makeLevelSetDirectory(levelSet), playerUUID) : null;
+
+        if (sharedPlayerData != null) {
+            sharedPlayerData.setPlayerCoordinates(FileUtils.readCoordinates(playerUUID, levelName));
+            PlayerdataCache.INSTANCE.putIfUnchanged(playerUUID, levelName, sharedPlayerData, cacheVersion);
+            return new PlayerDataHolder(sharedPlayerData);
+        }
 
-        File playerBackupsDirectory = makeLevelDirectory("backups/" + levelName + "/" + player.getUniqueId().toString());
-        ArrayList<BackupHolder> playerDataHolders = new ArrayList<>();
-        File[] playerLevelBackups = playerBackupsDirectory.listFiles();
-        DateFormat backupDateFormat = new SimpleDateFormat("yyyy.MM.dd.HH.mm.ss");
+        File playerdataFile = PlayerdataRecords.getRecordFile(makeLevelDirectory(levelName), playerUUID);
 
-        // Return an empty deque if there are no backups
-        if (playerLevelBackups == null || playerLevelBackups.length <= 0) return playerDataHolders;
-        Arrays.sort(playerLevelBackups);
-        Collections.reverse(Arrays.asList(playerLevelBackups));
+        // If the data was saved but not written yet, the pending snapshot is the most recent one, in whichever format it's going to.
+        PlayerDataHolder pendingPlayerData = PlayerdataWriteQueue.INSTANCE.getPending(playerdataFile);
+        if (pendingPlayerData == null) pendingPlayerData = PlayerdataWriteQueue.INSTANCE.getPending(PlayerdataRecords.getOtherFormatFile(playerdataFile));
+        if (pendingPlayerData != null) return new PlayerDataHolder(pendingPlayerData);
 
-        if (end == -1) end = playerLevelBackups.length - 1;
+        PlayerDataHolder playerDataHolder = PlayerdataRecords.read(playerdataFile.getParentFile(), playerUUID);
+        PlayerdataCache.INSTANCE.putIfUnchanged(playerUUID, levelName, playerDataHolder, cacheVersion);
+        return new PlayerDataHolder(playerDataHolder);
+    }
 
-        for (int i = begin; i <= end; i++) {
+    /**
+     * Gets when the playerdata of a player for a level was last written, looking at every file the data can be in.
+     * @param playerUUID The UUID of the player
+     * @param levelName The level to check
+     * @return The time of the last write in milliseconds, or 0 if the player has no data for the level
+     */
+    public static long getPlayerDataLastModified(UUID playerUUID, String levelName) {
 
-            // Stops the loop if the end of the list is reached.
-            if (playerLevelBackups.length <= i) break;
+        List<String> levelSet = LevelSetConfiguration.getLevelSetFor(levelName);
+        File levelDirectory = new File(makeLevelListDirectory(), levelName);
+        String playerFilename = playerUUID.toString();
 
-            // Get the playerdata and the date from the file
-            File file = playerLevelBackups[i];
-            PlayerDataHolder playerdata = new PlayerDataHolder((HashMap<String, Object>) FileUtils.readJson(file.getPath()));
-            Date saveDate = FileUtils.tryParseDate(backupDateFormat, file.getName());
+        List<File> playerdataFiles = new ArrayList<>(Arrays.asList(
+                new File(levelDirectory, playerFilename + PlayerdataRecords.JSON_EXTENSION),
+                new File(levelDirectory, playerFilename + PlayerdataRecords.BINARY_EXTENSION),
+                new File(levelDirectory, playerFilename + PlayerdataRecords.COORDINATES_EXTENSION)));
 
-            // Add the playerdata to the ArrayList if the date is valid
-            if (saveDate == null) continue;
-            playerDataHolders.add(new BackupHolder(playerdata, saveDate));
+        if (levelSet.size() > 1) {
+            File levelSetDirectory = makeLevelSetDirectory(levelSet);
+            playerdataFiles.add(new File(levelSetDirectory, playerFilename + PlayerdataRecords.JSON_EXTENSION));
+            playerdataFiles.add(new File(levelSetDirectory, playerFilename + PlayerdataRecords.BINARY_EXTENSION));
         }
 
-        return playerDataHolders;
+        // File.lastModified() is 0 for files that don't exist, so they don't count.
+        return playerdataFiles.stream().mapToLong(File::lastModified).max().orElse(0);
+    }
+
+    /**
+     * Reads the playerdata record of a player inside a directory, taking into account the snapshots that are
+     * still waiting to be written.
+     * @param directory The directory the record is in
+     * @param playerUUID The UUID of the player
+     * @return A PlayerDataHolder with the data, or null if there's no record
+     */
+    private static PlayerDataHolder readRecord(File directory, UUID playerUUID) {
+
+        File recordFile = PlayerdataRecords.getRecordFile(directory, playerUUID);
+        PlayerDataHolder pendingPlayerData = PlayerdataWriteQueue.INSTANCE.getPending(recordFile);
+        if (pendingPlayerData == null) pendingPlayerData = PlayerdataWriteQueue.INSTANCE.getPending(PlayerdataRecords.getOtherFormatFile(recordFile));
+        if (pendingPlayerData != null) return new PlayerDataHolder(pendingPlayerData);
+
+        return PlayerdataRecords.exists(directory, playerUUID) ? PlayerdataRecords.read(directory, playerUUID) : null;
+    }
+
+    /**
+     * Reads the coordinates of a player in a level of a level set, from the coordinates file of the level. If there
+     * isn't one yet, the coordinates are taken from the level's own playerdata file, from before the set shared a record.
+     * @param playerUUID The UUID of the player
+     * @param levelName The level to get the coordinates from
+     * @return The coordinates, or null if there are none
+     */
+    private static PartialLocation readCoordinates(UUID playerUUID, String levelName) {
+
+        File levelDirectory = makeLevelDirectory(levelName);
+        File coordinatesFile = new File(levelDirectory, playerUUID.toString() + PlayerdataRecords.COORDINATES_EXTENSION);
+
+        PlayerDataHolder pendingCoordinates = PlayerdataWriteQueue.INSTANCE.getPending(coordinatesFile);
+        if (pendingCoordinates != null) return pendingCoordinates.getPlayerCoordinates();
+
+        if (coordinatesFile.exists()) {
+            try {
+                return PlayerdataRecords.readCoordinates(coordinatesFile);
+
+            } catch (IOException e) {
+                AOSPlayerManager.LOGGER.warning("Failed to read the coordinates file " + coordinatesFile.getPath());
+                e.printStackTrace();
+            }
+        }
+
+        PlayerDataHolder legacyPlayerData = FileUtils.readRecord(levelDirectory, playerUUID);
+        return legacyPlayerData != null ? legacyPlayerData.getPlayerCoordinates() : null;
+    }
+
+    /**
+     * Accesses the backups for a player in a certain level and returns an ArrayList containing the backups
+     * created in the form of a BackupHolder, from the newest to the oldest. There's also a begin and end parameters that can be used
+     * to optimise the searches.
+     * <br>
+     * The backups are listed through the {@link BackupIndex}, and their data is only read once a BackupHolder is asked for it.
+     * @param player The player to get the data from
+     * @param levelName The level to get the data from
+     * @param begin The beginning of the range to get the backups from
+     * @param end The end of the range to get the backups from
+     * @return The ArrayList with the BackupHolders containing the data
+     */
+    public static ArrayList<BackupHolder> getPlayerDataBackups(OfflinePlayer player, String levelName, int begin, int end) {
+
+        long listingStart = System.nanoTime();
+        BackupIndex backupIndex = BackupIndex.get(player.getUniqueId(), levelName);
+        ArrayList<BackupHolder> backupHolders = FileUtils.makeBackupHolders(backupIndex, backupIndex.getPage(begin, end));
+
+        PlayerdataMetrics.BACKUP_LISTING.record(System.nanoTime() - listingStart);
+        return backupHolders;
     }
 
     /**
@@ -220,18 +535,53 @@ public class FileUtils {
     }
 
     /**
-     * Tries to parse the date from the filename of a backup file. If it fails, it returns null.
-     * @param format The format of the date to parse
-     * @param date The date to parse
-     * @return The parsed date, or null if it failed
+     * Alternative for {@link FileUtils#getPlayerDataBackups(OfflinePlayer, String, int, int)} that returns the backups
+     * created within a range of dates instead, from the newest to the oldest.
+     * @param player The player to get the data from
+     * @param levelName The level to get the data from
+     * @param from The beginning of the date range (inclusive)
+     * @param to The end of the date range (inclusive)
+     * @return The ArrayList with the BackupHolders containing the data
      */
-    private static Date tryParseDate(DateFormat format, String date) {
+    public static ArrayList<BackupHolder> getPlayerDataBackups(OfflinePlayer player, String levelName, Date from, Date to) {
 
-        try {
-            return format.parse(date);
-        } catch (ParseException e) {
-            return null;
-        }
+        long listingStart = System.nanoTime();
+        BackupIndex backupIndex = BackupIndex.get(player.getUniqueId(), levelName);
+        ArrayList<BackupHolder> backupHolders = FileUtils.makeBackupHolders(backupIndex, backupIndex.getRange(from.getTime(), to.getTime()));
+
+        PlayerdataMetrics.BACKUP_LISTING.record(System.nanoTime() - listingStart);
+        return backupHolders;
+    }
+
+    /**
+     * Creates a BackupHolder for every given entry of a backup index, which only reads the backup once its data is needed.
+     * @param backupIndex The index the entries belong to
+     * @param entries The entries to create the BackupHolders for
+     * @return The ArrayList with the BackupHolders
+     */
+    private static ArrayList<BackupHolder> makeBackupHolders(BackupIndex backupIndex, List<BackupIndex.Entry> entries) {
+
+        ArrayList<BackupHolder> backupHolders = new ArrayList<>();
+
+        for (BackupIndex.Entry entry : entries)
+            backupHolders.add(new BackupHolder(new Date(entry.getTimestamp()), () -> FileUtils.readBackup(backupIndex, entry.getTimestamp())));
+
+        return backupHolders;
+    }
+
+    /**
+     * Reads the data from a backup, taking into account the backups that are still waiting to be written.
+     * @param backupIndex The index the backup belongs to
+     * @param timestamp The timestamp of the backup
+     * @return The PlayerDataHolder instance containing the data
+     */
+    private static PlayerDataHolder readBackup(BackupIndex backupIndex, long timestamp) {
+
+        File backupFile = new File(backupIndex.getDirectory(), BackupIndex.getBackupFilename(timestamp));
+        PlayerDataHolder pendingPlayerData = PlayerdataWriteQueue.INSTANCE.getPending(backupFile);
+        if (pendingPlayerData != null) return new PlayerDataHolder(pendingPlayerData);
+
+        return backupIndex.read(timestamp);
     }
 
     /**
@@ -254,28 +604,17 @@ public class FileUtils {
      * @return All the managed worlds
      */
     public static ArrayList<String> getManagedWorlds() {
-
-        ArrayList<String> managedWorlds = new ArrayList<>();
-        File[] levelListDirectories = makeLevelListDirectory().listFiles();
-
-        // Return an empty list if the level list directory is empty
-        if (levelListDirectories == null) return managedWorlds;
-
-        for (File levelListDirectory : levelListDirectories) {
-            if (levelListDirectory.isDirectory() && !levelListDirectory.getName().equals("backups")) {
-                managedWorlds.add(levelListDirectory.getName());
-            }
-        }
-
-        return managedWorlds;
+        makeLevelListDirectory();
+        return ManagedWorldRegistry.INSTANCE.getManagedWorlds();
     }
 
     /**
      * Writes a JSONObject into the specified file.
      * @param json The JSONObject to write
      * @param filepath The path to the file to write to
+     * @return Whether the file was written
      */
-    public static void writeJson(String filepath, JsonObject json) {
+    public static boolean writeJson(String filepath, JsonObject json) {
 
         // Creates the JSON file if it doesn't exist
         File fileCheck = new File(filepath);
@@ -285,10 +624,40 @@ public class FileUtils {
         try (FileWriter file = new FileWriter(filepath)) {
             file.write(json.toString());
             file.flush();
+            return true;
 
         } catch (IOException e) {
             AOSPlayerManager.LOGGER.warning("Failed to write JSON to file " + filepath);
             e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Moves a fully written temporary file over the file it replaces, in a single atomic step, so that a crash never
+     * leaves the file missing or half-written. If the move fails, the temporary file is deleted.
+     * @param temporaryFile The temporary file holding the new contents
+     * @param targetFile The file to replace
+     * @return Whether the file was replaced
+     */
+    public static boolean replaceFile(File temporaryFile, File targetFile) {
+
+        try {
+            try {
+                Files.move(temporaryFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // Some filesystems can't move atomically, but they can still replace the file without deleting it first.
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            return true;
+
+        } catch (IOException e) {
+            AOSPlayerManager.LOGGER.warning("Failed to move " + temporaryFile.getPath() + " into place");
+            e.printStackTrace();
+            temporaryFile.delete();
+            return false;
         }
     }
 
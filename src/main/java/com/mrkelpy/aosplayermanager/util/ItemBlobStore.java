@@ -0,0 +1,559 @@
+package com.mrkelpy.aosplayermanager.util;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.mrkelpy.aosplayermanager.AOSPlayerManager;
+import com.mrkelpy.aosplayermanager.common.PlayerDataHolder;
+import com.mrkelpy.aosplayermanager.configuration.AOSPlayerManagerConfig;
+import net.minecraft.server.v1_7_R4.NBTTagCompound;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class implements a content-addressed store for the items saved by the plugin. Every item is stored once,
+ * as the raw bytes of its NBT compound, in a blob file named after the SHA-1 hash of those bytes. The playerdata
+ * and the backups then only hold a reference to the blob, so the same enchanted gear or written book isn't
+ * stored again in every save, backup and level set member.
+ * <br>
+ * The blobs are stored inside plugin/AOSPlayerDimensions/blobs, sharded by the first two characters of their hash.
+ * Blobs that aren't referenced anymore are deleted by a mark-and-sweep collection, through {@link #collectGarbage()},
+ * which runs on a thread of its own, so that it can be stopped along with the plugin.
+ */
+@SuppressWarnings({"ResultOfMethodCallIgnored", "deprecation"})
+public class ItemBlobStore {
+
+    public static final ItemBlobStore INSTANCE = new ItemBlobStore();
+    public static final String BLOBS_DIRECTORY = "blobs";
+    private static final String REFERENCE_PREFIX = "@";
+    private static final int REFERENCE_LENGTH = 41;
+    private static final int MAX_KNOWN_BLOBS = 65536;
+
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, AOSPlayerManager.PLUGIN_NAME + " Blob Collection");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    // Holds the references of the blobs known to be on the disk, so that they don't have to be checked or written again.
+    // It's bounded, evicting the least recently used references, since forgetting one only costs checking the disk again.
+    private final LinkedHashMap<String, Boolean> knownBlobs = new LinkedHashMap<>(16, 0.75F, true);
+    // Holds the blobs being written, so that an item stored by two threads at once is only written by the first one.
+    private final Map<String, CompletableFuture<Boolean>> writingBlobs = new HashMap<>();
+    private Set<String> referencedDuringCollection;
+    private volatile boolean enabled = true;
+    private volatile boolean stopping;
+    private long writtenBlobs;
+    private long reusedBlobs;
+
+    /**
+     * Reads whether the blob store is enabled from the configuration file. This is read upfront because the items
+     * are stored from the I/O threads.
+     */
+    public void configure() {
+        this.enabled = AOSPlayerManagerConfig.getConfig().getBoolean("storage.item-blobs");
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Checks whether a slot string is a reference to a blob, rather than an item encoded by
+     * {@link SerializationUtils#itemStackToText(ItemStack)}. The text strings never start with the prefix.
+     * @param slot The slot string to check
+     * @return Whether the slot string is a blob reference
+     */
+    public static boolean isReference(String slot) {
+        return slot.length() == REFERENCE_LENGTH && slot.startsWith(REFERENCE_PREFIX);
+    }
+
+    /**
+     * Stores an item in the blob store, writing its blob only if it isn't there yet. If the hash of the item is
+     * already known, the item isn't encoded or written any further.
+     * <br>
+     * If the blob can't be written, the item is encoded into a text string instead, so it isn't lost.
+     * @param item The item to store
+     * @return The reference to the item's blob, or null if the item is empty
+     */
+    public String store(ItemStack item) {
+
+        byte[] itemBytes = SerializationUtils.itemStackToNBTBytes(item);
+        if (itemBytes == null) return null;
+
+        String reference = this.store(itemBytes);
+        return reference != null ? reference : SerializationUtils.nbtBytesToText(itemBytes);
+    }
+
+    /**
+     * Alternative for {@link #store(ItemStack)} that takes in the NBT bytes of the item, for when they were already
+     * computed. This doesn't fall back to any other encoding.
+     * @param itemBytes The NBT bytes of the item
+     * @return The reference to the item's blob, or null if the blob can't be written
+     */
+    public String store(byte[] itemBytes) {
+
+        String reference = REFERENCE_PREFIX + ItemBlobStore.hash(itemBytes);
+        CompletableFuture<Boolean> write;
+        boolean claimed = false;
+
+        // The blob is claimed under the lock, but checked and written outside of it, so that the I/O threads
+        // don't queue up behind each other's writes.
+        synchronized (this) {
+
+            // References handed out while a collection is running are kept alive, since their record might not be on the disk yet.
+            if (this.referencedDuringCollection != null) this.referencedDuringCollection.add(reference);
+
+            if (this.knownBlobs.get(reference) != null) {
+                this.reusedBlobs++;
+                return reference;
+            }
+
+            write = this.writingBlobs.get(reference);
+
+            if (write == null) {
+                write = new CompletableFuture<>();
+                this.writingBlobs.put(reference, write);
+                claimed = true;
+            }
+        }
+
+        // Another thread is already writing the blob, so this waits for it rather than writing it again.
+        if (!claimed) return write.join() ? reference : null;
+
+        File blobFile = ItemBlobStore.getBlobFile(reference);
+        boolean written = true;
+
+        try {
+            if (!blobFile.exists()) ItemBlobStore.writeBlob(blobFile, itemBytes);
+
+        } catch (IOException e) {
+            AOSPlayerManager.LOGGER.warning("Failed to write the item blob " + blobFile.getPath());
+            e.printStackTrace();
+            written = false;
+        }
+
+        // The claim is dropped either way, so that a failed write is tried again by the next store.
+        synchronized (this) {
+            this.writingBlobs.remove(reference);
+
+            if (written) {
+                this.knownBlobs.put(reference, Boolean.TRUE);
+                this.writtenBlobs++;
+                this.evictKnownBlobs();
+            }
+        }
+
+        write.complete(written);
+        return written ? reference : null;
+    }
+
+    /**
+     * Loads an item from the blob store. A blob that's missing or can't be read is never passed off as an empty slot,
+     * since the item would then be lost for good once the player is saved again, so the failure is thrown instead,
+     * like the one of a record that can't be read.
+     * @param reference The reference to the item's blob
+     * @return The item
+     * @throws UncheckedIOException If the blob can't be read
+     */
+    public ItemStack load(String reference) {
+
+        File blobFile = ItemBlobStore.getBlobFile(reference);
+
+        try {
+            return SerializationUtils.itemStackFromNBTBytes(Files.readAllBytes(blobFile.toPath()));
+
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the item blob " + blobFile.getPath(), e);
+        }
+    }
+
+    /**
+     * Starts a collection of the unused blobs on the collection thread. If one is already running, or the store is
+     * shutting down, the collection doesn't run.
+     * @return A future completed with the result of the collection, or with null if it didn't run
+     */
+    public CompletableFuture<CollectionResult> collectGarbageAsync() {
+
+        try {
+            return CompletableFuture.supplyAsync(this::collectGarbage, this.executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Stops the collections, letting one that is underway give up before its next directory, and waits for it.
+     * This must happen before the plugin is disabled, so that a collection never deletes a blob that the next
+     * instance of the plugin (after a reload) just started referencing again.
+     * @param timeoutMillis The maximum time to wait for the collection to stop, in milliseconds
+     */
+    public void shutdown(long timeoutMillis) {
+
+        this.stopping = true;
+        this.executor.shutdown();
+
+        try {
+            if (!this.executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS))
+                AOSPlayerManager.LOGGER.warning("Timed out waiting for the item blob collection to stop");
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Deletes every blob that isn't referenced by any playerdata file, backup or pending write. This walks through all
+     * the stored data, so it's meant to be run asynchronously, through {@link #collectGarbageAsync()}. If anything
+     * can't be read, or the store is shut down before the sweep, nothing gets deleted.
+     * @return The result of the collection, or null if it couldn't run
+     */
+    public CollectionResult collectGarbage() {
+
+        synchronized (this) {
+            if (this.stopping || this.referencedDuringCollection != null) return null;
+            this.referencedDuringCollection = new HashSet<>();
+        }
+
+        try {
+            Set<String> liveBlobs = new HashSet<>();
+
+            // The pending writes are marked before the disk, because a write only leaves the queue once it's on the disk.
+            for (PlayerDataHolder snapshot : PlayerdataWriteQueue.INSTANCE.getPendingSnapshots()) {
+                ItemBlobStore.markItems(snapshot.getPlayerInventoryNBT(), liveBlobs);
+                ItemBlobStore.markItems(snapshot.getPlayerArmourNBT(), liveBlobs);
+            }
+
+            File[] levelDirectories = FileUtils.makeLevelListDirectory().listFiles();
+
+            for (File levelDirectory : levelDirectories != null ? levelDirectories : new File[0]) {
+
+                if (this.stopping) return this.stopCollection();
+                if (!levelDirectory.isDirectory() || levelDirectory.getName().equals(BLOBS_DIRECTORY)) continue;
+
+                if (levelDirectory.getName().equals("backups")) {
+                    this.markBackups(levelDirectory, liveBlobs);
+                    continue;
+                }
+
+                // The records shared by the level sets are one directory deeper, one directory per set.
+                if (levelDirectory.getName().equals(FileUtils.LEVEL_SETS_DIRECTORY)) {
+                    File[] levelSetDirectories = levelDirectory.listFiles(File::isDirectory);
+                    for (File levelSetDirectory : levelSetDirectories != null ? levelSetDirectories : new File[0])
+                        if (!this.stopping) ItemBlobStore.markPlayerdataDirectory(levelSetDirectory, liveBlobs);
+                    continue;
+                }
+
+                ItemBlobStore.markPlayerdataDirectory(levelDirectory, liveBlobs);
+            }
+
+            if (this.stopping) return this.stopCollection();
+            CollectionResult result = this.sweep(liveBlobs);
+            AOSPlayerManager.LOGGER.info(String.format("Deleted %s unused item blobs (%s bytes), %s blobs are in use",
+                    result.getDeletedBlobs(), result.getReclaimedBytes(), liveBlobs.size()));
+            return result;
+
+        } catch (IOException | RuntimeException e) {
+            AOSPlayerManager.LOGGER.warning("Failed to collect the unused item blobs, nothing was deleted");
+            e.printStackTrace();
+            return null;
+
+        } finally {
+            synchronized (this) {
+                this.referencedDuringCollection = null;
+            }
+        }
+    }
+
+    /**
+     * Clears the counts of written and reused blobs.
+     */
+    public synchronized void resetStats() {
+        this.writtenBlobs = 0;
+        this.reusedBlobs = 0;
+    }
+
+    public synchronized long getWrittenBlobs() {
+        return this.writtenBlobs;
+    }
+
+    public synchronized long getReusedBlobs() {
+        return this.reusedBlobs;
+    }
+
+    /**
+     * Forgets the least recently used blob references until the known blobs fit within their maximum size.
+     * This must be called while holding the lock.
+     */
+    private void evictKnownBlobs() {
+
+        Iterator<String> iterator = this.knownBlobs.keySet().iterator();
+
+        while (this.knownBlobs.size() > MAX_KNOWN_BLOBS && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Gives up on a collection that was stopped before its sweep, so nothing gets deleted.
+     * @return Null, as the result of a collection that didn't run
+     */
+    private CollectionResult stopCollection() {
+        AOSPlayerManager.LOGGER.info("Stopped the item blob collection, nothing was deleted");
+        return null;
+    }
+
+    /**
+     * Deletes every blob that wasn't marked as live, nor referenced while the collection was running.
+     * @param liveBlobs The references of the blobs marked as live
+     * @return The result of the collection
+     */
+    private CollectionResult sweep(Set<String> liveBlobs) {
+
+        int deletedBlobs = 0;
+        long reclaimedBytes = 0;
+        File[] shardDirectories = FileUtils.makeLevelDirectory(BLOBS_DIRECTORY).listFiles();
+
+        for (File shardDirectory : shardDirectories != null ? shardDirectories : new File[0]) {
+
+            // The blobs swept so far stay deleted, since they weren't referenced, but the rest is left for the next run.
+            if (this.stopping) break;
+            File[] blobFiles = shardDirectory.listFiles((directory, name) -> name.endsWith(".nbt"));
+
+            for (File blobFile : blobFiles != null ? blobFiles : new File[0]) {
+
+                String reference = REFERENCE_PREFIX + blobFile.getName().substring(0, blobFile.getName().length() - 4);
+
+                // Checked under the lock, so that a blob can't be deleted while it's being referenced again.
+                synchronized (this) {
+                    if (liveBlobs.contains(reference) || this.referencedDuringCollection.contains(reference)) continue;
+
+                    long blobSize = blobFile.length();
+                    this.knownBlobs.remove(reference);
+                    if (this.writingBlobs.containsKey(reference) || !blobFile.delete()) continue;
+
+                    deletedBlobs++;
+                    reclaimedBytes += blobSize;
+                }
+            }
+        }
+
+        return new CollectionResult(deletedBlobs, reclaimedBytes);
+    }
+
+    /**
+     * Marks the blobs referenced by every playerdata record inside a directory.
+     * @param directory The directory holding the playerdata records
+     * @param liveBlobs The set to add the references into
+     */
+    private static void markPlayerdataDirectory(File directory, Set<String> liveBlobs) throws IOException {
+
+        File[] playerdataFiles = directory.listFiles((parent, name) ->
+                name.endsWith(PlayerdataRecords.JSON_EXTENSION) || name.endsWith(PlayerdataRecords.BINARY_EXTENSION));
+
+        for (File playerdataFile : playerdataFiles != null ? playerdataFiles : new File[0]) {
+
+            if (playerdataFile.getName().endsWith(PlayerdataRecords.BINARY_EXTENSION)) {
+                PlayerdataRecords.collectBlobReferences(playerdataFile, liveBlobs);
+                continue;
+            }
+
+            try (Reader playerdataReader = new InputStreamReader(new FileInputStream(playerdataFile), StandardCharsets.UTF_8)) {
+                ItemBlobStore.markRecord(new JsonParser().parse(playerdataReader).getAsJsonObject(), liveBlobs);
+            }
+        }
+    }
+
+    /**
+     * Marks the blobs referenced by every backup inside the backups directory. If the store is shut down meanwhile,
+     * this stops early, leaving the marks incomplete, so the collection must not sweep afterwards.
+     * @param backupsDirectory The backups directory, holding one directory per level and then per player
+     * @param liveBlobs The set to add the references into
+     */
+    private void markBackups(File backupsDirectory, Set<String> liveBlobs) throws IOException {
+
+        File[] levelDirectories = backupsDirectory.listFiles(File::isDirectory);
+
+        for (File levelDirectory : levelDirectories != null ? levelDirectories : new File[0]) {
+
+            File[] playerDirectories = levelDirectory.listFiles(File::isDirectory);
+
+            for (File playerDirectory : playerDirectories != null ? playerDirectories : new File[0]) {
+
+                if (this.stopping) return;
+                UUID playerUUID;
+
+                try {
+                    playerUUID = UUID.fromString(playerDirectory.getName());
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+
+                BackupIndex backupIndex = BackupIndex.acquire(playerUUID, levelDirectory.getName());
+
+                // The legacy backups are skipped, since they were written before the blob store existed.
+                try {
+                    for (BackupIndex.Entry entry : backupIndex.getPage(0, -1)) {
+                        if (entry.getSegment() == BackupIndex.SEGMENT_LEGACY) continue;
+
+                        byte[] payload = backupIndex.readPayload(entry);
+                        if (payload != null)
+                            ItemBlobStore.markRecord(new JsonParser().parse(new String(payload, StandardCharsets.UTF_8)).getAsJsonObject(), liveBlobs);
+                    }
+
+                } finally {
+                    backupIndex.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the blobs referenced by a playerdata record. This works both for full records, where the slots are packed
+     * into a base64 string, and for backup deltas, where the changed slots are held in a JSON object.
+     * @param record The playerdata record
+     * @param liveBlobs The set to add the references into
+     */
+    private static void markRecord(JsonObject record, Set<String> liveBlobs) {
+
+        for (String itemField : new String[] {"inventory", "armour"}) {
+
+            JsonElement slots = record.get(itemField);
+            if (slots == null || slots.isJsonNull()) continue;
+
+            if (slots.isJsonObject()) {
+                for (Map.Entry<String, JsonElement> slot : slots.getAsJsonObject().entrySet())
+                    if (!slot.getValue().isJsonNull()) ItemBlobStore.markSlot(slot.getValue().getAsString(), liveBlobs);
+                continue;
+            }
+
+            String[] packedSlots = SerializationUtils.magBase32ArrayFromBase64(slots.getAsString());
+            if (packedSlots == null) throw new IllegalStateException("Unreadable " + itemField + " in a playerdata record");
+
+            for (String slot : packedSlots)
+                if (slot != null) ItemBlobStore.markSlot(slot, liveBlobs);
+        }
+    }
+
+    /**
+     * Marks the blobs of the items in a snapshot that isn't written yet, by hashing them.
+     * @param items The NBT compounds of the items to mark
+     * @param liveBlobs The set to add the references into
+     */
+    private static void markItems(NBTTagCompound[] items, Set<String> liveBlobs) {
+
+        if (items == null) return;
+
+        for (NBTTagCompound item : items) {
+            byte[] itemBytes = SerializationUtils.nbtToBytes(item);
+            if (itemBytes != null) liveBlobs.add(REFERENCE_PREFIX + ItemBlobStore.hash(itemBytes));
+        }
+    }
+
+    /**
+     * Marks the blob referenced by a slot string, if it references one.
+     * @param slot The slot string
+     * @param liveBlobs The set to add the reference into
+     */
+    private static void markSlot(String slot, Set<String> liveBlobs) {
+        if (ItemBlobStore.isReference(slot)) liveBlobs.add(slot);
+    }
+
+    /**
+     * Gets the file of the blob a reference points to.
+     * @param reference The reference to the blob
+     * @return The blob file
+     */
+    private static File getBlobFile(String reference) {
+        String blobHash = reference.substring(REFERENCE_PREFIX.length());
+        return new File(FileUtils.makeLevelDirectory(BLOBS_DIRECTORY + "/" + blobHash.substring(0, 2)), blobHash + ".nbt");
+    }
+
+    /**
+     * Writes a blob into a temporary file, and then moves it into place, so a blob file is never seen half-written.
+     * @param blobFile The blob file to write
+     * @param itemBytes The NBT bytes of the item
+     */
+    private static void writeBlob(File blobFile, byte[] itemBytes) throws IOException {
+
+        File temporaryFile = new File(blobFile.getPath() + ".tmp");
+
+        try (OutputStream blobOutput = new FileOutputStream(temporaryFile)) {
+            blobOutput.write(itemBytes);
+
+        } catch (IOException e) {
+            temporaryFile.delete();
+            throw e;
+        }
+
+        if (!FileUtils.replaceFile(temporaryFile, blobFile))
+            throw new IOException("Failed to move " + temporaryFile.getPath() + " into place");
+    }
+
+    /**
+     * Hashes the NBT bytes of an item into the hexadecimal SHA-1 hash that identifies its blob.
+     * @param itemBytes The NBT bytes of the item
+     * @return The hash, in hexadecimal
+     */
+    private static String hash(byte[] itemBytes) {
+
+        byte[] digest = DIGESTS.get().digest(itemBytes);
+        StringBuilder hash = new StringBuilder(digest.length * 2);
+
+        for (byte digestByte : digest) {
+            hash.append(Character.forDigit((digestByte >> 4) & 0xF, 16));
+            hash.append(Character.forDigit(digestByte & 0xF, 16));
+        }
+
+        return hash.toString();
+    }
+
+    /**
+     * Holds the result of a blob collection.
+     */
+    public static class CollectionResult {
+
+        private final int deletedBlobs;
+        private final long reclaimedBytes;
+
+        private CollectionResult(int deletedBlobs, long reclaimedBytes) {
+            this.deletedBlobs = deletedBlobs;
+            this.reclaimedBytes = reclaimedBytes;
+        }
+
+        public int getDeletedBlobs() {
+            return this.deletedBlobs;
+        }
+
+        public long getReclaimedBytes() {
+            return this.reclaimedBytes;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.mrkelpy.aosplayermanager.util;
+
+import com.mrkelpy.aosplayermanager.AOSPlayerManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * This class keeps track of the managed worlds and of every storage directory that is known to exist, so that the
+ * saves and loads don't have to list or stat the directories every time they need one.
+ * <br>
+ * It's populated from the level list's directory on load, and is then kept current by the world load and unload
+ * events and by a WatchService on the level list's directory, which picks up the worlds added or removed by hand.
+ */
+public class ManagedWorldRegistry {
+
+    public static final ManagedWorldRegistry INSTANCE = new ManagedWorldRegistry();
+
+    // The directories inside the level list's directory that hold something other than a world's playerdata.
+    private static final List<String> RESERVED_DIRECTORIES = Arrays.asList("backups", ItemBlobStore.BLOBS_DIRECTORY, FileUtils.LEVEL_SETS_DIRECTORY);
+
+    private final ConcurrentSkipListSet<String> managedWorlds = new ConcurrentSkipListSet<>();
+    private final ConcurrentHashMap<String, File> directories = new ConcurrentHashMap<>();
+    private volatile File levelListDirectory;
+    private WatchService watchService;
+
+    /**
+     * Sets up the registry for a level list's directory, creating it if it doesn't exist, registering every world
+     * directory inside of it, and starting to watch it for changes.
+     * @param levelListDirectory The level list's directory
+     */
+    public synchronized void populate(File levelListDirectory) {
+
+        if (!levelListDirectory.exists())
+            levelListDirectory.mkdirs();
+
+        this.levelListDirectory = levelListDirectory;
+        this.directories.clear();
+        this.rescan();
+        this.watch();
+    }
+
+    /**
+     * @return The level list's directory.
+     */
+    public File getLevelListDirectory() {
+        return this.levelListDirectory;
+    }
+
+    /**
+     * Gets a directory inside the level list's directory, creating it if it doesn't exist. Once a directory is known
+     * to exist, it's handed out again without touching the disk.
+     * @param relativePath The path of the directory, relative to the level list's directory
+     * @return The directory
+     */
+    public File getDirectory(String relativePath) {
+
+        File directory = this.directories.get(relativePath);
+        if (directory != null) return directory;
+
+        directory = new File(this.levelListDirectory, relativePath);
+
+        if (!directory.exists())
+            directory.mkdirs();
+
+        this.register(relativePath);
+        this.directories.put(relativePath, directory);
+        return directory;
+    }
+
+    /**
+     * @return Every managed world, sorted by name. The list is a copy, so it can be modified.
+     */
+    public ArrayList<String> getManagedWorlds() {
+        return new ArrayList<>(this.managedWorlds);
+    }
+
+    /**
+     * Drops the directory handles of a world, so that the next access checks the disk again. The world itself stays
+     * managed, since its playerdata is still there.
+     * @param levelName The name of the world
+     */
+    public void forget(String levelName) {
+        this.directories.keySet().removeIf(path -> path.equals(levelName) || path.startsWith(levelName + "/"));
+    }
+
+    /**
+     * Stops watching the level list's directory.
+     */
+    public synchronized void shutdown() {
+
+        if (this.watchService == null) return;
+
+        try {
+            this.watchService.close();
+        } catch (IOException ignored) {}
+
+        this.watchService = null;
+    }
+
+    /**
+     * Registers the world a directory belongs to as a managed world, unless it's one of the reserved directories.
+     * @param relativePath The path of the directory, relative to the level list's directory
+     */
+    private void register(String relativePath) {
+        String levelName = relativePath.split("/", 2)[0];
+        if (!RESERVED_DIRECTORIES.contains(levelName)) this.managedWorlds.add(levelName);
+    }
+
+    /**
+     * Lists the level list's directory and registers every world directory inside of it.
+     */
+    private void rescan() {
+
+        File[] levelDirectories = this.levelListDirectory.listFiles(File::isDirectory);
+        this.managedWorlds.clear();
+
+        for (File levelDirectory : levelDirectories != null ? levelDirectories : new File[0])
+            this.register(levelDirectory.getName());
+    }
+
+    /**
+     * Starts a daemon thread that watches the level list's directory for world directories being created or deleted.
+     * If the watch can't be set up, the registry only follows the plugin's own changes and the world events.
+     */
+    private void watch() {
+
+        this.shutdown();
+
+        try {
+            this.watchService = FileSystems.getDefault().newWatchService();
+            this.levelListDirectory.toPath().register(this.watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+
+        } catch (IOException e) {
+            AOSPlayerManager.LOGGER.warning("Failed to watch " + this.levelListDirectory + " for changes");
+            e.printStackTrace();
+            this.watchService = null;
+            return;
+        }
+
+        WatchService watchService = this.watchService;
+        Thread thread = new Thread(() -> this.processEvents(watchService), AOSPlayerManager.PLUGIN_NAME + " World Watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Applies the changes reported by a WatchService until it's closed. This is run on the watcher thread.
+     * @param watchService The WatchService to take the changes from
+     */
+    private void processEvents(WatchService watchService) {
+
+        try {
+            while (true) {
+
+                WatchKey key = watchService.take();
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+
+                    // Some events were lost, so the only way to catch up is listing the directory again.
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        this.rescan();
+                        continue;
+                    }
+
+                    String levelName = ((Path) event.context()).getFileName().toString();
+
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && new File(this.levelListDirectory, levelName).isDirectory())
+                        this.register(levelName);
+
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        this.managedWorlds.remove(levelName);
+                        this.forget(levelName);
+                    }
+                }
+
+                // The key stops being valid once the directory itself is gone, so everything is forgotten.
+                if (!key.reset()) {
+                    this.managedWorlds.clear();
+                    this.directories.clear();
+                    return;
+                }
+            }
+
+        } catch (InterruptedException | ClosedWatchServiceException ignored) {}
+    }
+}
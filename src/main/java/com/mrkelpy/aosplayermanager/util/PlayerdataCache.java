@@ -0,0 +1,189 @@
+package com.mrkelpy.aosplayermanager.util;
+
+import com.mrkelpy.aosplayermanager.common.PlayerDataHolder;
+import com.mrkelpy.aosplayermanager.configuration.AOSPlayerManagerConfig;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * This class implements an in-memory cache of decoded PlayerDataHolders, keyed by player and level, that sits in
+ * front of the playerdata files. The cache is bounded by a number of entries, evicting the least recently used
+ * ones first.
+ * <br>
+ * The holders are kept private to the cache; whatever is handed out is a copy, so callers can't change the cached data.
+ * <br>
+ * Every change to the cache bumps a version, so that the data read from the disk by the loads is only cached if
+ * nothing was saved or invalidated meanwhile. Otherwise, a slow load could replace a newer save with older data.
+ */
+public class PlayerdataCache {
+
+    public static final PlayerdataCache INSTANCE = new PlayerdataCache();
+    private static final int VERSION_STRIPES = 256;
+
+    private final LinkedHashMap<String, PlayerDataHolder> entries = new LinkedHashMap<>(16, 0.75F, true);
+    // The versions are striped by key rather than kept per key, so that they don't grow with every key ever cached.
+    private final long[] versions = new long[VERSION_STRIPES];
+    private int maxEntries = 256;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Reads the maximum number of entries from the configuration file, evicting any entries that don't fit anymore.
+     */
+    public synchronized void configure() {
+        this.maxEntries = Math.max(0, AOSPlayerManagerConfig.getConfig().getInt("general.playerdata-cache-size"));
+        this.evictOverflow();
+    }
+
+    /**
+     * Gets a copy of the cached playerdata for a player in a level.
+     * @param playerUUID The UUID of the player
+     * @param levelName The level the data belongs to
+     * @return A copy of the cached PlayerDataHolder, or null if it isn't cached
+     */
+    public synchronized PlayerDataHolder get(UUID playerUUID, String levelName) {
+
+        PlayerDataHolder playerdata = this.entries.get(PlayerdataCache.makeKey(playerUUID, levelName));
+
+        if (playerdata == null) {
+            this.misses++;
+            return null;
+        }
+
+        this.hits++;
+        return new PlayerDataHolder(playerdata);
+    }
+
+    /**
+     * Puts the playerdata for a player in a level into the cache, replacing whatever was there.
+     * This is meant to be used by the save paths, so that the cache is always up-to-date with the files.
+     * <br>
+     * The holder mustn't be changed after being handed to the cache.
+     * @param playerUUID The UUID of the player
+     * @param levelName The level the data belongs to
+     * @param playerdata The PlayerDataHolder to cache
+     */
+    public synchronized void put(UUID playerUUID, String levelName, PlayerDataHolder playerdata) {
+        String key = PlayerdataCache.makeKey(playerUUID, levelName);
+        this.versions[PlayerdataCache.stripeOf(key)]++;
+        this.entries.put(key, playerdata);
+        this.evictOverflow();
+    }
+
+    /**
+     * Gets the version of the playerdata for a player in a level. This is meant to be taken before reading the data
+     * from the disk, and handed to {@link #putIfUnchanged(UUID, String, PlayerDataHolder, long)} afterwards.
+     * @param playerUUID The UUID of the player
+     * @param levelName The level the data belongs to
+     * @return The current version
+     */
+    public synchronized long getVersion(UUID playerUUID, String levelName) {
+        return this.versions[PlayerdataCache.stripeOf(PlayerdataCache.makeKey(playerUUID, levelName))];
+    }
+
+    /**
+     * Puts the playerdata read for a player in a level into the cache, unless the cache changed since the given
+     * version was taken, in which case the data might be older than what was saved meanwhile.
+     * This is meant to be used by the load paths.
+     * <br>
+     * The holder mustn't be changed after being handed to the cache.
+     * @param playerUUID The UUID of the player
+     * @param levelName The level the data belongs to
+     * @param playerdata The PlayerDataHolder to cache
+     * @param version The version taken through {@link #getVersion(UUID, String)} before the data was read
+     * @return Whether the data was cached
+     */
+    public synchronized boolean putIfUnchanged(UUID playerUUID, String levelName, PlayerDataHolder playerdata, long version) {
+
+        String key = PlayerdataCache.makeKey(playerUUID, levelName);
+        if (this.versions[PlayerdataCache.stripeOf(key)] != version) return false;
+
+        this.entries.put(key, playerdata);
+        this.evictOverflow();
+        return true;
+    }
+
+    /**
+     * Removes the playerdata for a player in a level from the cache.
+     * @param playerUUID The UUID of the player
+     * @param levelName The level the data belongs to
+     */
+    public synchronized void invalidate(UUID playerUUID, String levelName) {
+        String key = PlayerdataCache.makeKey(playerUUID, levelName);
+        this.versions[PlayerdataCache.stripeOf(key)]++;
+        this.entries.remove(key);
+    }
+
+    /**
+     * Removes every entry from the cache.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < VERSION_STRIPES; i++) this.versions[i]++;
+        this.entries.clear();
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public synchronized int getMaxEntries() {
+        return this.maxEntries;
+    }
+
+    /**
+     * Clears the hit, miss and eviction counts, leaving the cached entries alone.
+     */
+    public synchronized void resetStats() {
+        this.hits = 0;
+        this.misses = 0;
+        this.evictions = 0;
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache fits within its maximum number of entries.
+     */
+    private void evictOverflow() {
+
+        Iterator<Map.Entry<String, PlayerDataHolder>> iterator = this.entries.entrySet().iterator();
+
+        while (this.entries.size() > this.maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            this.evictions++;
+        }
+    }
+
+    /**
+     * Builds the key used to store the playerdata of a player in a level.
+     * @param playerUUID The UUID of the player
+     * @param levelName The level the data belongs to
+     * @return The cache key
+     */
+    private static String makeKey(UUID playerUUID, String levelName) {
+        return playerUUID.toString() + "/" + levelName;
+    }
+
+    /**
+     * @param key The cache key
+     * @return The version stripe the key belongs to.
+     */
+    private static int stripeOf(String key) {
+        return (key.hashCode() & 0x7FFFFFFF) % VERSION_STRIPES;
+    }
+}
@@ -0,0 +1,142 @@
+package com.mrkelpy.aosplayermanager.util;
+
+import com.mrkelpy.aosplayermanager.configuration.AOSPlayerManagerConfig;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * This class keeps track of the fingerprint of the last playerdata stored for every player, so that the saves and
+ * backups of players whose data didn't change since then (such as AFK players during a world save) can be skipped.
+ * <br>
+ * The fingerprints are computed at capture time through {@link com.mrkelpy.aosplayermanager.common.PlayerDataHolder#fingerprint()},
+ * and only live in memory, so the first save and backup of a player after a restart always go through.
+ */
+public class PlayerdataDirtyTracker {
+
+    public static final PlayerdataDirtyTracker INSTANCE = new PlayerdataDirtyTracker();
+
+    private final HashMap<UUID, HashMap<String, Long>> fingerprints = new HashMap<>();
+    private boolean enabled = true;
+    private long performedSaves;
+    private long skippedSaves;
+    private long performedBackups;
+    private long skippedBackups;
+
+    /**
+     * Reads whether unchanged saves and backups are skipped from the configuration file. The known fingerprints
+     * are forgotten, since the settings the data is stored with might have changed.
+     */
+    public synchronized void configure() {
+        this.enabled = AOSPlayerManagerConfig.getConfig().getBoolean("general.skip-unchanged-saves");
+        this.fingerprints.clear();
+    }
+
+    /**
+     * Checks whether a save of a player's data into a playerdata file has to be performed, and records its
+     * fingerprint if it does.
+     * @param playerUUID The UUID of the player
+     * @param recordFilepath The path of the playerdata file being saved to
+     * @param fingerprint The fingerprint of the captured data
+     * @return Whether the data changed since the last save into the file, meaning it has to be saved
+     */
+    public synchronized boolean shouldSave(UUID playerUUID, String recordFilepath, long fingerprint) {
+
+        if (this.update(playerUUID, "save:" + recordFilepath, fingerprint)) {
+            this.performedSaves++;
+            return true;
+        }
+
+        this.skippedSaves++;
+        return false;
+    }
+
+    /**
+     * Checks whether a backup of a player's data in a level has to be performed, and records its fingerprint if it does.
+     * @param playerUUID The UUID of the player
+     * @param levelName The level being backed up
+     * @param fingerprint The fingerprint of the captured data
+     * @return Whether the data changed since the last backup of the level, meaning it has to be backed up
+     */
+    public synchronized boolean shouldBackup(UUID playerUUID, String levelName, long fingerprint) {
+
+        if (this.update(playerUUID, "backup:" + levelName, fingerprint)) {
+            this.performedBackups++;
+            return true;
+        }
+
+        this.skippedBackups++;
+        return false;
+    }
+
+    /**
+     * Forgets the fingerprint of the last save of a player's data into a playerdata file, for when the file was changed
+     * by something other than a save or the save failed to be written, so the next save has to go through.
+     * @param playerUUID The UUID of the player
+     * @param recordFilepath The path of the playerdata file
+     */
+    public synchronized void forgetSave(UUID playerUUID, String recordFilepath) {
+        HashMap<String, Long> playerFingerprints = this.fingerprints.get(playerUUID);
+        if (playerFingerprints != null) playerFingerprints.remove("save:" + recordFilepath);
+    }
+
+    /**
+     * Forgets the fingerprint of the last backup of a player's data in a level, for when the backup failed to be
+     * written, so the next backup has to go through.
+     * @param playerUUID The UUID of the player
+     * @param levelName The level that was being backed up
+     */
+    public synchronized void forgetBackup(UUID playerUUID, String levelName) {
+        HashMap<String, Long> playerFingerprints = this.fingerprints.get(playerUUID);
+        if (playerFingerprints != null) playerFingerprints.remove("backup:" + levelName);
+    }
+
+    /**
+     * Forgets every fingerprint recorded for a player. This is meant to be used once the player leaves the server.
+     * @param playerUUID The UUID of the player
+     */
+    public synchronized void forget(UUID playerUUID) {
+        this.fingerprints.remove(playerUUID);
+    }
+
+    /**
+     * Clears the counts of performed and skipped saves and backups. The recorded fingerprints are kept.
+     */
+    public synchronized void resetStats() {
+        this.performedSaves = 0;
+        this.skippedSaves = 0;
+        this.performedBackups = 0;
+        this.skippedBackups = 0;
+    }
+
+    public synchronized long getPerformedSaves() {
+        return this.performedSaves;
+    }
+
+    public synchronized long getSkippedSaves() {
+        return this.skippedSaves;
+    }
+
+    public synchronized long getPerformedBackups() {
+        return this.performedBackups;
+    }
+
+    public synchronized long getSkippedBackups() {
+        return this.skippedBackups;
+    }
+
+    /**
+     * Records the fingerprint for a key of a player, unless it's the same as the one already recorded.
+     * @param playerUUID The UUID of the player
+     * @param key The key of what's being stored
+     * @param fingerprint The fingerprint of the captured data
+     * @return Whether the fingerprint changed, which is always the case when the tracking is disabled
+     */
+    private boolean update(UUID playerUUID, String key, long fingerprint) {
+
+        if (!this.enabled) return true;
+
+        Long previousFingerprint = this.fingerprints.computeIfAbsent(playerUUID, uuid -> new HashMap<>()).put(key, fingerprint);
+        return previousFingerprint == null || previousFingerprint != fingerprint;
+    }
+}
@@ -0,0 +1,189 @@
+package com.mrkelpy.aosplayermanager.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class holds the latency histograms of the plugin's hot paths, so that what the plugin costs the server can be
+ * seen through /apm stats. Recording into a histogram never locks, so it can be done from the main thread and the
+ * I/O threads alike.
+ */
+public class PlayerdataMetrics {
+
+    public static final Histogram SAVE = new Histogram("Save");
+    public static final Histogram BACKUP = new Histogram("Backup");
+    public static final Histogram LOAD = new Histogram("Load");
+    public static final Histogram BACKUP_LISTING = new Histogram("Backup listing");
+    public static final Histogram ITEM_ENCODE = new Histogram("Item encode");
+    public static final Histogram ITEM_DECODE = new Histogram("Item decode");
+    public static final Histogram APPLY = new Histogram("Apply");
+
+    private static final List<Histogram> HISTOGRAMS = Collections.unmodifiableList(Arrays.asList(
+            SAVE, BACKUP, LOAD, BACKUP_LISTING, ITEM_ENCODE, ITEM_DECODE, APPLY));
+
+    /**
+     * @return Every histogram, in the order they're displayed in.
+     */
+    public static List<Histogram> getHistograms() {
+        return HISTOGRAMS;
+    }
+
+    /**
+     * Clears every histogram.
+     */
+    public static void reset() {
+        HISTOGRAMS.forEach(Histogram::reset);
+    }
+
+    /**
+     * A log-linear histogram of latencies, in nanoseconds. Every power of two is split into 8 buckets, so the
+     * percentiles are accurate to within 12.5%, and the counts live in an AtomicLongArray, so recording is a
+     * handful of atomic increments.
+     */
+    public static class Histogram {
+
+        private static final int LINEAR_BUCKETS = 16;
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = LINEAR_BUCKETS + (63 - 4) * SUB_BUCKETS;
+
+        private final String name;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        Histogram(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Records a single call.
+         * @param nanos How long the call took, in nanoseconds
+         */
+        public void record(long nanos) {
+            this.record(nanos, 0);
+        }
+
+        /**
+         * Records a single call, along with the amount of bytes it went through.
+         * @param nanos How long the call took, in nanoseconds
+         * @param bytes The amount of bytes the call read or wrote
+         */
+        public void record(long nanos, long bytes) {
+
+            nanos = Math.max(0, nanos);
+            this.buckets.incrementAndGet(Histogram.bucketFor(nanos));
+            this.count.increment();
+            this.totalNanos.add(nanos);
+            if (bytes > 0) this.bytes.add(bytes);
+
+            long max = this.maxNanos.get();
+            while (nanos > max && !this.maxNanos.compareAndSet(max, nanos)) max = this.maxNanos.get();
+        }
+
+        /**
+         * Adds the bytes a call went through, without recording the call itself. This is for the calls that are timed
+         * on the main thread, but whose bytes are only known once an I/O thread writes them.
+         * @param bytes The amount of bytes read or written
+         */
+        public void recordBytes(long bytes) {
+            if (bytes > 0) this.bytes.add(bytes);
+        }
+
+        /**
+         * Gets a percentile of the recorded latencies. Since the calls are bucketed, this is the upper bound of the
+         * bucket the percentile falls into, capped to the slowest call.
+         * @param percentile The percentile to get, between 0 and 1
+         * @return The latency at the percentile, in milliseconds
+         */
+        public double getPercentileMillis(double percentile) {
+
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+
+            // The counts are copied first, so that the calls recorded meanwhile don't skew the walk.
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = this.buckets.get(i);
+                total += counts[i];
+            }
+
+            if (total == 0) return 0;
+
+            long rank = Math.max(1, (long) Math.ceil(percentile * total));
+            long seen = 0;
+
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(Histogram.upperBoundOf(i), this.maxNanos.get()) / 1000000.0;
+            }
+
+            return this.getMaxMillis();
+        }
+
+        /**
+         * Clears the histogram. Calls recorded while this runs may be partly kept.
+         */
+        public void reset() {
+            for (int i = 0; i < BUCKETS; i++) this.buckets.set(i, 0);
+            this.count.reset();
+            this.totalNanos.reset();
+            this.bytes.reset();
+            this.maxNanos.set(0);
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public long getCount() {
+            return this.count.sum();
+        }
+
+        public long getBytes() {
+            return this.bytes.sum();
+        }
+
+        public double getAverageMillis() {
+            long count = this.count.sum();
+            return count == 0 ? 0 : this.totalNanos.sum() / (double) count / 1000000.0;
+        }
+
+        public double getMaxMillis() {
+            return this.maxNanos.get() / 1000000.0;
+        }
+
+        /**
+         * Gets the bucket a latency falls into. The latencies under 16ns get a bucket each, and every power of two
+         * after that is split into 8 buckets of the same width.
+         * @param nanos The latency, in nanoseconds
+         * @return The index of the bucket
+         */
+        static int bucketFor(long nanos) {
+
+            if (nanos < LINEAR_BUCKETS) return (int) nanos;
+
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket;
+        }
+
+        /**
+         * @param bucket The index of a bucket
+         * @return The highest latency that falls into the bucket, in nanoseconds.
+         */
+        static long upperBoundOf(int bucket) {
+
+            if (bucket < LINEAR_BUCKETS) return bucket;
+
+            int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+            int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.mrkelpy.aosplayermanager.util;
+
+import com.mrkelpy.aosplayermanager.AOSPlayerManager;
+import com.mrkelpy.aosplayermanager.common.PlayerDataHolder;
+import com.mrkelpy.aosplayermanager.configuration.AOSPlayerManagerConfig;
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * This class loads the playerdata of a player for a level in the background, ahead of when it's needed. The load is
+ * started as soon as it's known that the player is heading into the level (such as when they teleport), so that by
+ * the time the data has to be applied, the disk read and the decoding are already done.
+ * <br>
+ * The data can also be prefetched when a player logs in, warming the {@link PlayerdataCache} with the levels they
+ * played in most recently, so that their first world change doesn't have to wait on the disk either.
+ * <br>
+ * The loads go through {@link FileUtils#getPlayerData(OfflinePlayer, String)}, so they see the data that is cached
+ * or still waiting to be written, just like a load from the main thread would.
+ */
+public class PlayerdataPreloader {
+
+    public static final PlayerdataPreloader INSTANCE = new PlayerdataPreloader();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, AOSPlayerManager.PLUGIN_NAME + " Preload");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ConcurrentHashMap<UUID, Preload> preloads = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<UUID, List<String>> prefetches = new ConcurrentHashMap<>();
+    private volatile long maxWaitMillis = 50;
+    private volatile int prefetchLimit = 8;
+    private volatile long prefetchTimeoutTicks = 600;
+    private long prefetchedLevels;
+    private long releasedPrefetches;
+    private long usedPreloads;
+    private long timedOutPreloads;
+    private long missedPreloads;
+
+    /**
+     * Reads how long the main thread may wait for an unfinished preload, and the limits of the login prefetches,
+     * from the configuration file.
+     */
+    public void configure() {
+        this.maxWaitMillis = Math.max(0, AOSPlayerManagerConfig.getConfig().getLong("general.preload-max-wait-millis"));
+        this.prefetchLimit = Math.max(0, AOSPlayerManagerConfig.getConfig().getInt("general.login-prefetch-limit"));
+        this.prefetchTimeoutTicks = Math.max(1, AOSPlayerManagerConfig.getConfig().getLong("general.login-prefetch-timeout-ticks"));
+    }
+
+    /**
+     * Warms the cache with the playerdata of a player that is logging in, for the levels they have the most recently
+     * written data for, up to the configured limit. If the player isn't online once the configured timeout runs out
+     * (because the login was denied or cancelled), the prefetched data is dropped from the cache again.
+     * <br>
+     * This can be called from any thread.
+     * @param playerUUID The UUID of the player logging in
+     */
+    public void prefetch(UUID playerUUID) {
+
+        if (this.prefetchLimit <= 0) return;
+
+        CompletableFuture.runAsync(() -> {
+
+            // Only the levels the player has data for are worth loading, the most recently written ones first.
+            HashMap<String, Long> lastModified = new HashMap<>();
+            for (String levelName : FileUtils.getManagedWorlds())
+                lastModified.put(levelName, FileUtils.getPlayerDataLastModified(playerUUID, levelName));
+
+            List<String> levelNames = lastModified.keySet().stream().filter(levelName -> lastModified.get(levelName) > 0)
+                    .sorted(Comparator.comparing(lastModified::get).reversed())
+                    .limit(this.prefetchLimit).collect(Collectors.toList());
+
+            this.prefetches.put(playerUUID, levelNames);
+            levelNames.forEach(levelName -> FileUtils.getPlayerData(playerUUID, levelName).decode());
+            this.countPrefetched(levelNames.size());
+
+        }, this.executor).exceptionally(e -> {
+            AOSPlayerManager.LOGGER.warning("Failed to prefetch the playerdata of " + playerUUID);
+            e.printStackTrace();
+            return null;
+        });
+
+        Bukkit.getScheduler().runTaskLater(Bukkit.getPluginManager().getPlugin(AOSPlayerManager.PLUGIN_NAME),
+                () -> this.releasePrefetch(playerUUID), this.prefetchTimeoutTicks);
+    }
+
+    /**
+     * Drops the prefetched playerdata of a player from the cache, unless the player made it into the server.
+     * @param playerUUID The UUID of the player
+     */
+    private void releasePrefetch(UUID playerUUID) {
+
+        List<String> levelNames = this.prefetches.remove(playerUUID);
+        if (levelNames == null || Bukkit.getPlayer(playerUUID) != null) return;
+
+        levelNames.forEach(levelName -> PlayerdataCache.INSTANCE.invalidate(playerUUID, levelName));
+        this.countReleased();
+    }
+
+    /**
+     * Starts loading the playerdata of a player for a level in the background, replacing any preload the player had.
+     * This is meant to be called after everything the player had to save is already saved.
+     * @param player The player to load the data for
+     * @param levelName The level to load the data from
+     */
+    public void preload(OfflinePlayer player, String levelName) {
+
+        CompletableFuture<PlayerDataHolder> future = CompletableFuture.supplyAsync(() ->
+                FileUtils.getPlayerData(player, levelName).decode(), this.executor);
+
+        this.preloads.put(player.getUniqueId(), new Preload(levelName, future));
+    }
+
+    /**
+     * Gets the playerdata of a player for a level, taking it from the preload if there's one for the level. If the
+     * preload isn't done yet, this waits for it up to the configured time, and then loads the data right here instead.
+     * @param player The player to get the data for
+     * @param levelName The level to get the data from
+     * @return The PlayerDataHolder instance containing the data
+     */
+    public PlayerDataHolder take(OfflinePlayer player, String levelName) {
+
+        Preload preload = this.preloads.remove(player.getUniqueId());
+
+        if (preload == null || !preload.levelName.equals(levelName)) {
+            this.countMissed();
+            return FileUtils.getPlayerData(player, levelName);
+        }
+
+        try {
+            PlayerDataHolder playerdata = preload.future.get(this.maxWaitMillis, TimeUnit.MILLISECONDS);
+            this.countUsed();
+            return playerdata;
+
+        } catch (TimeoutException e) {
+            this.countTimedOut();
+
+        } catch (ExecutionException e) {
+            AOSPlayerManager.LOGGER.warning("Failed to preload the playerdata of " + player.getName() + " for " + levelName);
+            e.getCause().printStackTrace();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return FileUtils.getPlayerData(player, levelName);
+    }
+
+    /**
+     * Stops the preloads and prefetches, dropping the ones that haven't started yet, and waits for the ones underway.
+     * This must happen before the plugin is disabled, so that no load outlives the plugin instance it belongs to.
+     * @param timeoutMillis The maximum time to wait for the loads underway, in milliseconds
+     */
+    public void shutdown(long timeoutMillis) {
+
+        this.executor.shutdownNow();
+        this.preloads.clear();
+        this.prefetches.clear();
+
+        try {
+            if (!this.executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS))
+                AOSPlayerManager.LOGGER.warning("Timed out waiting for the playerdata preloads to stop");
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Drops the preload of a player, if any. This is meant to be used when the preloaded data might not be
+     * the data the player should get anymore, such as when the teleport is cancelled.
+     * @param playerUUID The UUID of the player
+     */
+    public void discard(UUID playerUUID) {
+        this.preloads.remove(playerUUID);
+    }
+
+    /**
+     * Clears the preload and prefetch counters.
+     */
+    public synchronized void resetStats() {
+        this.prefetchedLevels = 0;
+        this.releasedPrefetches = 0;
+        this.usedPreloads = 0;
+        this.timedOutPreloads = 0;
+        this.missedPreloads = 0;
+    }
+
+    public synchronized long getUsedPreloads() {
+        return this.usedPreloads;
+    }
+
+    public synchronized long getTimedOutPreloads() {
+        return this.timedOutPreloads;
+    }
+
+    public synchronized long getMissedPreloads() {
+        return this.missedPreloads;
+    }
+
+    public synchronized long getPrefetchedLevels() {
+        return this.prefetchedLevels;
+    }
+
+    public synchronized long getReleasedPrefetches() {
+        return this.releasedPrefetches;
+    }
+
+    private synchronized void countPrefetched(int levels) {
+        this.prefetchedLevels += levels;
+    }
+
+    private synchronized void countReleased() {
+        this.releasedPrefetches++;
+    }
+
+    private synchronized void countUsed() {
+        this.usedPreloads++;
+    }
+
+    private synchronized void countTimedOut() {
+        this.timedOutPreloads++;
+    }
+
+    private synchronized void countMissed() {
+        this.missedPreloads++;
+    }
+
+    /**
+     * Holds the level a preload is for, alongside the load itself.
+     */
+    private static class Preload {
+
+        private final String levelName;
+        private final CompletableFuture<PlayerDataHolder> future;
+
+        private Preload(String levelName, CompletableFuture<PlayerDataHolder> future) {
+            this.levelName = levelName;
+            this.future = future;
+        }
+    }
+}
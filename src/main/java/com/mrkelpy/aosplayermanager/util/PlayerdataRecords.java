@@ -0,0 +1,641 @@
+package com.mrkelpy.aosplayermanager.util;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
+import com.mrkelpy.aosplayermanager.AOSPlayerManager;
+import com.mrkelpy.aosplayermanager.common.PartialLocation;
+import com.mrkelpy.aosplayermanager.common.PlayerDataHolder;
+import com.mrkelpy.aosplayermanager.common.PlayerdataPatch;
+import com.mrkelpy.aosplayermanager.common.SimplePotionEffect;
+import com.mrkelpy.aosplayermanager.configuration.AOSPlayerManagerConfig;
+import net.minecraft.server.v1_7_R4.NBTTagCompound;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class implements the storage formats of the playerdata files. Besides the original JSON format, the playerdata
+ * can be stored in a compact binary record, which holds the raw NBT bytes of every item with a length prefix and
+ * every other value in a fixed-width field, instead of layering base32, Java serialization and base64 inside JSON.
+ * <br>
+ * The format used for writing is picked in the configuration file, while the reader understands both of them, so the
+ * files get converted one by one as they are saved. Writing a file in one format deletes the file in the other one.
+ * <br>
+ * A binary record is laid out as: magic (int), version (byte), health (double), hunger (int), experience levels (int),
+ * experience points (float), coordinates (flag, then x, y, z as doubles and pitch, yaw as floats), potion effects (count,
+ * then type, duration, amplifier), inventory and armour (slot count, then a tag and the data for every slot).
+ * <br>
+ * The levels in a level set share a single record, so their coordinates are stored on their own, in a small binary
+ * file per level laid out as: coordinates flag, then x, y, z as doubles and pitch, yaw as floats.
+ * <br>
+ * The coordinates and the stats of a stored record can also be patched on their own, through a {@link PlayerdataPatch},
+ * which copies the items over as they're stored, instead of decoding and encoding them again.
+ */
+@SuppressWarnings("ResultOfMethodCallIgnored")
+public class PlayerdataRecords {
+
+    public static final String JSON_EXTENSION = ".json";
+    public static final String BINARY_EXTENSION = ".dat";
+    public static final String COORDINATES_EXTENSION = ".coords";
+
+    private static final int RECORD_MAGIC = 0x41504D52;
+    private static final byte RECORD_VERSION = 1;
+    private static final byte SLOT_EMPTY = 0;
+    private static final byte SLOT_NBT = 1;
+    private static final byte SLOT_BLOB = 2;
+    private static volatile boolean binary = false;
+
+    // How long the full writes and the patches take, so that the two can be compared.
+    private static final AtomicLong WRITES = new AtomicLong();
+    private static final AtomicLong WRITE_NANOS = new AtomicLong();
+    private static final AtomicLong PATCHES = new AtomicLong();
+    private static final AtomicLong PATCH_NANOS = new AtomicLong();
+
+    /**
+     * Reads the storage format used for writing the playerdata from the configuration file. This is read upfront
+     * because the playerdata is written from the I/O threads.
+     */
+    public static void configure() {
+        binary = AOSPlayerManagerConfig.getConfig().getString("storage.format").equalsIgnoreCase("binary");
+    }
+
+    /**
+     * Gets the file the playerdata for a player should be written to, in the configured format.
+     * @param levelDirectory The directory of the level the data belongs to
+     * @param playerUUID The UUID of the player
+     * @return The playerdata file
+     */
+    public static File getRecordFile(File levelDirectory, UUID playerUUID) {
+        return new File(levelDirectory, playerUUID.toString() + (binary ? BINARY_EXTENSION : JSON_EXTENSION));
+    }
+
+    /**
+     * Gets the file the playerdata for a player would have in the format that isn't the given file's.
+     * @param recordFile The playerdata file
+     * @return The playerdata file in the other format
+     */
+    public static File getOtherFormatFile(File recordFile) {
+
+        String filename = recordFile.getName();
+        boolean isBinary = filename.endsWith(BINARY_EXTENSION);
+        String basename = filename.substring(0, filename.length() - (isBinary ? BINARY_EXTENSION : JSON_EXTENSION).length());
+        return new File(recordFile.getParentFile(), basename + (isBinary ? JSON_EXTENSION : BINARY_EXTENSION));
+    }
+
+    /**
+     * Writes a PlayerDataHolder into a playerdata file, in the format given by the file's extension, and deletes the
+     * file in the other format, so that there's only ever one of them. This is meant to be used as a
+     * {@link PlayerdataWriteQueue.SnapshotWriter}.
+     * @param recordFile The playerdata file to write
+     * @param playerdata The PlayerDataHolder to write
+     * @return Whether the playerdata file was written
+     */
+    public static boolean write(File recordFile, PlayerDataHolder playerdata) {
+
+        long startTime = System.nanoTime();
+        boolean written = recordFile.getName().endsWith(BINARY_EXTENSION)
+                ? PlayerdataRecords.writeBinary(recordFile, playerdata)
+                : FileUtils.writeJson(recordFile.getPath(), FileUtils.GSON.toJsonTree(playerdata.serialize()).getAsJsonObject());
+
+        WRITES.incrementAndGet();
+        WRITE_NANOS.addAndGet(System.nanoTime() - startTime);
+
+        // The other format is only deleted once this one is safely written.
+        if (!written) return false;
+        PlayerdataMetrics.SAVE.recordBytes(recordFile.length());
+
+        File otherFormatFile = PlayerdataRecords.getOtherFormatFile(recordFile);
+        if (otherFormatFile.exists()) otherFormatFile.delete();
+        return true;
+    }
+
+    /**
+     * Patches the coordinates and stats of a stored playerdata file, in whichever format it's in, without decoding
+     * the items. This is meant to be used as a {@link PlayerdataWriteQueue.SnapshotWriter}, where the snapshot is
+     * only what the readers see until the patch is written.
+     * @param recordFile The playerdata file to patch
+     * @param patch The PlayerdataPatch to apply
+     * @return Whether the playerdata file was patched, which it isn't if it doesn't exist
+     */
+    public static boolean patch(File recordFile, PlayerdataPatch patch) {
+
+        if (!recordFile.exists()) return false;
+
+        long startTime = System.nanoTime();
+        boolean patched = recordFile.getName().endsWith(BINARY_EXTENSION)
+                ? PlayerdataRecords.patchBinary(recordFile, patch)
+                : PlayerdataRecords.patchJson(recordFile, patch);
+
+        PATCHES.incrementAndGet();
+        PATCH_NANOS.addAndGet(System.nanoTime() - startTime);
+        return patched;
+    }
+
+    /**
+     * Clears the write and patch timings.
+     */
+    public static void resetStats() {
+        WRITES.set(0);
+        WRITE_NANOS.set(0);
+        PATCHES.set(0);
+        PATCH_NANOS.set(0);
+    }
+
+    public static long getWrites() {
+        return WRITES.get();
+    }
+
+    public static long getPatches() {
+        return PATCHES.get();
+    }
+
+    /**
+     * @return The average time taken to write a whole playerdata file, in milliseconds.
+     */
+    public static double getAverageWriteMillis() {
+        return WRITES.get() > 0 ? WRITE_NANOS.get() / (double) WRITES.get() / 1000000 : 0;
+    }
+
+    /**
+     * @return The average time taken to patch a playerdata file, in milliseconds.
+     */
+    public static double getAveragePatchMillis() {
+        return PATCHES.get() > 0 ? PATCH_NANOS.get() / (double) PATCHES.get() / 1000000 : 0;
+    }
+
+    /**
+     * Checks whether there's a playerdata file for a player, in any format.
+     * @param directory The directory the playerdata file would be in
+     * @param playerUUID The UUID of the player
+     * @return Whether the playerdata file exists
+     */
+    public static boolean exists(File directory, UUID playerUUID) {
+        return new File(directory, playerUUID.toString() + BINARY_EXTENSION).exists()
+                || new File(directory, playerUUID.toString() + JSON_EXTENSION).exists();
+    }
+
+    /**
+     * Writes the coordinates of a PlayerDataHolder into a coordinates file, through a temporary file. This is meant
+     * to be used as a {@link PlayerdataWriteQueue.SnapshotWriter}.
+     * @param coordinatesFile The coordinates file to write
+     * @param playerdata The PlayerDataHolder holding the coordinates
+     * @return Whether the coordinates file was written
+     */
+    public static boolean writeCoordinates(File coordinatesFile, PlayerDataHolder playerdata) {
+
+        File temporaryFile = new File(coordinatesFile.getPath() + ".tmp");
+        coordinatesFile.getParentFile().mkdirs();
+        PartialLocation coordinates = playerdata.getPlayerCoordinates();
+
+        try (DataOutputStream coordinatesOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+
+            PlayerdataRecords.writeLocation(coordinatesOutput, coordinates);
+
+        } catch (IOException e) {
+            AOSPlayerManager.LOGGER.warning("Failed to write the coordinates file " + coordinatesFile.getPath());
+            e.printStackTrace();
+            temporaryFile.delete();
+            return false;
+        }
+
+        return FileUtils.replaceFile(temporaryFile, coordinatesFile);
+    }
+
+    /**
+     * Reads the coordinates from a coordinates file.
+     * @param coordinatesFile The coordinates file to read
+     * @return The coordinates, or null if they were stored as null
+     */
+    public static PartialLocation readCoordinates(File coordinatesFile) throws IOException {
+
+        try (DataInputStream coordinatesInput = new DataInputStream(new BufferedInputStream(new FileInputStream(coordinatesFile)))) {
+
+            if (!coordinatesInput.readBoolean()) return null;
+            return new PartialLocation(coordinatesInput.readDouble(), coordinatesInput.readDouble(), coordinatesInput.readDouble(),
+                    coordinatesInput.readFloat(), coordinatesInput.readFloat());
+        }
+    }
+
+    /**
+     * Gets the playerdata file that {@link #read(File, UUID)} would read for a player.
+     * @param levelDirectory The directory of the level the data belongs to
+     * @param playerUUID The UUID of the player
+     * @return The playerdata file, or null if there's none
+     */
+    public static File getStoredFile(File levelDirectory, UUID playerUUID) {
+
+        File binaryFile = new File(levelDirectory, playerUUID.toString() + BINARY_EXTENSION);
+        File jsonFile = new File(levelDirectory, playerUUID.toString() + JSON_EXTENSION);
+
+        if (binaryFile.exists() && (!jsonFile.exists() || binaryFile.lastModified() >= jsonFile.lastModified())) return binaryFile;
+        return jsonFile.exists() ? jsonFile : null;
+    }
+
+    /**
+     * Reads the playerdata for a player from whichever format it's stored in. If both formats exist (such as when
+     * the server stopped between writing one and deleting the other), the newest one is read.
+     * <br>
+     * A record that exists but can't be read is never passed off as empty data, since that would be applied to the
+     * player and saved over the record. The failure is thrown instead, like a malformed JSON file always was.
+     * @param levelDirectory The directory of the level the data belongs to
+     * @param playerUUID The UUID of the player
+     * @return The PlayerDataHolder with the data, which is empty if there's no playerdata
+     * @throws UncheckedIOException If the record can't be read
+     */
+    public static PlayerDataHolder read(File levelDirectory, UUID playerUUID) {
+
+        File binaryFile = new File(levelDirectory, playerUUID.toString() + BINARY_EXTENSION);
+        File jsonFile = new File(levelDirectory, playerUUID.toString() + JSON_EXTENSION);
+
+        if (binaryFile.exists() && (!jsonFile.exists() || binaryFile.lastModified() >= jsonFile.lastModified())) {
+            try {
+                PlayerdataMetrics.LOAD.recordBytes(binaryFile.length());
+                return PlayerdataRecords.readBinary(binaryFile);
+
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read the playerdata record " + binaryFile.getPath(), e);
+            }
+        }
+
+        PlayerdataMetrics.LOAD.recordBytes(jsonFile.length());
+        return PlayerdataRecords.readJson(jsonFile);
+    }
+
+    /**
+     * Reads the playerdata from a JSON file, decoding it straight from the file stream.
+     * @param jsonFile The JSON playerdata file
+     * @return The PlayerDataHolder with the data, which is empty if the file doesn't exist
+     * @throws UncheckedIOException If the file exists but can't be read
+     */
+    public static PlayerDataHolder readJson(File jsonFile) {
+
+        if (!jsonFile.exists()) return new PlayerDataHolder(new HashMap<>());
+
+        try (Reader jsonFileReader = new BufferedReader(new InputStreamReader(new FileInputStream(jsonFile), StandardCharsets.UTF_8))) {
+            return PlayerdataRecords.decodeJson(jsonFileReader);
+
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the playerdata file " + jsonFile.getPath(), e);
+        }
+    }
+
+    /**
+     * Decodes a serialized PlayerDataHolder from a JSON stream in a single pass, without building a JSON tree.
+     * Malformed JSON is reported the same way as when it's parsed into a tree, through a JsonSyntaxException.
+     * @param jsonStream The stream holding the serialized PlayerDataHolder
+     * @return The PlayerDataHolder
+     */
+    public static PlayerDataHolder decodeJson(Reader jsonStream) throws IOException {
+
+        try {
+            return new PlayerDataHolder(new JsonReader(jsonStream));
+
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * Adds the references of every item blob used by a binary record into a set, without decoding any of the items.
+     * @param recordFile The binary playerdata file
+     * @param references The set to add the references into
+     */
+    public static void collectBlobReferences(File recordFile, Set<String> references) throws IOException {
+
+        try (DataInputStream recordInput = new DataInputStream(new BufferedInputStream(new FileInputStream(recordFile)))) {
+
+            PlayerdataRecords.readHeader(recordInput, recordFile);
+            PlayerdataRecords.skipFully(recordInput, 8 + 4 + 4 + 4);
+            if (recordInput.readBoolean()) PlayerdataRecords.skipFully(recordInput, 8 * 3 + 4 * 2);
+
+            int potionEffectCount = recordInput.readInt();
+            if (potionEffectCount != -1) PlayerdataRecords.checkCount(recordInput, recordFile, potionEffectCount, 2 + 4 + 4);
+            for (int i = 0; i < potionEffectCount; i++) {
+                recordInput.readUTF();
+                PlayerdataRecords.skipFully(recordInput, 4 + 4);
+            }
+
+            for (int section = 0; section < 2; section++) {
+
+                int slotCount = recordInput.readInt();
+                if (slotCount != -1) PlayerdataRecords.checkCount(recordInput, recordFile, slotCount, 1);
+
+                for (int i = 0; i < slotCount; i++) {
+                    byte tag = recordInput.readByte();
+                    if (tag == SLOT_NBT) PlayerdataRecords.skipFully(recordInput, PlayerdataRecords.readCount(recordInput, recordFile, 1));
+                    if (tag == SLOT_BLOB) references.add(recordInput.readUTF());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a PlayerDataHolder as a binary record into a temporary file, and then moves it into place.
+     * @param recordFile The binary playerdata file
+     * @param playerdata The PlayerDataHolder to write
+     * @return Whether the record was written
+     */
+    private static boolean writeBinary(File recordFile, PlayerDataHolder playerdata) {
+
+        File temporaryFile = new File(recordFile.getPath() + ".tmp");
+        recordFile.getParentFile().mkdirs();
+
+        try (DataOutputStream recordOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+
+            recordOutput.writeInt(RECORD_MAGIC);
+            recordOutput.writeByte(RECORD_VERSION);
+            recordOutput.writeDouble(playerdata.getPlayerHealth());
+            recordOutput.writeInt(playerdata.getPlayerHunger());
+            recordOutput.writeInt(playerdata.getPlayerExperienceLevels());
+            recordOutput.writeFloat(playerdata.getPlayerExperiencePoints());
+
+            PlayerdataRecords.writeLocation(recordOutput, playerdata.getPlayerCoordinates());
+
+            ArrayList<SimplePotionEffect> potionEffects = playerdata.getPlayerPotionEffects();
+            recordOutput.writeInt(potionEffects != null ? potionEffects.size() : -1);
+
+            for (SimplePotionEffect potionEffect : potionEffects != null ? potionEffects : new ArrayList<SimplePotionEffect>()) {
+                recordOutput.writeUTF(potionEffect.getType());
+                recordOutput.writeInt(potionEffect.getDuration());
+                recordOutput.writeInt(potionEffect.getAmplifier());
+            }
+
+            PlayerdataRecords.writeSlots(recordOutput, playerdata.getPlayerInventoryNBT());
+            PlayerdataRecords.writeSlots(recordOutput, playerdata.getPlayerArmourNBT());
+
+        } catch (IOException e) {
+            AOSPlayerManager.LOGGER.warning("Failed to write the playerdata record " + recordFile.getPath());
+            e.printStackTrace();
+            temporaryFile.delete();
+            return false;
+        }
+
+        return FileUtils.replaceFile(temporaryFile, recordFile);
+    }
+
+    /**
+     * Patches the coordinates and stats of a binary record into a temporary file, copying everything after them
+     * (the potion effects and the items) byte for byte, and then moves it into place.
+     * @param recordFile The binary playerdata file
+     * @param patch The PlayerdataPatch to apply
+     * @return Whether the record was patched
+     */
+    private static boolean patchBinary(File recordFile, PlayerdataPatch patch) {
+
+        File temporaryFile = new File(recordFile.getPath() + ".tmp");
+
+        try (DataInputStream recordInput = new DataInputStream(new BufferedInputStream(new FileInputStream(recordFile)));
+             DataOutputStream recordOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+
+            PlayerdataRecords.readHeader(recordInput, recordFile);
+            double health = recordInput.readDouble();
+            int hunger = recordInput.readInt();
+            int experienceLevels = recordInput.readInt();
+            float experiencePoints = recordInput.readFloat();
+
+            PartialLocation coordinates = recordInput.readBoolean()
+                    ? new PartialLocation(recordInput.readDouble(), recordInput.readDouble(), recordInput.readDouble(), recordInput.readFloat(), recordInput.readFloat())
+                    : null;
+
+            recordOutput.writeInt(RECORD_MAGIC);
+            recordOutput.writeByte(RECORD_VERSION);
+            recordOutput.writeDouble(patch.getHealth() != null ? patch.getHealth() : health);
+            recordOutput.writeInt(patch.getHunger() != null ? patch.getHunger() : hunger);
+            recordOutput.writeInt(patch.getExperienceLevels() != null ? patch.getExperienceLevels() : experienceLevels);
+            recordOutput.writeFloat(patch.getExperiencePoints() != null ? patch.getExperiencePoints() : experiencePoints);
+            PlayerdataRecords.writeLocation(recordOutput, patch.patchesCoordinates() ? patch.getCoordinates() : coordinates);
+
+            byte[] buffer = new byte[8192];
+            for (int read; (read = recordInput.read(buffer)) != -1; )
+                recordOutput.write(buffer, 0, read);
+
+        } catch (IOException e) {
+            AOSPlayerManager.LOGGER.warning("Failed to patch the playerdata record " + recordFile.getPath());
+            e.printStackTrace();
+            temporaryFile.delete();
+            return false;
+        }
+
+        return FileUtils.replaceFile(temporaryFile, recordFile);
+    }
+
+    /**
+     * Patches the coordinates and stats of a JSON playerdata file. The items are kept as the strings they're stored as.
+     * @param jsonFile The JSON playerdata file
+     * @param patch The PlayerdataPatch to apply
+     * @return Whether the file was patched
+     */
+    private static boolean patchJson(File jsonFile, PlayerdataPatch patch) {
+
+        JsonObject record;
+
+        try (Reader jsonFileReader = new BufferedReader(new InputStreamReader(new FileInputStream(jsonFile), StandardCharsets.UTF_8))) {
+            record = new JsonParser().parse(jsonFileReader).getAsJsonObject();
+
+        } catch (IOException | JsonSyntaxException | IllegalStateException e) {
+            AOSPlayerManager.LOGGER.warning("Failed to patch the playerdata file " + jsonFile.getPath());
+            e.printStackTrace();
+            return false;
+        }
+
+        patch.applyTo(record);
+        return FileUtils.writeJson(jsonFile.getPath(), record);
+    }
+
+    /**
+     * Writes a location into a binary record or coordinates file, as a flag followed by the coordinates if it isn't null.
+     * @param output The stream to write to
+     * @param coordinates The location to write, or null
+     */
+    private static void writeLocation(DataOutputStream output, PartialLocation coordinates) throws IOException {
+
+        output.writeBoolean(coordinates != null);
+        if (coordinates == null) return;
+
+        output.writeDouble(coordinates.x);
+        output.writeDouble(coordinates.y);
+        output.writeDouble(coordinates.z);
+        output.writeFloat(coordinates.pitch);
+        output.writeFloat(coordinates.yaw);
+    }
+
+    /**
+     * Reads a PlayerDataHolder from a binary record.
+     * @param recordFile The binary playerdata file
+     * @return The PlayerDataHolder with the data
+     */
+    private static PlayerDataHolder readBinary(File recordFile) throws IOException {
+
+        try (DataInputStream recordInput = new DataInputStream(new BufferedInputStream(new FileInputStream(recordFile)))) {
+
+            PlayerdataRecords.readHeader(recordInput, recordFile);
+            double health = recordInput.readDouble();
+            int hunger = recordInput.readInt();
+            int experienceLevels = recordInput.readInt();
+            float experiencePoints = recordInput.readFloat();
+
+            PartialLocation coordinates = recordInput.readBoolean()
+                    ? new PartialLocation(recordInput.readDouble(), recordInput.readDouble(), recordInput.readDouble(), recordInput.readFloat(), recordInput.readFloat())
+                    : null;
+
+            // The JSON format doesn't tell an empty list of potion effects apart from a missing one, so neither does this.
+            int potionEffectCount = recordInput.readInt();
+            if (potionEffectCount != -1) PlayerdataRecords.checkCount(recordInput, recordFile, potionEffectCount, 2 + 4 + 4);
+            ArrayList<SimplePotionEffect> potionEffects = potionEffectCount > 0 ? new ArrayList<>(potionEffectCount) : null;
+
+            for (int i = 0; i < potionEffectCount; i++)
+                potionEffects.add(new SimplePotionEffect(recordInput.readUTF(), recordInput.readInt(), recordInput.readInt()));
+
+            PlayerDataHolder.EncodedItems inventory = PlayerdataRecords.readSlots(recordInput, recordFile);
+            PlayerDataHolder.EncodedItems armour = PlayerdataRecords.readSlots(recordInput, recordFile);
+
+            return new PlayerDataHolder(inventory, armour, potionEffects, coordinates, experienceLevels, experiencePoints, health, hunger);
+        }
+    }
+
+    /**
+     * Reads and checks the magic number and version at the beginning of a binary record.
+     * @param recordInput The stream to read from
+     * @param recordFile The file being read, for the error message
+     */
+    private static void readHeader(DataInputStream recordInput, File recordFile) throws IOException {
+        if (recordInput.readInt() != RECORD_MAGIC || recordInput.readByte() != RECORD_VERSION)
+            throw new IOException("Unsupported playerdata record " + recordFile.getPath());
+    }
+
+    /**
+     * Reads a count or a length from a binary record, and checks it against the bytes left in the file.
+     * @param recordInput The stream to read from
+     * @param recordFile The file being read, for the error message
+     * @param minimumSize The fewest bytes each counted element takes up in the file
+     * @return The count read
+     */
+    private static int readCount(DataInputStream recordInput, File recordFile, int minimumSize) throws IOException {
+        int count = recordInput.readInt();
+        PlayerdataRecords.checkCount(recordInput, recordFile, count, minimumSize);
+        return count;
+    }
+
+    /**
+     * Checks a count read from a binary record against the bytes left in the file, so that a damaged record fails
+     * to read instead of making the reader allocate or loop over whatever the damaged bytes amount to.
+     * @param recordInput The stream being read, whose available bytes are the ones left in the file
+     * @param recordFile The file being read, for the error message
+     * @param count The count to check
+     * @param minimumSize The fewest bytes each counted element takes up in the file
+     */
+    private static void checkCount(DataInputStream recordInput, File recordFile, int count, int minimumSize) throws IOException {
+        if (count < 0 || (long) count * minimumSize > recordInput.available())
+            throw new IOException("Corrupt record " + recordFile.getPath() + ", it holds a count of " + count + " past its end");
+    }
+
+    /**
+     * Skips an exact number of bytes in a binary record, since a single skip may stop short.
+     * @param recordInput The stream to skip the bytes in
+     * @param count The number of bytes to skip
+     */
+    private static void skipFully(DataInputStream recordInput, int count) throws IOException {
+
+        for (int skipped = 0; skipped < count; ) {
+            int step = recordInput.skipBytes(count - skipped);
+            if (step <= 0) throw new EOFException("Truncated playerdata record");
+            skipped += step;
+        }
+    }
+
+    /**
+     * Writes the slots of an inventory into a binary record. Every item is stored as its raw NBT bytes, or as a
+     * reference to its blob if the {@link ItemBlobStore} is enabled.
+     * @param recordOutput The stream to write to
+     * @param items The items to write, or null
+     */
+    private static void writeSlots(DataOutputStream recordOutput, NBTTagCompound[] items) throws IOException {
+
+        recordOutput.writeInt(items != null ? items.length : -1);
+        if (items == null) return;
+
+        long encodeStart = System.nanoTime();
+        long encodedBytes = 0;
+        boolean useBlobStore = ItemBlobStore.INSTANCE.isEnabled();
+
+        for (NBTTagCompound item : items) {
+
+            byte[] itemBytes = SerializationUtils.nbtToBytes(item);
+            String reference = itemBytes != null && useBlobStore ? ItemBlobStore.INSTANCE.store(itemBytes) : null;
+            if (itemBytes != null) encodedBytes += itemBytes.length;
+
+            if (itemBytes == null) {
+                recordOutput.writeByte(SLOT_EMPTY);
+
+            } else if (reference != null) {
+                recordOutput.writeByte(SLOT_BLOB);
+                recordOutput.writeUTF(reference);
+
+            } else {
+                recordOutput.writeByte(SLOT_NBT);
+                recordOutput.writeInt(itemBytes.length);
+                recordOutput.write(itemBytes);
+            }
+        }
+
+        PlayerdataMetrics.ITEM_ENCODE.record(System.nanoTime() - encodeStart, encodedBytes);
+    }
+
+    /**
+     * Reads the slots of an inventory from a binary record. The slots are only read as they're stored (the raw NBT
+     * bytes or the blob references), and the items are decoded once the returned EncodedItems is asked to.
+     * @param recordInput The stream to read from
+     * @param recordFile The file being read, for the error messages
+     * @return The encoded items read, or null if none were written
+     */
+    private static PlayerDataHolder.EncodedItems readSlots(DataInputStream recordInput, File recordFile) throws IOException {
+
+        // A slot count of -1 stands for the items missing from the playerdata, so it's the only negative one allowed.
+        int slotCount = recordInput.readInt();
+        if (slotCount == -1) return null;
+        PlayerdataRecords.checkCount(recordInput, recordFile, slotCount, 1);
+
+        Object[] slots = new Object[slotCount];
+
+        for (int i = 0; i < slotCount; i++) {
+
+            byte tag = recordInput.readByte();
+
+            if (tag == SLOT_BLOB) {
+                slots[i] = recordInput.readUTF();
+
+            } else if (tag == SLOT_NBT) {
+                byte[] itemBytes = new byte[PlayerdataRecords.readCount(recordInput, recordFile, 1)];
+                recordInput.readFully(itemBytes);
+                slots[i] = itemBytes;
+
+            } else if (tag != SLOT_EMPTY) {
+                throw new IOException("Unknown slot tag " + tag);
+            }
+        }
+
+        return () -> {
+            long decodeStart = System.nanoTime();
+            long decodedBytes = 0;
+            ItemStack[] items = new ItemStack[slots.length];
+
+            for (int i = 0; i < slots.length; i++) {
+                if (slots[i] instanceof String) items[i] = ItemBlobStore.INSTANCE.load((String) slots[i]);
+                else if (slots[i] != null) items[i] = SerializationUtils.itemStackFromNBTBytes((byte[]) slots[i]);
+                if (slots[i] instanceof byte[]) decodedBytes += ((byte[]) slots[i]).length;
+            }
+
+            PlayerdataMetrics.ITEM_DECODE.record(System.nanoTime() - decodeStart, decodedBytes);
+            return items;
+        };
+    }
+}
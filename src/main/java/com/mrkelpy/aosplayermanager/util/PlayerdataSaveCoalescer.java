@@ -0,0 +1,126 @@
+package com.mrkelpy.aosplayermanager.util;
+
+import com.mrkelpy.aosplayermanager.AOSPlayerManager;
+import com.mrkelpy.aosplayermanager.configuration.AOSPlayerManagerConfig;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * This class coalesces the playerdata saves requested by high-frequency events (such as item pickups) so that
+ * a player is saved at most once per configured window, instead of once per event.
+ * <br>
+ * A save request only marks the player as dirty; the actual save happens when the window closes. This class is
+ * meant to be used from the main thread only.
+ */
+public class PlayerdataSaveCoalescer {
+
+    public static final PlayerdataSaveCoalescer INSTANCE = new PlayerdataSaveCoalescer();
+
+    private final HashMap<UUID, PendingSave> pendingSaves = new HashMap<>();
+    private long coalescedSaves;
+    private long flushedSaves;
+
+    /**
+     * Marks a player as dirty, scheduling a save for when the coalescing window closes. If a save is already
+     * scheduled for the player, this request is folded into it.
+     * <br>
+     * If the window is set to 0 ticks, the player is saved immediately.
+     * @param player The player to save the data for
+     */
+    public void requestSave(Player player) {
+
+        if (this.pendingSaves.containsKey(player.getUniqueId())) {
+            this.coalescedSaves++;
+            return;
+        }
+
+        long window = AOSPlayerManagerConfig.getConfig().getLong("general.save-coalescing-window-ticks");
+
+        if (window <= 0) {
+            this.flushedSaves++;
+            EventUtils.eventPlayerdataSave(player, player.getWorld().getName());
+            return;
+        }
+
+        BukkitTask task = Bukkit.getScheduler().runTaskLater(Bukkit.getPluginManager().getPlugin(AOSPlayerManager.PLUGIN_NAME),
+                () -> this.flush(player), window);
+
+        this.pendingSaves.put(player.getUniqueId(), new PendingSave(player, task));
+    }
+
+    /**
+     * Saves the data for a player right away if there's a save scheduled for them.
+     * @param player The player to flush the save for
+     */
+    public void flush(Player player) {
+
+        PendingSave pendingSave = this.pendingSaves.remove(player.getUniqueId());
+        if (pendingSave == null) return;
+
+        pendingSave.task.cancel();
+        if (!player.isOnline()) return;
+
+        this.flushedSaves++;
+        EventUtils.eventPlayerdataSave(player, player.getWorld().getName());
+    }
+
+    /**
+     * Saves the data for every player that has a save scheduled. This is meant to be used when the plugin is disabled.
+     */
+    public void flushAll() {
+        for (PendingSave pendingSave : new ArrayList<>(this.pendingSaves.values()))
+            this.flush(pendingSave.player);
+    }
+
+    /**
+     * Drops the scheduled save for a player without saving. This is meant to be used by the events that
+     * already save the player immediately (quit, death and world change), so the data isn't saved twice.
+     * @param player The player to drop the save for
+     */
+    public void discard(Player player) {
+
+        PendingSave pendingSave = this.pendingSaves.remove(player.getUniqueId());
+        if (pendingSave != null) pendingSave.task.cancel();
+    }
+
+    /**
+     * Clears the counts of coalesced and performed saves.
+     */
+    public void resetStats() {
+        this.coalescedSaves = 0;
+        this.flushedSaves = 0;
+    }
+
+    /**
+     * @return How many save requests were folded into an already scheduled save.
+     */
+    public long getCoalescedSaves() {
+        return this.coalescedSaves;
+    }
+
+    /**
+     * @return How many saves were actually performed by the coalescer.
+     */
+    public long getFlushedSaves() {
+        return this.flushedSaves;
+    }
+
+    /**
+     * Holds the player and the task for a scheduled save.
+     */
+    private static class PendingSave {
+
+        private final Player player;
+        private final BukkitTask task;
+
+        private PendingSave(Player player, BukkitTask task) {
+            this.player = player;
+            this.task = task;
+        }
+    }
+}
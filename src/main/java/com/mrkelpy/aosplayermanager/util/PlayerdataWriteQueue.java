@@ -0,0 +1,379 @@
+package com.mrkelpy.aosplayermanager.util;
+
+import com.mrkelpy.aosplayermanager.AOSPlayerManager;
+import com.mrkelpy.aosplayermanager.common.PlayerDataHolder;
+import com.mrkelpy.aosplayermanager.configuration.AOSPlayerManagerConfig;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * This class implements a write-behind queue for the playerdata files. The main thread only has to capture
+ * a PlayerDataHolder snapshot and hand it over, while the serialization and the disk I/O happen on a bounded pool of
+ * I/O threads, sized through the configuration file.
+ * <br>
+ * The writes are ordered per player, and only the newest snapshot pending for a file is ever written, so an older
+ * snapshot can never overwrite a newer one. Different players are written in parallel.
+ */
+public class PlayerdataWriteQueue {
+
+    public static final PlayerdataWriteQueue INSTANCE = new PlayerdataWriteQueue();
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+        Thread thread = new Thread(runnable, AOSPlayerManager.PLUGIN_NAME + " I/O #" + this.threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Holds the newest snapshot waiting to be written for every file path, until it is on disk.
+    private final ConcurrentHashMap<String, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<UUID, WriteLane> lanes = new ConcurrentHashMap<>();
+
+    // The writes submitted by the current thread while a batch is being collected, see collect(Runnable).
+    private final ThreadLocal<List<CompletableFuture<Boolean>>> batches = new ThreadLocal<>();
+
+    // How long the main thread spends capturing and handing over the snapshots, to keep an eye on the save cost.
+    private final AtomicLong captures = new AtomicLong();
+    private final AtomicLong captureNanos = new AtomicLong();
+
+    /**
+     * Reads the amount of I/O threads from the configuration file, and resizes the pool to it. If it isn't set to
+     * a positive amount, half of the available cores are used.
+     */
+    public void configure() {
+
+        int threads = AOSPlayerManagerConfig.getConfig().getInt("general.write-threads");
+        if (threads <= 0) threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+        // The core size can never be above the maximum size, so the order of the two depends on the way it's resized.
+        if (threads > this.executor.getMaximumPoolSize()) {
+            this.executor.setMaximumPoolSize(threads);
+            this.executor.setCorePoolSize(threads);
+        } else {
+            this.executor.setCorePoolSize(threads);
+            this.executor.setMaximumPoolSize(threads);
+        }
+    }
+
+    /**
+     * Queues a PlayerDataHolder snapshot to be written into the given file. If there's already a snapshot waiting
+     * to be written into that file, it gets replaced by this one.
+     * @param playerUUID The UUID of the player the snapshot belongs to
+     * @param file The file to write the snapshot to
+     * @param snapshot The snapshot to write
+     * @return A future completed with whether the write succeeded, once it's done
+     */
+    public CompletableFuture<Boolean> submit(UUID playerUUID, File file, PlayerDataHolder snapshot) {
+        return this.submit(playerUUID, file, snapshot, (target, data) ->
+                FileUtils.writeJson(target.getPath(), FileUtils.GSON.toJsonTree(data.serialize()).getAsJsonObject()));
+    }
+
+    /**
+     * Alternative for {@link #submit(UUID, File, PlayerDataHolder)} that takes in the writer used to store the snapshot,
+     * for when the snapshot isn't simply written as a JSON file. The file is then only used to identify the write.
+     * If the snapshot gets replaced before being written, so does the writer.
+     * @param playerUUID The UUID of the player the snapshot belongs to
+     * @param file The file identifying the write
+     * @param snapshot The snapshot to write
+     * @param writer The writer that stores the snapshot, run on an I/O thread
+     * @return A future completed with whether the write succeeded, once it's done. If the snapshot gets replaced
+     * before being written, the future follows the write of the snapshot that replaced it.
+     */
+    public CompletableFuture<Boolean> submit(UUID playerUUID, File file, PlayerDataHolder snapshot, SnapshotWriter writer) {
+
+        String filepath = file.getPath();
+        PendingWrite pendingWrite = new PendingWrite(file, snapshot, writer);
+        PendingWrite replacedWrite = this.pendingWrites.put(filepath, pendingWrite);
+        if (replacedWrite != null) pendingWrite.future.thenAccept(replacedWrite.future::complete);
+
+        List<CompletableFuture<Boolean>> batch = this.batches.get();
+        if (batch != null) batch.add(pendingWrite.future);
+
+        // A lane removes itself from the lanes once it runs out of writes, so one caught on its way out gets replaced.
+        WriteLane lane;
+        do lane = this.lanes.computeIfAbsent(playerUUID, WriteLane::new);
+        while (!lane.enqueue(filepath));
+        return pendingWrite.future;
+    }
+
+    /**
+     * Runs the given submissions on the current thread, collecting every write they submit into a batch, so that
+     * they can be waited on together. The writes themselves still go through the I/O threads as usual.
+     * @param submissions The code submitting the writes
+     * @return A future completed with the outcome of the batch, once every write in it is done
+     */
+    public CompletableFuture<BatchResult> collect(Runnable submissions) {
+
+        List<CompletableFuture<Boolean>> batch = new ArrayList<>();
+        this.batches.set(batch);
+
+        try {
+            submissions.run();
+        } finally {
+            this.batches.remove();
+        }
+
+        return CompletableFuture.allOf(batch.toArray(new CompletableFuture[0])).thenApply(done -> {
+            int completed = (int) batch.stream().filter(CompletableFuture::join).count();
+            return new BatchResult(completed, batch.size() - completed);
+        });
+    }
+
+    /**
+     * Drops the snapshot waiting to be written into the given file, if any. A write that already started isn't stopped.
+     * The future of a dropped write is completed as unsuccessful, since it never makes it to the disk.
+     * @param file The file to drop the pending write for
+     */
+    public void cancel(File file) {
+        PendingWrite pendingWrite = this.pendingWrites.remove(file.getPath());
+        if (pendingWrite != null) pendingWrite.future.complete(false);
+    }
+
+    /**
+     * Returns the snapshot that is still waiting to be written into the given file, if any. This is what
+     * allows the readers to see the data that was saved, but isn't on the disk yet.
+     * @param file The file to check for
+     * @return The pending snapshot, or null if there's none
+     */
+    public PlayerDataHolder getPending(File file) {
+        PendingWrite pendingWrite = this.pendingWrites.get(file.getPath());
+        return pendingWrite != null ? pendingWrite.snapshot : null;
+    }
+
+    /**
+     * Returns the writer of the snapshot that is still waiting to be written into the given file, if any. This allows
+     * a write that only changes part of the file to be chained after the one it replaces.
+     * @param file The file to check for
+     * @return The pending writer, or null if there's none
+     */
+    public SnapshotWriter getPendingWriter(File file) {
+        PendingWrite pendingWrite = this.pendingWrites.get(file.getPath());
+        return pendingWrite != null ? pendingWrite.writer : null;
+    }
+
+    /**
+     * @return Every snapshot that is still waiting to be written, in no particular order.
+     */
+    public List<PlayerDataHolder> getPendingSnapshots() {
+        return this.pendingWrites.values().stream().map(pendingWrite -> pendingWrite.snapshot).collect(Collectors.toList());
+    }
+
+    /**
+     * Records how long it took the main thread to capture a snapshot and submit it.
+     * @param nanos The time taken, in nanoseconds
+     */
+    public void recordCapture(long nanos) {
+        this.captures.incrementAndGet();
+        this.captureNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Clears the capture timings.
+     */
+    public void resetStats() {
+        this.captures.set(0);
+        this.captureNanos.set(0);
+    }
+
+    public long getCaptures() {
+        return this.captures.get();
+    }
+
+    /**
+     * @return The average time the main thread spent capturing and submitting a snapshot, in milliseconds.
+     */
+    public double getAverageCaptureMillis() {
+        long captureCount = this.captures.get();
+        return captureCount > 0 ? this.captureNanos.get() / (double) captureCount / 1000000 : 0;
+    }
+
+    /**
+     * Stops accepting work into the executor and waits for every pending write to be done. Anything submitted
+     * after this point gets written synchronously by the caller.
+     * @param timeoutMillis The maximum amount of time to wait for, in milliseconds
+     */
+    public void shutdown(long timeoutMillis) {
+
+        AOSPlayerManager.LOGGER.info("Flushing " + this.pendingWrites.size() + " pending playerdata writes");
+        this.executor.shutdown();
+
+        try {
+            if (!this.executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS))
+                AOSPlayerManager.LOGGER.warning("Timed out with " + this.pendingWrites.size() + " playerdata writes left to flush");
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Serializes the newest snapshot pending for a file path and writes it into the file.
+     * @param filepath The path of the file to write
+     */
+    private void writeSnapshot(String filepath) {
+
+        PendingWrite pendingWrite = this.pendingWrites.get(filepath);
+        if (pendingWrite == null) return;
+
+        boolean written = false;
+
+        try {
+            written = pendingWrite.writer.write(pendingWrite.file, pendingWrite.snapshot);
+
+        } catch (RuntimeException e) {
+            AOSPlayerManager.LOGGER.warning("Failed to write playerdata to file " + filepath);
+            e.printStackTrace();
+
+        } finally {
+            // Only forget about the snapshot if no newer one was submitted while this one was being written.
+            this.pendingWrites.remove(filepath, pendingWrite);
+            pendingWrite.future.complete(written);
+        }
+    }
+
+    /**
+     * Stores a snapshot somewhere on the disk. This is run on an I/O thread.
+     */
+    @FunctionalInterface
+    public interface SnapshotWriter {
+
+        /**
+         * @param file The file identifying the write
+         * @param snapshot The snapshot to store
+         * @return Whether the snapshot was stored
+         */
+        boolean write(File file, PlayerDataHolder snapshot);
+    }
+
+    /**
+     * Holds the outcome of a batch of writes collected through {@link #collect(Runnable)}.
+     */
+    public static class BatchResult {
+
+        private final int completed;
+        private final int failed;
+
+        private BatchResult(int completed, int failed) {
+            this.completed = completed;
+            this.failed = failed;
+        }
+
+        public int getCompleted() {
+            return this.completed;
+        }
+
+        public int getFailed() {
+            return this.failed;
+        }
+
+        /**
+         * @return The amount of writes submitted in the batch, whether they completed or failed.
+         */
+        public int getSubmitted() {
+            return this.completed + this.failed;
+        }
+    }
+
+    /**
+     * Holds a snapshot waiting to be written, alongside the writer that stores it.
+     */
+    private static class PendingWrite {
+
+        private final File file;
+        private final PlayerDataHolder snapshot;
+        private final SnapshotWriter writer;
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        private PendingWrite(File file, PlayerDataHolder snapshot, SnapshotWriter writer) {
+            this.file = file;
+            this.snapshot = snapshot;
+            this.writer = writer;
+        }
+    }
+
+    /**
+     * Represents the ordered writes for a single player. A lane only ever has one task running in the
+     * executor at a time, which is what keeps the writes for a player in order. Once a lane runs out of writes,
+     * it's removed from the lanes, so that the players who left don't keep theirs around.
+     */
+    private class WriteLane implements Runnable {
+
+        private final UUID playerUUID;
+        private final LinkedHashSet<String> queuedPaths = new LinkedHashSet<>();
+        private boolean scheduled;
+        private boolean removed;
+
+        private WriteLane(UUID playerUUID) {
+            this.playerUUID = playerUUID;
+        }
+
+        /**
+         * Adds a file path into the lane, and schedules the lane to run if it isn't already.
+         * A path that is already queued keeps its place, since the newest snapshot is only picked at write time.
+         * @param filepath The path of the file to write
+         * @return Whether the path was added, which it isn't if the lane was already removed from the lanes
+         */
+        boolean enqueue(String filepath) {
+
+            synchronized (this) {
+                if (this.removed) return false;
+                this.queuedPaths.add(filepath);
+                if (this.scheduled) return true;
+                this.scheduled = true;
+            }
+
+            // If the executor was already shut down, the write happens right here, synchronously.
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                this.run();
+            }
+
+            return true;
+        }
+
+        /**
+         * Takes the next path out of the lane, removing the lane from the lanes if there's none left. This happens
+         * while holding the lane, so a path is either taken by this lane or enqueued into the one that replaces it.
+         * @return The next file path to write, or null if the lane is empty
+         */
+        private synchronized String poll() {
+
+            Iterator<String> iterator = this.queuedPaths.iterator();
+
+            if (!iterator.hasNext()) {
+                this.scheduled = false;
+                this.removed = true;
+                lanes.remove(this.playerUUID, this);
+                return null;
+            }
+
+            String filepath = iterator.next();
+            iterator.remove();
+            return filepath;
+        }
+
+        /**
+         * Writes every path in the lane until it's empty.
+         */
+        @Override
+        public void run() {
+            String filepath;
+            while ((filepath = this.poll()) != null) writeSnapshot(filepath);
+        }
+    }
+}
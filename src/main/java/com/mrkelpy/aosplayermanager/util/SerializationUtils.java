@@ -15,6 +15,9 @@ import org.yaml.snakeyaml.external.biz.base64Coder.Base64Coder;
 
 import java.io.*;
 import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Objects;
 
 /**
  * This class implements a series of methods useful for serializing/deserializing objects used
@@ -22,33 +25,190 @@ import java.math.BigInteger;
  */
 public class SerializationUtils {
 
+    private static final String NBT_TEXT_PREFIX = "b:";
+    private static final char[] BASE64_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final ThreadLocal<ItemBuffer> ITEM_BUFFERS = ThreadLocal.withInitial(ItemBuffer::new);
+
     /**
      * Converts an ItemStack into a sign-magnitude string of base32. This is a type of serialization that not only is smaller
      * than just serializing the inventory to JSON, but also cleaner, and one that retains all the information.
+     * <br>
+     * This is the original item encoding, which is kept so that it's still understood; new data is written
+     * through {@link #itemStackToText(ItemStack)} instead.
      *
      * @param item The ItemStack to convert.
      * @return A sign-magnitude string of base32 string representing the ItemStack.
      */
     public static String itemStackToMagBase32(ItemStack item) {
 
-        // Opens a ByteArrayOutputStream and a DataOutputStream to write the data into.
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-             DataOutputStream dataOutput = new DataOutputStream(outputStream)) {
+        byte[] itemBytes = SerializationUtils.itemStackToNBTBytes(item);
 
-            // Converts the ItemStack into an NMS copy (Thus preserving all the NBT data) and saves it into the DataOutputStream.
-            net.minecraft.server.v1_7_R4.ItemStack nmsItem = CraftItemStack.asNMSCopy(item);
-            NBTCompressedStreamTools.a(nmsItem.save(new NBTTagCompound()), (DataOutput) dataOutput);
+        // Encode the bytearray into a sign-magnitude integer, and convert it to a base32 string.
+        // We can't use base64 here because the number of bits would not be enough to decode later.
+        return itemBytes != null ? new BigInteger(1, itemBytes).toString(32) : null;
+    }
 
-            // Encode the bytearray from the DataOutputStream into a sign-magnitude integer, and convert it to a base32 string.
-            // We can't use base64 here because the number of bits would not be enough to decode later.
-            return new BigInteger(1, outputStream.toByteArray()).toString(32);
+    /**
+     * Converts an ItemStack into a text string, as its NBT bytes encoded in base64 behind a "b:" prefix. Unlike
+     * {@link #itemStackToMagBase32(ItemStack)}, this takes linear time, keeps leading zero bytes as they are, and
+     * reuses a per-thread buffer for the NBT stream and the text, so the only allocation left is the string itself.
+     *
+     * @param item The ItemStack to convert.
+     * @return A text string representing the ItemStack, or null if it can't be converted (such as an empty slot).
+     */
+    public static String itemStackToText(ItemStack item) {
 
-        } catch (IOException | NullPointerException e) {
-            // If an error occurs for some reason, just return null.
+        ItemBuffer itemBuffer = ITEM_BUFFERS.get();
+        if (!itemBuffer.write(item)) return null;
+
+        return itemBuffer.toText();
+    }
+
+    /**
+     * Converts the raw NBT bytes of an item into the text string used by {@link #itemStackToText(ItemStack)}.
+     *
+     * @param itemBytes The NBT bytes of the item.
+     * @return A text string representing the item.
+     */
+    public static String nbtBytesToText(byte[] itemBytes) {
+        return NBT_TEXT_PREFIX + Base64.getEncoder().encodeToString(itemBytes);
+    }
+
+    /**
+     * Converts a text string into an ItemStack. This understands both the strings created by
+     * {@link #itemStackToText(ItemStack)} and the older base32 strings created by {@link #itemStackToMagBase32(ItemStack)}.
+     *
+     * @param data The text string to convert.
+     * @return The ItemStack represented by the text string, or null if it can't be converted.
+     */
+    public static ItemStack itemStackFromText(String data) {
+
+        if (!data.startsWith(NBT_TEXT_PREFIX)) return SerializationUtils.itemStackFromMagBase32(data);
+
+        try {
+            return SerializationUtils.itemStackFromNBTBytes(Base64.getDecoder().decode(data.substring(NBT_TEXT_PREFIX.length())));
+        } catch (IllegalArgumentException e) {
             return null;
         }
     }
 
+    /**
+     * Converts an ItemStack into the raw bytes of its NBT compound, preserving all the NBT data.
+     *
+     * @param item The ItemStack to convert.
+     * @return The NBT bytes of the ItemStack, or null if it can't be converted (such as an empty slot).
+     */
+    public static byte[] itemStackToNBTBytes(ItemStack item) {
+
+        ItemBuffer itemBuffer = ITEM_BUFFERS.get();
+        return itemBuffer.write(item) ? itemBuffer.toByteArray() : null;
+    }
+
+    /**
+     * Converts an ItemStack into its NBT compound. The compound is built from an NMS copy of the item, so it doesn't
+     * share anything with the original, and can be handed to another thread.
+     *
+     * @param item The ItemStack to convert.
+     * @return The NBT compound of the ItemStack, or null if it can't be converted (such as an empty slot).
+     */
+    public static NBTTagCompound itemStackToNBT(ItemStack item) {
+
+        if (item == null) return null;
+
+        try {
+            // Converts the ItemStack into an NMS copy (Thus preserving all the NBT data) and saves it into a compound.
+            net.minecraft.server.v1_7_R4.ItemStack nmsItem = CraftItemStack.asNMSCopy(item);
+            return nmsItem != null ? nmsItem.save(new NBTTagCompound()) : null;
+
+        } catch (NullPointerException e) {
+            // If an error occurs for some reason, treat it as an empty item.
+            return null;
+        }
+    }
+
+    /**
+     * Converts an NBT compound created by {@link #itemStackToNBT(ItemStack)} back into an ItemStack.
+     *
+     * @param itemData The NBT compound to convert.
+     * @return The ItemStack represented by the NBT compound, or null for an empty slot.
+     */
+    public static ItemStack itemStackFromNBT(NBTTagCompound itemData) {
+
+        if (itemData == null) return null;
+        return CraftItemStack.asBukkitCopy(net.minecraft.server.v1_7_R4.ItemStack.createStack(itemData));
+    }
+
+    /**
+     * Converts every item in an itemStack[] into its NBT compound, through {@link #itemStackToNBT(ItemStack)}.
+     *
+     * @param stackArray The itemStack[] to convert.
+     * @return The NBT compounds of every slot, or null if the itemStack[] is null.
+     */
+    public static NBTTagCompound[] itemStackArrayToNBT(ItemStack[] stackArray) {
+
+        if (stackArray == null) return null;
+
+        NBTTagCompound[] nbtArray = new NBTTagCompound[stackArray.length];
+        for (int i = 0; i < stackArray.length; i++)
+            nbtArray[i] = SerializationUtils.itemStackToNBT(stackArray[i]);
+
+        return nbtArray;
+    }
+
+    /**
+     * Converts every NBT compound created by {@link #itemStackArrayToNBT(ItemStack[])} back into an ItemStack.
+     *
+     * @param nbtArray The NBT compounds to convert.
+     * @return The ItemStacks of every slot, or null if the array is null.
+     */
+    public static ItemStack[] itemStackArrayFromNBT(NBTTagCompound[] nbtArray) {
+
+        if (nbtArray == null) return null;
+
+        ItemStack[] stackArray = new ItemStack[nbtArray.length];
+        for (int i = 0; i < nbtArray.length; i++)
+            stackArray[i] = SerializationUtils.itemStackFromNBT(nbtArray[i]);
+
+        return stackArray;
+    }
+
+    /**
+     * Converts the NBT compound of an item into the text string used by {@link #itemStackToText(ItemStack)}.
+     *
+     * @param itemData The NBT compound to convert.
+     * @return The text string, or null for an empty slot.
+     */
+    public static String nbtToText(NBTTagCompound itemData) {
+
+        ItemBuffer itemBuffer = ITEM_BUFFERS.get();
+        return itemBuffer.write(itemData) ? itemBuffer.toText() : null;
+    }
+
+    /**
+     * Converts the NBT compound of an item into its raw bytes, as they'd come out of {@link #itemStackToNBTBytes(ItemStack)}.
+     *
+     * @param itemData The NBT compound to convert.
+     * @return The NBT bytes, or null for an empty slot.
+     */
+    public static byte[] nbtToBytes(NBTTagCompound itemData) {
+
+        ItemBuffer itemBuffer = ITEM_BUFFERS.get();
+        return itemBuffer.write(itemData) ? itemBuffer.toByteArray() : null;
+    }
+
+    /**
+     * Computes a 64-bit fingerprint of the NBT compound of an item from its bytes, without keeping the bytes around. Two
+     * items with the same NBT data always have the same fingerprint, which is what allows detecting unchanged inventories.
+     *
+     * @param itemData The NBT compound to fingerprint.
+     * @return The fingerprint of the item, or 0 for an empty slot.
+     */
+    public static long nbtFingerprint(NBTTagCompound itemData) {
+
+        ItemBuffer itemBuffer = ITEM_BUFFERS.get();
+        return itemBuffer.write(itemData) ? itemBuffer.fingerprint() : 0;
+    }
+
     /**
      * Converts a sign-magnitude string of base32 into an ItemStack. This method expects a base32 string coming from
      * {@link #itemStackToMagBase32(ItemStack)}.
@@ -57,9 +217,20 @@ public class SerializationUtils {
      * @return The ItemStack represented by the base32 string.
      */
     public static ItemStack itemStackFromMagBase32(String data) {
+        return SerializationUtils.itemStackFromNBTBytes(new BigInteger(data, 32).toByteArray());
+    }
 
-        // Opens a ByteArrayInputStream and a DataInputStream to read the bytes from the base32 string.
-        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(new BigInteger(data, 32).toByteArray());
+    /**
+     * Converts the raw bytes of an NBT compound into an ItemStack. This method expects the bytes coming from
+     * {@link #itemStackToNBTBytes(ItemStack)}.
+     *
+     * @param itemBytes The NBT bytes to convert.
+     * @return The ItemStack represented by the NBT bytes.
+     */
+    public static ItemStack itemStackFromNBTBytes(byte[] itemBytes) {
+
+        // Opens a ByteArrayInputStream and a DataInputStream to read the NBT bytes.
+        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(itemBytes);
              DataInputStream dataInput = new DataInputStream(inputStream)) {
 
             // Reads the data from the DataInputStream, in the form of an NBT compound, and creates an ItemStack from it.
@@ -83,27 +254,111 @@ public class SerializationUtils {
      * @return A base64 string representing the ItemStack[].
      */
     public static String itemStackArrayToBase64(ItemStack[] stackArray) {
+        return SerializationUtils.magBase32ArrayToBase64(SerializationUtils.itemStackArrayToMagBase32(stackArray));
+    }
 
-        // Open a ByteArrayOutputStream and an ObjectOutputStream to write the data into.
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-             BukkitObjectOutputStream dataOutput = new BukkitObjectOutputStream(outputStream)) {
+    /**
+     * Alternative for {@link #itemStackArrayToBase64(ItemStack[])} that takes in the NBT compounds of the items.
+     *
+     * @param nbtArray The NBT compounds to convert.
+     * @return A base64 string representing the items.
+     */
+    public static String nbtArrayToBase64(NBTTagCompound[] nbtArray) {
+        return SerializationUtils.magBase32ArrayToBase64(SerializationUtils.nbtArrayToMagBase32(nbtArray));
+    }
+
+    /**
+     * Converts a base64 string into an itemStack[]. This is a shortcut for manually converting each item through
+     * {@link #itemStackFromMagBase32(String)}, and is meant to be used with inventories.
+     *
+     * @param data The base64 string to convert.
+     * @return The ItemStack[] represented by the base64 string.
+     */
+    public static ItemStack[] itemStackArrayFromBase64(String data) {
 
-            dataOutput.writeInt(stackArray.length);  // Write the size of the inventory into the stream, so it can be decoded later
+        long decodeStart = System.nanoTime();
+        String[] magBase32Array = SerializationUtils.magBase32ArrayFromBase64(data);
+        if (magBase32Array == null) return null;
 
-            // Loop through each item in the inventory and convert it to a base32 string.
-            for (ItemStack itemStack : stackArray) {
-                String base64ItemStack = SerializationUtils.itemStackToMagBase32(itemStack);
+        // Loop through each item in the inventory and convert them from a base32 string, or load them from the blob store.
+        ItemStack[] inventoryContents = new ItemStack[magBase32Array.length];
 
-                // Check if the base32 string is null and if not, write it to the stream.
-                if (base64ItemStack != null) {
-                    dataOutput.writeObject(base64ItemStack);
-                    continue;
-                }
+        for (int i = 0; inventoryContents.length > i; i++) {
+            if (magBase32Array[i] == null) continue;
 
-                // Writes a null string to the stream if the base64 string is null.
-                dataOutput.writeObject(null);
+            inventoryContents[i] = ItemBlobStore.isReference(magBase32Array[i])
+                    ? ItemBlobStore.INSTANCE.load(magBase32Array[i])
+                    : SerializationUtils.itemStackFromText(magBase32Array[i]);
+        }
+
+        PlayerdataMetrics.ITEM_DECODE.record(System.nanoTime() - decodeStart, data.length());
+        return inventoryContents;
+    }
+
+    /**
+     * Converts every item in an itemStack[] into a text string, through {@link #itemStackToText(ItemStack)}.
+     * If the {@link ItemBlobStore} is enabled, the items are stored in it instead, and their slots hold a reference to the blob.
+     * Empty slots are kept as null.
+     *
+     * @param stackArray The itemStack[] to convert.
+     * @return The text strings (or blob references) representing every slot of the ItemStack[].
+     */
+    public static String[] itemStackArrayToMagBase32(ItemStack[] stackArray) {
+        return SerializationUtils.nbtArrayToMagBase32(SerializationUtils.itemStackArrayToNBT(stackArray));
+    }
+
+    /**
+     * Alternative for {@link #itemStackArrayToMagBase32(ItemStack[])} that takes in the NBT compounds of the items,
+     * which skips copying the items again when they were already captured as NBT.
+     *
+     * @param nbtArray The NBT compounds to convert.
+     * @return The text strings (or blob references) representing every slot.
+     */
+    public static String[] nbtArrayToMagBase32(NBTTagCompound[] nbtArray) {
+
+        long encodeStart = System.nanoTime();
+        String[] magBase32Array = new String[nbtArray.length];
+        boolean useBlobStore = ItemBlobStore.INSTANCE.isEnabled();
+
+        for (int i = 0; i < nbtArray.length; i++) {
+
+            if (!useBlobStore) {
+                magBase32Array[i] = SerializationUtils.nbtToText(nbtArray[i]);
+                continue;
             }
 
+            byte[] itemBytes = SerializationUtils.nbtToBytes(nbtArray[i]);
+            if (itemBytes == null) continue;
+
+            // If the blob can't be written, the item is embedded as text instead.
+            String reference = ItemBlobStore.INSTANCE.store(itemBytes);
+            magBase32Array[i] = reference != null ? reference : SerializationUtils.nbtBytesToText(itemBytes);
+        }
+
+        PlayerdataMetrics.ITEM_ENCODE.record(System.nanoTime() - encodeStart,
+                Arrays.stream(magBase32Array).filter(Objects::nonNull).mapToLong(String::length).sum());
+        return magBase32Array;
+    }
+
+    /**
+     * Packs the base32 strings of every slot of an inventory into a single base64 string, in the format
+     * read by {@link #itemStackArrayFromBase64(String)}.
+     *
+     * @param magBase32Array The base32 strings to pack.
+     * @return A base64 string representing the inventory.
+     */
+    public static String magBase32ArrayToBase64(String[] magBase32Array) {
+
+        // Open a ByteArrayOutputStream and an ObjectOutputStream to write the data into.
+        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+             BukkitObjectOutputStream dataOutput = new BukkitObjectOutputStream(outputStream)) {
+
+            dataOutput.writeInt(magBase32Array.length);  // Write the size of the inventory into the stream, so it can be decoded later
+
+            // Write every base32 string into the stream, or a null string for the empty slots.
+            for (String magBase32Item : magBase32Array)
+                dataOutput.writeObject(magBase32Item);
+
             dataOutput.close();
             // Return the base64 string of the inventory. We can use base64 here, since everything is pretty much already handled
             // by the Mag32 strings, so let's do it.
@@ -117,32 +372,26 @@ public class SerializationUtils {
     }
 
     /**
-     * Converts a base64 string into an itemStack[]. This is a shortcut for manually converting each item through
-     * {@link #itemStackFromMagBase32(String)}, and is meant to be used with inventories.
+     * Unpacks a base64 string created by {@link #magBase32ArrayToBase64(String[])} back into the base32 strings
+     * of every slot, without converting them into items.
      *
-     * @param data The base64 string to convert.
-     * @return The ItemStack[] represented by the base64 string.
+     * @param data The base64 string to unpack.
+     * @return The base32 strings of every slot, or null if the data can't be unpacked.
      */
-    public static ItemStack[] itemStackArrayFromBase64(String data) {
+    public static String[] magBase32ArrayFromBase64(String data) {
 
         // Open a ByteArrayInputStream and an ObjectInputStream to read the data from the base64 string.
         try (ByteArrayInputStream inputStream = new ByteArrayInputStream(Base64Coder.decodeLines(data));
              BukkitObjectInputStream dataInput = new BukkitObjectInputStream(inputStream)) {
 
-            // Read the size of the inventory from the stream, and create an instance of PlayerInventory with that size.
-            ItemStack[] inventoryContents = new ItemStack[dataInput.readInt()];
+            // Read the size of the inventory from the stream, and read that many slots from it.
+            String[] magBase32Array = new String[dataInput.readInt()];
 
-            // Loop through each item in the inventory and convert them from a base64 string.
-            for (int i = 0; inventoryContents.length > i; i++) {
-                Object base64Data = dataInput.readObject();
-
-                // If the itemStack is not null, set the item in the inventory at the current index to the itemStack.
-                if (base64Data != null)
-                    inventoryContents[i] = SerializationUtils.itemStackFromMagBase32((String) base64Data);
-            }
+            for (int i = 0; magBase32Array.length > i; i++)
+                magBase32Array[i] = (String) dataInput.readObject();
 
             dataInput.close();
-            return inventoryContents;
+            return magBase32Array;
 
         } catch (IOException | ClassNotFoundException e) {
             // If an error occurs for some reason, just log it as a warning and return null.
@@ -227,6 +476,92 @@ public class SerializationUtils {
 
         return entityNBT;
     }
-}
 
+    /**
+     * Holds the buffers reused by a thread to encode items: the NBT stream is written straight into a byte buffer,
+     * and its text form into a char buffer, so neither has to be allocated for every item.
+     */
+    private static class ItemBuffer extends ByteArrayOutputStream {
+
+        // Buffers that grew past this size for an unusually big item are dropped, so they aren't held onto forever.
+        private static final int RETAINED_CAPACITY = 64 * 1024;
+
+        private final DataOutputStream dataOutput = new DataOutputStream(this);
+        private char[] textBuffer = new char[1024];
+
+        /**
+         * Writes the NBT compound of an item into the buffer, replacing whatever was in it.
+         * @param item The item to write
+         * @return Whether the item was written, which it isn't if it's empty
+         */
+        boolean write(ItemStack item) {
+            return this.write(SerializationUtils.itemStackToNBT(item));
+        }
+
+        /**
+         * Writes an NBT compound into the buffer, replacing whatever was in it.
+         * @param itemData The NBT compound of the item to write
+         * @return Whether the item was written, which it isn't if it's empty
+         */
+        boolean write(NBTTagCompound itemData) {
+
+            if (itemData == null) return false;
+            if (this.buf.length > RETAINED_CAPACITY) this.buf = new byte[32];
+            this.reset();
+
+            try {
+                NBTCompressedStreamTools.a(itemData, (DataOutput) this.dataOutput);
+                return true;
+
+            } catch (IOException | NullPointerException e) {
+                // If an error occurs for some reason, treat it as an empty item.
+                return false;
+            }
+        }
+
+        /**
+         * Hashes the bytes in the buffer with 64-bit FNV-1a.
+         * @return The fingerprint of the bytes
+         */
+        long fingerprint() {
+
+            long hash = 0xCBF29CE484222325L;
+
+            for (int i = 0; i < this.count; i++)
+                hash = (hash ^ (this.buf[i] & 0xFF)) * 0x100000001B3L;
+
+            return hash;
+        }
+
+        /**
+         * Encodes the bytes in the buffer into base64, behind the text prefix.
+         * @return The text string
+         */
+        String toText() {
+
+            int textLength = NBT_TEXT_PREFIX.length() + (this.count + 2) / 3 * 4;
+            if (this.textBuffer.length < textLength) this.textBuffer = new char[Math.max(textLength, this.textBuffer.length * 2)];
+            if (this.textBuffer.length > RETAINED_CAPACITY && textLength <= 1024) this.textBuffer = new char[1024];
+
+            char[] text = this.textBuffer;
+            NBT_TEXT_PREFIX.getChars(0, NBT_TEXT_PREFIX.length(), text, 0);
+            int position = NBT_TEXT_PREFIX.length();
+
+            // Every 3 bytes become 4 characters, with the last group padded out with '='.
+            for (int i = 0; i < this.count; i += 3) {
+
+                int remaining = this.count - i;
+                int group = (this.buf[i] & 0xFF) << 16
+                        | (remaining > 1 ? (this.buf[i + 1] & 0xFF) << 8 : 0)
+                        | (remaining > 2 ? this.buf[i + 2] & 0xFF : 0);
 
+                text[position++] = BASE64_ALPHABET[(group >> 18) & 0x3F];
+                text[position++] = BASE64_ALPHABET[(group >> 12) & 0x3F];
+                text[position++] = remaining > 1 ? BASE64_ALPHABET[(group >> 6) & 0x3F] : '=';
+                text[position++] = remaining > 2 ? BASE64_ALPHABET[group & 0x3F] : '=';
+            }
+
+            return new String(text, 0, position);
+        }
+    }
+}
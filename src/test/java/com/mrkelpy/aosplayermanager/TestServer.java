@@ -0,0 +1,55 @@
+package com.mrkelpy.aosplayermanager;
+
+import com.mrkelpy.aosplayermanager.util.ManagedWorldRegistry;
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.logging.Logger;
+
+/**
+ * This class sets up just enough of a server for the storage code to run outside of one, in the tests and the
+ * benchmarks: a Bukkit server that only answers with its logger (which {@link AOSPlayerManager#LOGGER} comes from),
+ * and a level list's directory inside a temporary directory.
+ */
+public class TestServer {
+
+    private static final Logger LOGGER = Logger.getLogger(AOSPlayerManager.PLUGIN_NAME);
+    private static boolean installed;
+
+    /**
+     * Installs the Bukkit server, if it isn't installed yet. Bukkit only takes a server once per JVM.
+     */
+    public static synchronized void install() {
+
+        if (installed) return;
+
+        Server server = (Server) Proxy.newProxyInstance(Server.class.getClassLoader(), new Class<?>[] {Server.class}, (proxy, method, args) -> {
+            if (method.getName().equals("getLogger")) return LOGGER;
+            if (method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+            if (method.getName().equals("equals")) return proxy == args[0];
+            if (method.getReturnType() == String.class) return "Test";
+            throw new UnsupportedOperationException(method.getName() + " isn't available outside of a server");
+        });
+
+        Bukkit.setServer(server);
+        installed = true;
+    }
+
+    /**
+     * Installs the Bukkit server, and points the level list's directory at a new temporary directory, so that
+     * everything the plugin stores ends up inside of it.
+     * @return The level list's directory
+     */
+    public static File useTemporaryStorage() throws IOException {
+
+        TestServer.install();
+
+        File levelListDirectory = Files.createTempDirectory("aosplayermanager").toFile();
+        ManagedWorldRegistry.INSTANCE.populate(levelListDirectory);
+        return levelListDirectory;
+    }
+}
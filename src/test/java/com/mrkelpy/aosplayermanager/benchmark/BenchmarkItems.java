@@ -0,0 +1,173 @@
+package com.mrkelpy.aosplayermanager.benchmark;
+
+import com.mrkelpy.aosplayermanager.common.PartialLocation;
+import com.mrkelpy.aosplayermanager.common.PlayerDataHolder;
+import com.mrkelpy.aosplayermanager.common.SimplePotionEffect;
+import net.minecraft.server.v1_7_R4.NBTTagCompound;
+import net.minecraft.server.v1_7_R4.NBTTagList;
+import net.minecraft.server.v1_7_R4.NBTTagString;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+
+/**
+ * This class builds the items used by the benchmarks, straight as the NBT compounds the plugin captures, so that
+ * the benchmarks don't need a running server or the item registry.
+ * <br>
+ * The benchmarks are JMH benchmarks, and are run from the test classpath with:
+ * <pre>
+ * mvn test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test \
+ *     -Dexec.args="-cp %classpath org.openjdk.jmh.Main -prof gc ItemCodecBenchmark"
+ * </pre>
+ * Leaving the benchmark name out runs every one of them, and "-prof gc" adds the allocation rate of every call.
+ */
+public class BenchmarkItems {
+
+    public static final int INVENTORY_SIZE = 36;
+    public static final int ARMOUR_SIZE = 4;
+
+    /**
+     * Builds an enchanted vanilla item, with a custom name and lore, like the gear players usually carry around.
+     * @param seed Changes the values, so that the items of an inventory aren't all the same
+     * @return The NBT compound of the item
+     */
+    public static NBTTagCompound enchantedItem(int seed) {
+
+        NBTTagCompound tag = new NBTTagCompound();
+        NBTTagList enchantments = new NBTTagList();
+
+        for (int i = 0; i < 5; i++) {
+            NBTTagCompound enchantment = new NBTTagCompound();
+            enchantment.setShort("id", (short) (16 + i));
+            enchantment.setShort("lvl", (short) (1 + (seed + i) % 5));
+            enchantments.add(enchantment);
+        }
+
+        NBTTagCompound display = new NBTTagCompound();
+        NBTTagList lore = new NBTTagList();
+        lore.add(new NBTTagString("Forged in the depths of level " + seed));
+        lore.add(new NBTTagString("Soulbound"));
+        display.setString("Name", "Blade of the Fallen #" + seed);
+        display.set("Lore", lore);
+
+        tag.set("ench", enchantments);
+        tag.set("display", display);
+        tag.setInt("RepairCost", 7);
+
+        return BenchmarkItems.item((short) 276, (byte) 1, (short) (seed % 1561), tag);
+    }
+
+    /**
+     * Builds a modded item, holding the kind of bulky NBT data the mods on these servers store inside their items
+     * (energy, upgrades, stored contents and a block of raw data).
+     * @param seed Changes the values, so that the items of an inventory aren't all the same
+     * @return The NBT compound of the item
+     */
+    public static NBTTagCompound moddedItem(int seed) {
+
+        NBTTagCompound tag = new NBTTagCompound();
+        NBTTagCompound modData = new NBTTagCompound();
+        NBTTagList upgrades = new NBTTagList();
+        NBTTagList storedItems = new NBTTagList();
+
+        for (int i = 0; i < 8; i++) {
+            NBTTagCompound upgrade = new NBTTagCompound();
+            upgrade.setString("type", "upgrade_" + (seed + i) % 12);
+            upgrade.setInt("tier", i % 4);
+            upgrade.setBoolean("active", i % 2 == 0);
+            upgrades.add(upgrade);
+        }
+
+        for (int i = 0; i < 16; i++) {
+            NBTTagCompound storedItem = new NBTTagCompound();
+            storedItem.setShort("id", (short) (4096 + (seed * 7 + i) % 512));
+            storedItem.setByte("Count", (byte) (1 + i % 64));
+            storedItem.setByte("Slot", (byte) i);
+            storedItems.add(storedItem);
+        }
+
+        int[] energyHistory = new int[64];
+        byte[] rawData = new byte[256];
+
+        for (int i = 0; i < energyHistory.length; i++) energyHistory[i] = seed * 1000 + i * 37;
+        for (int i = 0; i < rawData.length; i++) rawData[i] = (byte) (seed * 31 + i);
+
+        modData.setLong("Energy", 1000000L + seed);
+        modData.setString("Owner", "00000000-0000-0000-0000-00000000000" + seed % 10);
+        modData.set("Upgrades", upgrades);
+        modData.set("Items", storedItems);
+        modData.setIntArray("EnergyHistory", energyHistory);
+        modData.setByteArray("Data", rawData);
+
+        tag.set("ForgeData", modData);
+        return BenchmarkItems.item((short) (4096 + seed % 512), (byte) 1, (short) 0, tag);
+    }
+
+    /**
+     * Builds a full inventory, alternating between enchanted and modded items.
+     * @return The NBT compounds of the inventory
+     */
+    public static NBTTagCompound[] fullInventory() {
+
+        NBTTagCompound[] inventory = new NBTTagCompound[INVENTORY_SIZE];
+
+        for (int i = 0; i < inventory.length; i++)
+            inventory[i] = i % 2 == 0 ? BenchmarkItems.enchantedItem(i) : BenchmarkItems.moddedItem(i);
+
+        return inventory;
+    }
+
+    /**
+     * Builds a full set of enchanted armour.
+     * @return The NBT compounds of the armour
+     */
+    public static NBTTagCompound[] fullArmour() {
+
+        NBTTagCompound[] armour = new NBTTagCompound[ARMOUR_SIZE];
+
+        for (int i = 0; i < armour.length; i++)
+            armour[i] = BenchmarkItems.enchantedItem(100 + i);
+
+        return armour;
+    }
+
+    /**
+     * Builds a PlayerDataHolder holding the given NBT compounds as its captured items, like the one the capture
+     * constructor builds from a player. The captured fields are set through reflection, since the plugin itself only
+     * ever captures them from the ItemStacks of a player, which can't be built without the item registry.
+     * @return The PlayerDataHolder holding the captured items and the given values
+     */
+    public static PlayerDataHolder capturedPlayerData(NBTTagCompound[] inventory, NBTTagCompound[] armour, ArrayList<SimplePotionEffect> potionEffects,
+                                                      PartialLocation coordinates, int experienceLevels, float experiencePoints, double health, int hunger) {
+
+        PlayerDataHolder playerData = new PlayerDataHolder(null, null, potionEffects, coordinates, experienceLevels, experiencePoints, health, hunger);
+
+        try {
+            BenchmarkItems.setField(playerData, "capturedInventory", inventory);
+            BenchmarkItems.setField(playerData, "capturedArmour", armour);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to set the captured items of a PlayerDataHolder", e);
+        }
+
+        return playerData;
+    }
+
+    private static void setField(PlayerDataHolder playerData, String fieldName, Object value) throws ReflectiveOperationException {
+        Field field = PlayerDataHolder.class.getDeclaredField(fieldName);
+        field.setAccessible(true);
+        field.set(playerData, value);
+    }
+
+    /**
+     * Builds the NBT compound of an item, laid out like the ones saved by the server.
+     */
+    private static NBTTagCompound item(short id, byte count, short damage, NBTTagCompound tag) {
+
+        NBTTagCompound item = new NBTTagCompound();
+        item.setShort("id", id);
+        item.setByte("Count", count);
+        item.setShort("Damage", damage);
+        item.set("tag", tag);
+        return item;
+    }
+}
@@ -0,0 +1,92 @@
+package com.mrkelpy.aosplayermanager.benchmark;
+
+import com.mrkelpy.aosplayermanager.TestServer;
+import com.mrkelpy.aosplayermanager.common.PartialLocation;
+import com.mrkelpy.aosplayermanager.common.PlayerDataHolder;
+import com.mrkelpy.aosplayermanager.util.PlayerdataRecords;
+import com.mrkelpy.aosplayermanager.util.SerializationUtils;
+import net.minecraft.server.v1_7_R4.NBTTagCompound;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the main thread's share of a save of a full 36 slot inventory of enchanted and modded items, before and
+ * after the capture was split from the encoding, along with the encoding and writing that moved to the I/O threads.
+ * <br>
+ * Copying the items into NBT compounds is measured as cloning the compounds, which is what the NMS copy of an item
+ * amounts to, since the items themselves can't be built without the item registry.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaptureBenchmark {
+
+    private NBTTagCompound[] inventory;
+    private NBTTagCompound[] armour;
+    private PlayerDataHolder capturedPlayerData;
+    private File recordFile;
+
+    @Setup
+    public void setup() throws IOException {
+        this.recordFile = new File(TestServer.useTemporaryStorage(), "capture" + PlayerdataRecords.BINARY_EXTENSION);
+        this.inventory = BenchmarkItems.fullInventory();
+        this.armour = BenchmarkItems.fullArmour();
+        this.capturedPlayerData = this.captureSnapshot();
+    }
+
+    /**
+     * The main thread's work before the split: copying every item and encoding it into the stored text right away.
+     */
+    @Benchmark
+    public String[] captureAndEncode() {
+        return new String[] {CaptureBenchmark.encode(CaptureBenchmark.copy(this.inventory)), CaptureBenchmark.encode(CaptureBenchmark.copy(this.armour))};
+    }
+
+    /**
+     * The main thread's work after the split: copying every item into a snapshot, and nothing else.
+     */
+    @Benchmark
+    public PlayerDataHolder captureSnapshot() {
+        return BenchmarkItems.capturedPlayerData(CaptureBenchmark.copy(this.inventory), CaptureBenchmark.copy(this.armour),
+                new ArrayList<>(), new PartialLocation(120.5, 64, -33.5, 12.5F, 270F), 30, 0.5F, 20, 20);
+    }
+
+    /**
+     * The work moved to the I/O threads after the split: encoding the snapshot and writing it as a binary record.
+     */
+    @Benchmark
+    public boolean encodeAndWriteSnapshot() {
+        return PlayerdataRecords.write(this.recordFile, this.capturedPlayerData);
+    }
+
+    /**
+     * Copies the NBT compounds of every slot, like the capture does with the NMS copies of the items.
+     */
+    private static NBTTagCompound[] copy(NBTTagCompound[] items) {
+
+        NBTTagCompound[] copies = new NBTTagCompound[items.length];
+        for (int i = 0; i < items.length; i++)
+            copies[i] = items[i] != null ? (NBTTagCompound) items[i].clone() : null;
+
+        return copies;
+    }
+
+    /**
+     * Encodes every slot into its text string and packs them, like the saves used to do on the main thread.
+     */
+    private static String encode(NBTTagCompound[] items) {
+
+        String[] slots = new String[items.length];
+        for (int i = 0; i < items.length; i++)
+            slots[i] = SerializationUtils.nbtToText(items[i]);
+
+        return SerializationUtils.magBase32ArrayToBase64(slots);
+    }
+}
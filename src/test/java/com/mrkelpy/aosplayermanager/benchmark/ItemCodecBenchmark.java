@@ -0,0 +1,95 @@
+package com.mrkelpy.aosplayermanager.benchmark;
+
+import com.mrkelpy.aosplayermanager.util.SerializationUtils;
+import net.minecraft.server.v1_7_R4.NBTTagCompound;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.math.BigInteger;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the original base32 item encoding, which goes through a BigInteger built from the whole NBT stream,
+ * against the base64 text encoding written from the per-thread buffer, on enchanted and modded items.
+ * <br>
+ * The NBT stream is written the same way by both, so the difference is the text encoding alone. The decoders stop
+ * at the NBT bytes, since turning them into an ItemStack is the same for both and needs the item registry.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ItemCodecBenchmark {
+
+    @Param({"enchanted", "modded"})
+    public String itemKind;
+
+    private NBTTagCompound item;
+    private String magBase32Text;
+    private String base64Text;
+
+    @Setup
+    public void setup() {
+        this.item = this.itemKind.equals("modded") ? BenchmarkItems.moddedItem(7) : BenchmarkItems.enchantedItem(7);
+        this.magBase32Text = this.encodeMagBase32();
+        this.base64Text = this.encodeText();
+    }
+
+    /**
+     * The original encoding, as done by {@link SerializationUtils#itemStackToMagBase32}, from the NBT compound on.
+     */
+    @Benchmark
+    public String encodeMagBase32() {
+        return new BigInteger(1, SerializationUtils.nbtToBytes(this.item)).toString(32);
+    }
+
+    @Benchmark
+    public String encodeText() {
+        return SerializationUtils.nbtToText(this.item);
+    }
+
+    /**
+     * The original decoding, as done by {@link SerializationUtils#itemStackFromMagBase32}, up to the NBT bytes.
+     */
+    @Benchmark
+    public byte[] decodeMagBase32() {
+        return new BigInteger(this.magBase32Text, 32).toByteArray();
+    }
+
+    @Benchmark
+    public byte[] decodeText() {
+        return Base64.getDecoder().decode(this.base64Text.substring(2));
+    }
+
+    /**
+     * Encodes a whole inventory with the original encoding, which is what a save used to do for every slot.
+     */
+    @Benchmark
+    public void encodeInventoryMagBase32(Blackhole blackhole, InventoryState inventory) {
+        for (NBTTagCompound slot : inventory.items)
+            blackhole.consume(new BigInteger(1, SerializationUtils.nbtToBytes(slot)).toString(32));
+    }
+
+    @Benchmark
+    public void encodeInventoryText(Blackhole blackhole, InventoryState inventory) {
+        for (NBTTagCompound slot : inventory.items)
+            blackhole.consume(SerializationUtils.nbtToText(slot));
+    }
+
+    /**
+     * Holds a full 36 slot inventory of enchanted and modded items.
+     */
+    @State(Scope.Thread)
+    public static class InventoryState {
+
+        private NBTTagCompound[] items;
+
+        @Setup
+        public void setup() {
+            this.items = BenchmarkItems.fullInventory();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.mrkelpy.aosplayermanager.benchmark;
+
+import com.mrkelpy.aosplayermanager.TestServer;
+import com.mrkelpy.aosplayermanager.common.PartialLocation;
+import com.mrkelpy.aosplayermanager.common.PlayerDataHolder;
+import com.mrkelpy.aosplayermanager.common.SimplePotionEffect;
+import com.mrkelpy.aosplayermanager.util.FileUtils;
+import com.mrkelpy.aosplayermanager.util.PlayerdataRecords;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares loading a JSON playerdata file through the JSON tree, the map and the re-serialized tree, as the loads
+ * used to, against the single streaming pass of {@link PlayerdataRecords#readJson(File)}. Run it with "-prof gc"
+ * to see the allocations per load.
+ * <br>
+ * The items are left encoded by both, since they're only decoded once they're asked for.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonReadBenchmark {
+
+    private File recordFile;
+
+    @Setup
+    public void setup() throws IOException {
+
+        this.recordFile = new File(TestServer.useTemporaryStorage(), "load" + PlayerdataRecords.JSON_EXTENSION);
+
+        ArrayList<SimplePotionEffect> potionEffects = new ArrayList<>();
+        potionEffects.add(new SimplePotionEffect("SPEED", 2400, 1));
+        potionEffects.add(new SimplePotionEffect("NIGHT_VISION", 9600, 0));
+
+        PlayerDataHolder playerData = BenchmarkItems.capturedPlayerData(BenchmarkItems.fullInventory(), BenchmarkItems.fullArmour(),
+                potionEffects, new PartialLocation(120.5, 64, -33.5, 12.5F, 270F), 30, 0.5F, 20, 20);
+
+        if (!PlayerdataRecords.write(this.recordFile, playerData))
+            throw new IOException("Failed to write " + this.recordFile.getPath());
+    }
+
+    /**
+     * The load as it used to be done: a JSON tree, collected into a map, turned back into a tree and deserialized.
+     */
+    @Benchmark
+    public PlayerDataHolder readThroughTree() {
+        return new PlayerDataHolder(new HashMap<>(FileUtils.readJson(this.recordFile.getPath())));
+    }
+
+    @Benchmark
+    public PlayerDataHolder readStreaming() {
+        return PlayerdataRecords.readJson(this.recordFile);
+    }
+}
@@ -0,0 +1,60 @@
+package com.mrkelpy.aosplayermanager.benchmark;
+
+import com.mrkelpy.aosplayermanager.TestServer;
+import com.mrkelpy.aosplayermanager.common.PartialLocation;
+import com.mrkelpy.aosplayermanager.common.PlayerDataHolder;
+import com.mrkelpy.aosplayermanager.common.PlayerdataPatch;
+import com.mrkelpy.aosplayermanager.util.PlayerdataRecords;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares nulling out the coordinates of a stored playerdata record through a full rewrite, as the world changes
+ * used to do, against patching them in, which copies the items over as they're stored. Both storage formats are
+ * measured, with a full 36 slot inventory of enchanted and modded items.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatchBenchmark {
+
+    @Param({PlayerdataRecords.BINARY_EXTENSION, PlayerdataRecords.JSON_EXTENSION})
+    public String format;
+
+    private File recordFile;
+    private PlayerDataHolder playerData;
+    private PlayerdataPatch patch;
+
+    @Setup
+    public void setup() throws IOException {
+
+        this.recordFile = new File(TestServer.useTemporaryStorage(), "patch" + this.format);
+        this.playerData = BenchmarkItems.capturedPlayerData(BenchmarkItems.fullInventory(), BenchmarkItems.fullArmour(),
+                new ArrayList<>(), new PartialLocation(120.5, 64, -33.5, 12.5F, 270F), 30, 0.5F, 20, 20);
+        this.patch = new PlayerdataPatch().setCoordinates(null);
+
+        if (!PlayerdataRecords.write(this.recordFile, this.playerData))
+            throw new IOException("Failed to write " + this.recordFile.getPath());
+    }
+
+    /**
+     * The full rewrite, which encodes every item again just to change the coordinates.
+     */
+    @Benchmark
+    public boolean rewriteRecord() {
+        this.playerData.setPlayerCoordinates(null);
+        return PlayerdataRecords.write(this.recordFile, this.playerData);
+    }
+
+    @Benchmark
+    public boolean patchRecord() {
+        return PlayerdataRecords.patch(this.recordFile, this.patch);
+    }
+}
@@ -0,0 +1,128 @@
+package com.mrkelpy.aosplayermanager.util;
+
+import com.google.gson.JsonObject;
+import com.mrkelpy.aosplayermanager.TestServer;
+import com.mrkelpy.aosplayermanager.benchmark.BenchmarkItems;
+import com.mrkelpy.aosplayermanager.common.PartialLocation;
+import com.mrkelpy.aosplayermanager.common.PlayerDataHolder;
+import net.minecraft.server.v1_7_R4.NBTTagCompound;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the delta encoding of backups: every backup of a chain must decode back into the playerdata it was encoded
+ * from, across keyframes, and after a backup is dropped from the middle of the chain.
+ */
+public class BackupDeltasTest {
+
+    private static final int KEYFRAME_INTERVAL = 16;
+
+    @Before
+    public void setup() throws IOException {
+        TestServer.useTemporaryStorage();
+    }
+
+    @Test
+    public void decodesEveryBackupAcrossKeyframes() {
+
+        List<BackupDeltas.Encoded> backups = new ArrayList<>();
+        BackupDeltas.Chain previous = null;
+
+        for (int i = 0; i < KEYFRAME_INTERVAL * 2 + 5; i++) {
+            BackupDeltas.Encoded backup = BackupDeltas.encode(previous, BackupDeltasTest.timestamp(i), BackupDeltasTest.makePlayerData(i));
+            backups.add(backup);
+            previous = backup.getChain();
+        }
+
+        // Decodes the chain like the restores do, starting over at every keyframe.
+        BackupDeltas.Chain state = null;
+
+        for (int i = 0; i < backups.size(); i++) {
+
+            BackupDeltas.Encoded backup = backups.get(i);
+            assertEquals(i % KEYFRAME_INTERVAL == 0 ? BackupSegments.KIND_JSON : BackupSegments.KIND_JSON_DELTA, backup.getKind());
+
+            if (backup.getKind() == BackupSegments.KIND_JSON) state = BackupDeltas.fromKeyframe(BackupDeltasTest.timestamp(i), backup.getPayload());
+            else BackupDeltas.apply(state, BackupDeltasTest.timestamp(i), backup.getPayload());
+
+            assertEquals(BackupDeltasTest.keyframeRecord(i), state.toRecord());
+        }
+
+        // A delta only holds the slot and the stat that changed, so it must be far smaller than a keyframe.
+        assertTrue(backups.get(1).getPayload().length * 4 < backups.get(0).getPayload().length);
+    }
+
+    @Test
+    public void storesBackupInTheSameSecondAsKeyframe() {
+
+        BackupDeltas.Encoded first = BackupDeltas.encode(null, BackupDeltasTest.timestamp(0), BackupDeltasTest.makePlayerData(0));
+        BackupDeltas.Encoded second = BackupDeltas.encode(first.getChain(), BackupDeltasTest.timestamp(0), BackupDeltasTest.makePlayerData(1));
+
+        assertEquals(BackupSegments.KIND_JSON, second.getKind());
+        assertEquals(BackupDeltasTest.keyframeRecord(1), BackupDeltas.fromKeyframe(BackupDeltasTest.timestamp(0), second.getPayload()).toRecord());
+    }
+
+    @Test
+    public void dropsStatsMissingFromTheNextBackup() {
+
+        // A record written by an older version, with a stat the playerdata doesn't have anymore.
+        JsonObject record = BackupDeltasTest.keyframeRecord(0);
+        record.addProperty("legacyStat", 5);
+
+        BackupDeltas.Encoded delta = BackupDeltas.encode(BackupDeltas.fromRecord(BackupDeltasTest.timestamp(0), record),
+                BackupDeltasTest.timestamp(1), BackupDeltasTest.makePlayerData(1));
+        assertEquals(BackupSegments.KIND_JSON_DELTA, delta.getKind());
+
+        BackupDeltas.Chain state = BackupDeltas.fromRecord(BackupDeltasTest.timestamp(0), record);
+        BackupDeltas.apply(state, BackupDeltasTest.timestamp(1), delta.getPayload());
+        assertEquals(BackupDeltasTest.keyframeRecord(1), state.toRecord());
+    }
+
+    @Test
+    public void reencodesAroundDroppedBackup() {
+
+        BackupDeltas.Encoded first = BackupDeltas.encode(null, BackupDeltasTest.timestamp(0), BackupDeltasTest.makePlayerData(0));
+        BackupDeltas.Encoded second = BackupDeltas.encode(first.getChain(), BackupDeltasTest.timestamp(1), BackupDeltasTest.makePlayerData(1));
+        BackupDeltas.Encoded third = BackupDeltas.encode(second.getChain(), BackupDeltasTest.timestamp(2), BackupDeltasTest.makePlayerData(2));
+
+        // Drops the second backup, so the third must now be encoded against the first.
+        BackupDeltas.Encoded reencoded = BackupDeltas.reencode(first.getChain(), third.getChain());
+        assertEquals(BackupSegments.KIND_JSON_DELTA, reencoded.getKind());
+
+        BackupDeltas.Chain state = BackupDeltas.fromKeyframe(BackupDeltasTest.timestamp(0), first.getPayload());
+        BackupDeltas.apply(state, BackupDeltasTest.timestamp(2), reencoded.getPayload());
+        assertEquals(BackupDeltasTest.keyframeRecord(2), state.toRecord());
+        assertEquals(BackupDeltasTest.keyframeRecord(2), third.getChain().toRecord());
+    }
+
+    /**
+     * Builds the playerdata of the backup with the given number, which only differs from the one before it by
+     * a single slot and its health.
+     */
+    private static PlayerDataHolder makePlayerData(int number) {
+
+        NBTTagCompound[] inventory = BenchmarkItems.fullInventory();
+        for (int i = 0; i < number; i++)
+            inventory[i % inventory.length] = i % 3 == 0 ? null : BenchmarkItems.moddedItem(1000 + i);
+
+        return BenchmarkItems.capturedPlayerData(inventory, BenchmarkItems.fullArmour(), new ArrayList<>(),
+                new PartialLocation(120.5, 64, -33.5, 12.5F, 270F), 30, 0.25F, 20 - number % 20, 18);
+    }
+
+    /**
+     * Builds the full record of the backup with the given number, encoded as a keyframe on its own.
+     */
+    private static JsonObject keyframeRecord(int number) {
+        return BackupDeltas.encode(null, BackupDeltasTest.timestamp(number), BackupDeltasTest.makePlayerData(number)).getChain().toRecord();
+    }
+
+    private static long timestamp(int number) {
+        return 1700000000000L + number * 1000L;
+    }
+}
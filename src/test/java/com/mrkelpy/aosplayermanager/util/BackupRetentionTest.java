@@ -0,0 +1,141 @@
+package com.mrkelpy.aosplayermanager.util;
+
+import com.mrkelpy.aosplayermanager.TestServer;
+import com.mrkelpy.aosplayermanager.benchmark.BenchmarkItems;
+import com.mrkelpy.aosplayermanager.common.PlayerDataHolder;
+import net.minecraft.server.v1_7_R4.NBTTagCompound;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the backup retention: a run must only drop the backups past the keep-all window that share their hour or day
+ * with a newer backup, and the compaction must leave every kept backup readable, also once the index is rebuilt from
+ * the segments on the disk. A compaction that fails must leave the index as it was.
+ * <br>
+ * The runs use the default windows, keeping every backup of the last day, and one backup per hour for a week past it.
+ */
+public class BackupRetentionTest {
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+    private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+    private UUID playerUUID;
+
+    @Before
+    public void setup() throws IOException {
+        TestServer.useTemporaryStorage();
+        this.playerUUID = UUID.randomUUID();
+    }
+
+    @Test
+    public void keepsNewestBackupOfEveryHourAndDay() {
+
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        long day = BackupRetentionTest.startOf(now - 10 * DAY_MILLIS, DAY_MILLIS);
+        long hour = BackupRetentionTest.startOf(now - 2 * DAY_MILLIS, HOUR_MILLIS);
+
+        long removedDaily = day + HOUR_MILLIS;
+        long removedHourly = hour + 10 * 60 * 1000L;
+        List<Long> timestamps = Arrays.asList(removedDaily, day + 2 * HOUR_MILLIS, removedHourly, hour + 20 * 60 * 1000L,
+                hour + 70 * 60 * 1000L, now - 2 * HOUR_MILLIS, now - HOUR_MILLIS);
+
+        BackupIndex backupIndex = this.appendBackups(timestamps);
+        long removedBackups = BackupRetention.INSTANCE.getRemovedBackups();
+
+        BackupRetention.INSTANCE.run();
+        assertEquals(2, BackupRetention.INSTANCE.getRemovedBackups() - removedBackups);
+
+        List<Long> keptTimestamps = timestamps.stream()
+                .filter(timestamp -> timestamp != removedDaily && timestamp != removedHourly).collect(Collectors.toList());
+
+        BackupRetentionTest.assertBackups(backupIndex, timestamps, keptTimestamps);
+
+        // The segments on the disk must hold the same backups as the index, since the old segments were deleted.
+        backupIndex.rebuild();
+        BackupRetentionTest.assertBackups(backupIndex, timestamps, keptTimestamps);
+    }
+
+    @Test
+    public void keepsEverythingInsideKeepAllWindow() {
+
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        List<Long> timestamps = Arrays.asList(now - 3 * 60 * 1000L, now - 2 * 60 * 1000L, now - 60 * 1000L);
+
+        BackupIndex backupIndex = this.appendBackups(timestamps);
+        BackupRetention.INSTANCE.run();
+        BackupRetentionTest.assertBackups(backupIndex, timestamps, timestamps);
+    }
+
+    @Test
+    public void leavesIndexAsItWasWhenCompactionFails() throws IOException {
+
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        List<Long> timestamps = Arrays.asList(now - 3000, now - 2000, now - 1000);
+        BackupIndex backupIndex = this.appendBackups(timestamps);
+
+        // Damages the keyframe, which every other backup in the chain is decoded from.
+        try (RandomAccessFile segment = new RandomAccessFile(BackupSegments.getSegmentFile(backupIndex.getDirectory(), 0), "rw")) {
+            segment.writeInt(0xDEADBEEF);
+        }
+
+        assertNull(backupIndex.compact(Collections.singleton(now - 2000)));
+        assertEquals(timestamps.size(), backupIndex.size());
+        assertFalse(BackupSegments.getSegmentFile(backupIndex.getDirectory(), 1).exists());
+    }
+
+    /**
+     * Appends a backup for every timestamp, in order, each one with its position in the list as its health, so that
+     * the backups can be told apart once they're read back.
+     */
+    private BackupIndex appendBackups(List<Long> timestamps) {
+
+        BackupIndex backupIndex = BackupIndex.get(this.playerUUID, "world");
+        NBTTagCompound[] inventory = BenchmarkItems.fullInventory();
+
+        for (int i = 0; i < timestamps.size(); i++) {
+            inventory[i] = BenchmarkItems.moddedItem(1000 + i);
+            PlayerDataHolder playerData = BenchmarkItems.capturedPlayerData(inventory.clone(), BenchmarkItems.fullArmour(),
+                    new ArrayList<>(), null, 0, 0, i + 1, 20);
+
+            assertTrue(backupIndex.appendSnapshot(timestamps.get(i), playerData));
+        }
+
+        return backupIndex;
+    }
+
+    /**
+     * Checks that the index holds exactly the kept backups, and that each of them reads back as the one appended.
+     */
+    private static void assertBackups(BackupIndex backupIndex, List<Long> timestamps, List<Long> keptTimestamps) {
+
+        List<Long> indexedTimestamps = backupIndex.getPage(0, -1).stream().map(BackupIndex.Entry::getTimestamp).collect(Collectors.toList());
+        Collections.reverse(indexedTimestamps);
+        assertEquals(keptTimestamps, indexedTimestamps);
+
+        for (long timestamp : keptTimestamps) {
+            PlayerDataHolder playerData = backupIndex.read(timestamp);
+            assertNotNull(playerData);
+            assertEquals(timestamps.indexOf(timestamp) + 1, playerData.getPlayerHealth(), 0);
+        }
+    }
+
+    /**
+     * Gets the start of the hour or day a timestamp falls in, following the server's timezone like the retention does.
+     */
+    private static long startOf(long timestamp, long length) {
+        long offset = TimeZone.getDefault().getOffset(timestamp);
+        return (timestamp + offset) / length * length - offset;
+    }
+}
@@ -0,0 +1,127 @@
+package com.mrkelpy.aosplayermanager.util;
+
+import com.mrkelpy.aosplayermanager.TestServer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the backup segments: appending and reading frames back, sealing them, and recovering from torn and damaged
+ * frames without losing the readable ones.
+ */
+public class BackupSegmentsTest {
+
+    private File segmentFile;
+
+    @Before
+    public void setup() throws IOException {
+        this.segmentFile = BackupSegments.getSegmentFile(TestServer.useTemporaryStorage(), 0);
+    }
+
+    @Test
+    public void readsBackAppendedFrames() throws IOException {
+
+        for (int i = 0; i < 3; i++)
+            BackupSegments.appendFrame(this.segmentFile, 1000L * i, BackupSegments.KIND_JSON, BackupSegmentsTest.payload(i));
+
+        BackupSegments.Scan scan = BackupSegments.scan(this.segmentFile);
+        assertFalse(scan.isSealed());
+        assertEquals(this.segmentFile.length(), scan.getLength());
+        BackupSegmentsTest.assertFrames(scan.getFrames(), this.segmentFile, 0, 1, 2);
+    }
+
+    @Test
+    public void readsSealedSegmentFromFooter() throws IOException {
+
+        for (int i = 0; i < 3; i++)
+            BackupSegments.appendFrame(this.segmentFile, 1000L * i, i == 0 ? BackupSegments.KIND_JSON : BackupSegments.KIND_JSON_DELTA, BackupSegmentsTest.payload(i));
+
+        BackupSegments.seal(this.segmentFile, BackupSegments.scan(this.segmentFile).getFrames());
+        BackupSegments.Scan scan = BackupSegments.scan(this.segmentFile);
+
+        assertTrue(scan.isSealed());
+        assertEquals(BackupSegments.KIND_JSON_DELTA, scan.getFrames().get(2).getKind());
+        BackupSegmentsTest.assertFrames(scan.getFrames(), this.segmentFile, 0, 1, 2);
+    }
+
+    @Test
+    public void cutsOffTornFrameAtTheEnd() throws IOException {
+
+        BackupSegments.appendFrame(this.segmentFile, 0, BackupSegments.KIND_JSON, BackupSegmentsTest.payload(0));
+        long tornOffset = BackupSegments.appendFrame(this.segmentFile, 1000, BackupSegments.KIND_JSON, BackupSegmentsTest.payload(1));
+
+        // Leaves the second frame as an interrupted append would, with its header but only part of its payload.
+        try (RandomAccessFile segment = new RandomAccessFile(this.segmentFile, "rw")) {
+            segment.setLength(tornOffset + BackupSegments.FRAME_HEADER_SIZE + 2);
+        }
+
+        BackupSegments.Scan scan = BackupSegments.scan(this.segmentFile);
+        assertEquals(tornOffset, scan.getLength());
+        assertEquals(tornOffset, this.segmentFile.length());
+        BackupSegmentsTest.assertFrames(scan.getFrames(), this.segmentFile, 0);
+
+        // The frames appended afterwards must be readable, rather than stuck behind the torn one.
+        BackupSegments.appendFrame(this.segmentFile, 2000, BackupSegments.KIND_JSON, BackupSegmentsTest.payload(2));
+        BackupSegmentsTest.assertFrames(BackupSegments.scan(this.segmentFile).getFrames(), this.segmentFile, 0, 2);
+    }
+
+    @Test
+    public void cutsOffTornHeaderAtTheEnd() throws IOException {
+
+        BackupSegments.appendFrame(this.segmentFile, 0, BackupSegments.KIND_JSON, BackupSegmentsTest.payload(0));
+        long tornOffset = this.segmentFile.length();
+
+        try (FileOutputStream segmentOutput = new FileOutputStream(this.segmentFile, true)) {
+            segmentOutput.write(new byte[] {0x41, 0x50, 0x4D});
+        }
+
+        assertEquals(tornOffset, BackupSegments.scan(this.segmentFile).getLength());
+        assertEquals(tornOffset, this.segmentFile.length());
+    }
+
+    @Test
+    public void keepsFramesAfterDamagedFrame() throws IOException {
+
+        BackupSegments.appendFrame(this.segmentFile, 0, BackupSegments.KIND_JSON, BackupSegmentsTest.payload(0));
+        long damagedOffset = BackupSegments.appendFrame(this.segmentFile, 1000, BackupSegments.KIND_JSON, BackupSegmentsTest.payload(1));
+        BackupSegments.appendFrame(this.segmentFile, 2000, BackupSegments.KIND_JSON, BackupSegmentsTest.payload(2));
+        long length = this.segmentFile.length();
+
+        try (RandomAccessFile segment = new RandomAccessFile(this.segmentFile, "rw")) {
+            segment.seek(damagedOffset);
+            segment.writeInt(0xDEADBEEF);
+        }
+
+        BackupSegments.Scan scan = BackupSegments.scan(this.segmentFile);
+        assertEquals(length, scan.getLength());
+        assertEquals(length, this.segmentFile.length());
+        BackupSegmentsTest.assertFrames(scan.getFrames(), this.segmentFile, 0, 2);
+    }
+
+    /**
+     * Checks that the frames are the ones appended with the given numbers, in order, and that their payloads read back.
+     */
+    private static void assertFrames(List<BackupSegments.Frame> frames, File segmentFile, int... numbers) throws IOException {
+
+        assertEquals(numbers.length, frames.size());
+
+        for (int i = 0; i < numbers.length; i++) {
+            BackupSegments.Frame frame = frames.get(i);
+            assertEquals(1000L * numbers[i], frame.getTimestamp());
+            assertArrayEquals(BackupSegmentsTest.payload(numbers[i]), BackupSegments.readFrame(segmentFile, frame.getOffset(), frame.getTimestamp()));
+        }
+    }
+
+    private static byte[] payload(int number) {
+        return ("{\"backup\":" + number + ",\"padding\":\"" + new String(new char[100 * (number + 1)]).replace('\0', 'x') + "\"}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,143 @@
+package com.mrkelpy.aosplayermanager.util;
+
+import com.mrkelpy.aosplayermanager.TestServer;
+import com.mrkelpy.aosplayermanager.benchmark.BenchmarkItems;
+import com.mrkelpy.aosplayermanager.common.PlayerDataHolder;
+import net.minecraft.server.v1_7_R4.NBTTagCompound;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the collection of the unused item blobs: the blobs referenced by the playerdata records, the keyframes and
+ * the deltas of the backups must survive it, and everything else must be deleted, and written again when it's
+ * stored again.
+ * <br>
+ * The blob store remembers the blobs it wrote for the whole JVM, so every test builds items no other test uses,
+ * or their blobs wouldn't be written into its temporary directory.
+ */
+public class ItemBlobStoreTest {
+
+    private static final UUID PLAYER_UUID = UUID.fromString("8667ba71-b85a-4004-af54-457a9734eed7");
+
+    private int seed;
+
+    @Before
+    public void setup() throws IOException {
+        TestServer.useTemporaryStorage();
+        this.seed = (int) (System.nanoTime() & 0x3FFFFFFF);
+    }
+
+    @Test
+    public void keepsReferencedBlobsAndDeletesTheRest() {
+
+        NBTTagCompound recordItem = BenchmarkItems.moddedItem(this.seed);
+        NBTTagCompound keyframeItem = BenchmarkItems.moddedItem(this.seed + 1);
+        NBTTagCompound deltaItem = BenchmarkItems.moddedItem(this.seed + 2);
+        NBTTagCompound unusedItem = BenchmarkItems.moddedItem(this.seed + 3);
+
+        File recordFile = new File(FileUtils.makeLevelDirectory("world"), PLAYER_UUID + PlayerdataRecords.BINARY_EXTENSION);
+        assertTrue(PlayerdataRecords.write(recordFile, ItemBlobStoreTest.makePlayerData(recordItem)));
+
+        // The second backup is a delta, so its item is only referenced from the changed slots of the delta.
+        BackupIndex backupIndex = BackupIndex.get(PLAYER_UUID, "world");
+        assertTrue(backupIndex.appendSnapshot(1700000000000L, ItemBlobStoreTest.makePlayerData(keyframeItem)));
+        assertTrue(backupIndex.appendSnapshot(1700000001000L, ItemBlobStoreTest.makePlayerData(deltaItem)));
+        assertEquals(BackupSegments.KIND_JSON_DELTA, backupIndex.getPage(0, -1).get(1).getKind());
+
+        String unusedReference = ItemBlobStoreTest.store(unusedItem);
+        assertTrue(ItemBlobStoreTest.getBlobFile(unusedReference).exists());
+
+        ItemBlobStore.CollectionResult result = ItemBlobStore.INSTANCE.collectGarbage();
+        assertNotNull(result);
+        assertEquals(1, result.getDeletedBlobs());
+        assertEquals(SerializationUtils.nbtToBytes(unusedItem).length, result.getReclaimedBytes());
+
+        assertFalse(ItemBlobStoreTest.getBlobFile(unusedReference).exists());
+        for (NBTTagCompound liveItem : new NBTTagCompound[] {recordItem, keyframeItem, deltaItem})
+            assertTrue(ItemBlobStoreTest.getBlobFile(ItemBlobStoreTest.store(liveItem)).exists());
+    }
+
+    @Test
+    public void writesCollectedBlobAgain() {
+
+        NBTTagCompound item = BenchmarkItems.enchantedItem(this.seed);
+        String reference = ItemBlobStoreTest.store(item);
+
+        ItemBlobStore.CollectionResult result = ItemBlobStore.INSTANCE.collectGarbage();
+        assertNotNull(result);
+        assertEquals(1, result.getDeletedBlobs());
+        assertFalse(ItemBlobStoreTest.getBlobFile(reference).exists());
+
+        // The deleted blob must be forgotten, so that storing the item again doesn't hand out a dangling reference.
+        assertEquals(reference, ItemBlobStoreTest.store(item));
+        assertTrue(ItemBlobStoreTest.getBlobFile(reference).exists());
+    }
+
+    @Test
+    public void keepsBlobsOfPendingWrites() {
+
+        NBTTagCompound item = BenchmarkItems.moddedItem(this.seed);
+        String reference = ItemBlobStoreTest.store(item);
+        PlayerDataHolder playerData = ItemBlobStoreTest.makePlayerData(item);
+
+        // The write is held back until the collection is done, so the snapshot stays pending while it runs.
+        CountDownLatch collected = new CountDownLatch(1);
+        CompletableFuture<Boolean> write = PlayerdataWriteQueue.INSTANCE.submit(PLAYER_UUID,
+                new File(FileUtils.makeLevelDirectory("world"), "pending" + PlayerdataRecords.BINARY_EXTENSION), playerData,
+                (target, snapshot) -> {
+                    try {
+                        return collected.await(30, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                });
+
+        try {
+            ItemBlobStore.CollectionResult result = ItemBlobStore.INSTANCE.collectGarbage();
+            assertNotNull(result);
+            assertEquals(0, result.getDeletedBlobs());
+            assertTrue(ItemBlobStoreTest.getBlobFile(reference).exists());
+
+        } finally {
+            collected.countDown();
+            assertTrue(write.join());
+        }
+    }
+
+    /**
+     * Builds playerdata holding a single item in its first inventory slot.
+     */
+    private static PlayerDataHolder makePlayerData(NBTTagCompound item) {
+
+        NBTTagCompound[] inventory = new NBTTagCompound[BenchmarkItems.INVENTORY_SIZE];
+        inventory[0] = item;
+
+        return BenchmarkItems.capturedPlayerData(inventory, new NBTTagCompound[BenchmarkItems.ARMOUR_SIZE],
+                new ArrayList<>(), null, 0, 0, 20, 20);
+    }
+
+    private static String store(NBTTagCompound item) {
+        String reference = ItemBlobStore.INSTANCE.store(SerializationUtils.nbtToBytes(item));
+        assertNotNull(reference);
+        return reference;
+    }
+
+    /**
+     * Gets the file of a blob, laid out like the blob store does.
+     */
+    private static File getBlobFile(String reference) {
+        String blobHash = reference.substring(1);
+        return new File(FileUtils.makeLevelDirectory(ItemBlobStore.BLOBS_DIRECTORY + "/" + blobHash.substring(0, 2)), blobHash + ".nbt");
+    }
+}
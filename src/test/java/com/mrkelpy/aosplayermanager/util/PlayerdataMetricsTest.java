@@ -0,0 +1,115 @@
+package com.mrkelpy.aosplayermanager.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the latency histograms: every latency must fall into a bucket whose bounds hold it, the buckets must stay
+ * within an eighth of the latencies they hold, and the percentiles must come out of the right buckets.
+ */
+public class PlayerdataMetricsTest {
+
+    @Test
+    public void givesShortLatenciesTheirOwnBucket() {
+
+        for (int nanos = 0; nanos < 16; nanos++) {
+            assertEquals(nanos, PlayerdataMetrics.Histogram.bucketFor(nanos));
+            assertEquals(nanos, PlayerdataMetrics.Histogram.upperBoundOf(nanos));
+        }
+    }
+
+    @Test
+    public void putsEveryLatencyInsideItsBucket() {
+
+        for (long nanos = 0; nanos < 100000; nanos++)
+            PlayerdataMetricsTest.assertInsideBucket(nanos);
+
+        // Around every power of two, where the buckets get wider, up to the longest latency there is.
+        for (int exponent = 4; exponent < 63; exponent++) {
+            long powerOfTwo = 1L << exponent;
+            PlayerdataMetricsTest.assertInsideBucket(powerOfTwo - 1);
+            PlayerdataMetricsTest.assertInsideBucket(powerOfTwo);
+            PlayerdataMetricsTest.assertInsideBucket(powerOfTwo + 1);
+            PlayerdataMetricsTest.assertInsideBucket(powerOfTwo + powerOfTwo / 2);
+        }
+
+        PlayerdataMetricsTest.assertInsideBucket(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, PlayerdataMetrics.Histogram.upperBoundOf(PlayerdataMetrics.Histogram.bucketFor(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void keepsBucketsWithinAnEighth() {
+
+        for (long nanos = 16; nanos < 1000000; nanos += 7) {
+            long upperBound = PlayerdataMetrics.Histogram.upperBoundOf(PlayerdataMetrics.Histogram.bucketFor(nanos));
+            assertTrue("Bucket of " + nanos + " goes up to " + upperBound, upperBound - nanos <= nanos / 8);
+        }
+    }
+
+    @Test
+    public void readsPercentilesFromTheBuckets() {
+
+        PlayerdataMetrics.Histogram histogram = new PlayerdataMetrics.Histogram("Test");
+        assertEquals(0, histogram.getPercentileMillis(0.5), 0);
+
+        // One call per microsecond, from 1 microsecond up to 1 millisecond.
+        for (int micros = 1; micros <= 1000; micros++)
+            histogram.record(micros * 1000L, 10);
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(10000, histogram.getBytes());
+        assertEquals(0.5005, histogram.getAverageMillis(), 1e-9);
+        assertEquals(1.0, histogram.getMaxMillis(), 0);
+
+        // A percentile is the upper bound of its bucket, so it may be over the real one, but never by more than an eighth.
+        for (double percentile : new double[] {0.5, 0.9, 0.99}) {
+            double percentileMillis = histogram.getPercentileMillis(percentile);
+            assertTrue(percentileMillis >= percentile);
+            assertTrue(percentileMillis <= percentile * 1.125);
+        }
+
+        assertEquals(1.0, histogram.getPercentileMillis(1), 0);
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getBytes());
+        assertEquals(0, histogram.getPercentileMillis(0.5), 0);
+        assertEquals(0, histogram.getMaxMillis(), 0);
+    }
+
+    @Test
+    public void addsBytesWithoutCountingCalls() {
+
+        PlayerdataMetrics.Histogram histogram = new PlayerdataMetrics.Histogram("Test");
+        histogram.record(1000);
+        histogram.recordBytes(512);
+        histogram.recordBytes(0);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(512, histogram.getBytes());
+        assertEquals(0.001, histogram.getAverageMillis(), 1e-12);
+    }
+
+    @Test
+    public void clampsNegativeLatencies() {
+
+        PlayerdataMetrics.Histogram histogram = new PlayerdataMetrics.Histogram("Test");
+        histogram.record(-5);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMaxMillis(), 0);
+        assertEquals(0, histogram.getPercentileMillis(1), 0);
+    }
+
+    /**
+     * Checks that a latency is no higher than the upper bound of its bucket, and higher than the one of the bucket
+     * before it.
+     */
+    private static void assertInsideBucket(long nanos) {
+
+        int bucket = PlayerdataMetrics.Histogram.bucketFor(nanos);
+        assertTrue(nanos + " is over its bucket", nanos <= PlayerdataMetrics.Histogram.upperBoundOf(bucket));
+        if (bucket > 0) assertTrue(nanos + " belongs to the bucket before", nanos > PlayerdataMetrics.Histogram.upperBoundOf(bucket - 1));
+    }
+}
@@ -0,0 +1,178 @@
+package com.mrkelpy.aosplayermanager.util;
+
+import com.mrkelpy.aosplayermanager.TestServer;
+import com.mrkelpy.aosplayermanager.benchmark.BenchmarkItems;
+import com.mrkelpy.aosplayermanager.common.PartialLocation;
+import com.mrkelpy.aosplayermanager.common.PlayerDataHolder;
+import com.mrkelpy.aosplayermanager.common.PlayerdataPatch;
+import com.mrkelpy.aosplayermanager.common.SimplePotionEffect;
+import net.minecraft.server.v1_7_R4.NBTTagCompound;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the binary playerdata records: writing and reading them back, patching them, and refusing to read the
+ * damaged ones. The items are checked through their blob references, since turning them back into ItemStacks
+ * needs the item registry.
+ */
+public class PlayerdataRecordsTest {
+
+    private static final UUID PLAYER_UUID = UUID.fromString("8667ba71-b85a-4004-af54-457a9734eed7");
+
+    private File levelDirectory;
+
+    @Before
+    public void setup() throws IOException {
+        this.levelDirectory = new File(TestServer.useTemporaryStorage(), "world");
+        this.levelDirectory.mkdirs();
+    }
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+
+        NBTTagCompound[] inventory = BenchmarkItems.fullInventory();
+        inventory[3] = null;
+        PlayerDataHolder playerData = PlayerdataRecordsTest.makePlayerData(inventory, new PartialLocation(120.5, 64, -33.5, 12.5F, 270F), 17.5);
+
+        File recordFile = new File(this.levelDirectory, PLAYER_UUID + PlayerdataRecords.BINARY_EXTENSION);
+        assertTrue(PlayerdataRecords.write(recordFile, playerData));
+        PlayerDataHolder readPlayerData = PlayerdataRecords.read(this.levelDirectory, PLAYER_UUID);
+
+        assertEquals(17.5, readPlayerData.getPlayerHealth(), 0);
+        assertEquals(18, readPlayerData.getPlayerHunger());
+        assertEquals(30, readPlayerData.getPlayerExperienceLevels());
+        assertEquals(0.25F, readPlayerData.getPlayerExperiencePoints(), 0);
+
+        PartialLocation coordinates = readPlayerData.getPlayerCoordinates();
+        assertEquals(120.5, coordinates.x, 0);
+        assertEquals(64, coordinates.y, 0);
+        assertEquals(-33.5, coordinates.z, 0);
+        assertEquals(12.5F, coordinates.pitch, 0);
+        assertEquals(270F, coordinates.yaw, 0);
+
+        SimplePotionEffect potionEffect = readPlayerData.getPlayerPotionEffects().get(0);
+        assertEquals(1, readPlayerData.getPlayerPotionEffects().size());
+        assertEquals("SPEED", potionEffect.getType());
+        assertEquals(2400, potionEffect.getDuration());
+        assertEquals(1, potionEffect.getAmplifier());
+
+        // Every item is stored in the blob store, so the record must reference the blob of every item and nothing else.
+        Set<String> expectedReferences = new HashSet<>();
+        for (NBTTagCompound item : PlayerdataRecordsTest.concat(inventory, BenchmarkItems.fullArmour()))
+            if (item != null) expectedReferences.add(ItemBlobStore.INSTANCE.store(SerializationUtils.nbtToBytes(item)));
+
+        Set<String> references = new HashSet<>();
+        PlayerdataRecords.collectBlobReferences(recordFile, references);
+        assertEquals(expectedReferences, references);
+    }
+
+    @Test
+    public void keepsMissingSectionsMissing() {
+
+        PlayerDataHolder playerData = BenchmarkItems.capturedPlayerData(null, null, null, null, 0, 0, 20, 20);
+
+        assertTrue(PlayerdataRecords.write(new File(this.levelDirectory, PLAYER_UUID + PlayerdataRecords.BINARY_EXTENSION), playerData));
+        PlayerDataHolder readPlayerData = PlayerdataRecords.read(this.levelDirectory, PLAYER_UUID);
+
+        assertNull(readPlayerData.getPlayerCoordinates());
+        assertNull(readPlayerData.getPlayerPotionEffects());
+        assertNull(readPlayerData.getPlayerInventory());
+        assertNull(readPlayerData.getPlayerArmour());
+    }
+
+    @Test
+    public void patchMatchesFullRewrite() throws IOException {
+
+        NBTTagCompound[] inventory = BenchmarkItems.fullInventory();
+        File patchedFile = new File(this.levelDirectory, PLAYER_UUID + PlayerdataRecords.BINARY_EXTENSION);
+        File rewrittenFile = new File(this.levelDirectory, "rewritten" + PlayerdataRecords.BINARY_EXTENSION);
+
+        assertTrue(PlayerdataRecords.write(patchedFile, PlayerdataRecordsTest.makePlayerData(inventory, new PartialLocation(1, 2, 3, 4, 5), 20)));
+        assertTrue(PlayerdataRecords.write(rewrittenFile, PlayerdataRecordsTest.makePlayerData(inventory, null, 6.5)));
+
+        // Patching in the values of the second record must produce it byte for byte, items included.
+        assertTrue(PlayerdataRecords.patch(patchedFile, new PlayerdataPatch().setCoordinates(null).setHealth(6.5)));
+        assertArrayEquals(Files.readAllBytes(rewrittenFile.toPath()), Files.readAllBytes(patchedFile.toPath()));
+        assertFalse(new File(patchedFile.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void patchSkipsMissingRecord() {
+        assertFalse(PlayerdataRecords.patch(new File(this.levelDirectory, PLAYER_UUID + PlayerdataRecords.BINARY_EXTENSION),
+                new PlayerdataPatch().setCoordinates(null)));
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void refusesDamagedRecord() throws IOException {
+        Files.write(new File(this.levelDirectory, PLAYER_UUID + PlayerdataRecords.BINARY_EXTENSION).toPath(), new byte[] {1, 2, 3, 4, 5, 6, 7});
+        PlayerdataRecords.read(this.levelDirectory, PLAYER_UUID);
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void refusesTruncatedRecord() throws IOException {
+
+        File recordFile = new File(this.levelDirectory, PLAYER_UUID + PlayerdataRecords.BINARY_EXTENSION);
+        assertTrue(PlayerdataRecords.write(recordFile, PlayerdataRecordsTest.makePlayerData(BenchmarkItems.fullInventory(), null, 20)));
+
+        byte[] record = Files.readAllBytes(recordFile.toPath());
+        Files.write(recordFile.toPath(), Arrays.copyOf(record, record.length / 2));
+        PlayerdataRecords.read(this.levelDirectory, PLAYER_UUID);
+    }
+
+    @Test
+    public void refusesSlotCountPastTheEnd() throws IOException {
+
+        File recordFile = new File(this.levelDirectory, PLAYER_UUID + PlayerdataRecords.BINARY_EXTENSION);
+        assertTrue(PlayerdataRecords.write(recordFile, PlayerdataRecordsTest.makePlayerData(BenchmarkItems.fullInventory(), null, 20)));
+
+        // The inventory slot count comes right after the header, the stats, the missing coordinates and the potion effect.
+        try (RandomAccessFile record = new RandomAccessFile(recordFile, "rw")) {
+            record.seek(5 + 8 + 4 + 4 + 4 + 1 + 4 + 2 + "SPEED".length() + 4 + 4);
+            record.writeInt(Integer.MAX_VALUE);
+        }
+
+        try {
+            PlayerdataRecords.read(this.levelDirectory, PLAYER_UUID);
+            fail("Read a record with a slot count past its end");
+        } catch (UncheckedIOException e) {
+            assertTrue(e.getCause().getMessage().startsWith("Corrupt record"));
+        }
+
+        try {
+            PlayerdataRecords.collectBlobReferences(recordFile, new HashSet<>());
+            fail("Collected the references of a record with a slot count past its end");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Corrupt record"));
+        }
+    }
+
+    /**
+     * Builds the playerdata written by the tests, with full armour and a single potion effect.
+     */
+    private static PlayerDataHolder makePlayerData(NBTTagCompound[] inventory, PartialLocation coordinates, double health) {
+
+        ArrayList<SimplePotionEffect> potionEffects = new ArrayList<>();
+        potionEffects.add(new SimplePotionEffect("SPEED", 2400, 1));
+
+        return BenchmarkItems.capturedPlayerData(inventory, BenchmarkItems.fullArmour(), potionEffects, coordinates, 30, 0.25F, health, 18);
+    }
+
+    private static NBTTagCompound[] concat(NBTTagCompound[] first, NBTTagCompound[] second) {
+        NBTTagCompound[] items = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, items, first.length, second.length);
+        return items;
+    }
+}